@@ -0,0 +1,77 @@
+package com.jakewharton.scalpel.benchmark;
+
+import com.jakewharton.scalpel.core.Gestures;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static com.jakewharton.scalpel.core.Gestures.TRACKING_UNKNOWN;
+
+/** Mapping a scripted stream of pointer movement onto the camera model. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GestureBenchmark {
+  private static final int SAMPLES = 1024;
+  private static final int WIDTH = 1080;
+  private static final int HEIGHT = 1920;
+
+  private final float[] deltas = new float[SAMPLES * 4];
+
+  @Setup public void setUp() {
+    Random random = new Random(0);
+    for (int i = 0; i < deltas.length; i++) {
+      deltas[i] = random.nextFloat() * 40 - 20;
+    }
+  }
+
+  @Benchmark public float drag() {
+    float rotationX = Gestures.ROTATION_DEFAULT_X;
+    float rotationY = Gestures.ROTATION_DEFAULT_Y;
+    for (int i = 0; i < SAMPLES; i++) {
+      float dx = deltas[i * 2];
+      float dy = deltas[i * 2 + 1];
+      rotationY = Gestures.clampRotation(rotationY + Gestures.rotationForDrag(dx, WIDTH));
+      rotationX = Gestures.clampRotation(rotationX + Gestures.rotationForDrag(-dy, HEIGHT));
+    }
+    return rotationX + rotationY;
+  }
+
+  @Benchmark public float pinch() {
+    float zoom = Gestures.ZOOM_DEFAULT;
+    float spacing = Gestures.SPACING_DEFAULT;
+    int tracking = TRACKING_UNKNOWN;
+    float x = 0;
+    float y = 0;
+    for (int i = 0; i < SAMPLES; i++) {
+      float dxOne = deltas[i * 4];
+      float dyOne = deltas[i * 4 + 1];
+      float dxTwo = deltas[i * 4 + 2];
+      float dyTwo = deltas[i * 4 + 3];
+      if (tracking == TRACKING_UNKNOWN) {
+        tracking = Gestures.classifyPinch(dxOne, dyOne, dxTwo, dyTwo, 8);
+      }
+      if (tracking == Gestures.TRACKING_VERTICALLY) {
+        zoom = Gestures.clampZoom(zoom + Gestures.zoomForPinch(y, dyOne, -y, dyTwo, HEIGHT));
+      } else if (tracking == Gestures.TRACKING_HORIZONTALLY) {
+        spacing = Gestures.clampSpacing(
+            spacing + Gestures.spacingForPinch(x, dxOne, -x, dxTwo, WIDTH));
+      }
+      x += dxOne;
+      y += dyOne;
+    }
+    return zoom + spacing;
+  }
+}
@@ -0,0 +1,86 @@
+package com.jakewharton.scalpel.benchmark;
+
+import com.jakewharton.scalpel.core.HierarchySnapshot;
+import com.jakewharton.scalpel.core.LayerIndex;
+import com.jakewharton.scalpel.core.LayerProjection;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static com.jakewharton.scalpel.core.LayerProjection.FLOATS_PER_OUTLINE;
+
+/** Capture, projection, and hit testing of synthetic hierarchies of 10k+ nodes. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HierarchyBenchmark {
+  @Param({ "wide", "deep", "quadrants" })
+  public String shape;
+
+  private SyntheticNode root;
+  private HierarchySnapshot<SyntheticNode> snapshot;
+  private float[] points;
+  private LayerIndex index;
+  private int tap;
+
+  @Setup public void setUp() {
+    switch (shape) {
+      case "wide":
+        root = SyntheticNode.wide(10000);
+        break;
+      case "deep":
+        root = SyntheticNode.deep(10000);
+        break;
+      case "quadrants":
+        root = SyntheticNode.quadrants(7);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown shape: " + shape);
+    }
+    snapshot = new HierarchySnapshot<>(SyntheticNode.ADAPTER);
+    snapshot.capture(root, null, Integer.MAX_VALUE);
+    points = new float[snapshot.count * FLOATS_PER_OUTLINE];
+    index = new LayerIndex();
+    index.build(snapshot);
+  }
+
+  @Benchmark public int capture() {
+    snapshot.capture(root, null, Integer.MAX_VALUE);
+    return snapshot.count;
+  }
+
+  @Benchmark public boolean isStale() {
+    return snapshot.isStale();
+  }
+
+  @Benchmark public int projectOutlines() {
+    float layerX = LayerProjection.layerOffsetX(15, 25, 3);
+    float layerY = LayerProjection.layerOffsetY(-10, 25, 3);
+    return LayerProjection.projectOutlines(snapshot, layerX, layerY, points);
+  }
+
+  @Benchmark public void buildIndex() {
+    index.build(snapshot);
+  }
+
+  @Benchmark public int find() {
+    // Walk the tap across the hierarchy so that different cells are hit.
+    int tap = this.tap++;
+    float x = (tap * 37) % 1000;
+    float y = (tap * 53) % 1800;
+    return index.find(x, y, LayerProjection.layerOffsetX(15, 25, 3),
+        LayerProjection.layerOffsetY(-10, 25, 3));
+  }
+}
@@ -0,0 +1,125 @@
+package com.jakewharton.scalpel.benchmark;
+
+import com.jakewharton.scalpel.core.HierarchySnapshot;
+import com.jakewharton.scalpel.core.NodeAdapter;
+
+/** A minimal stand-in for a view with window-relative bounds. */
+final class SyntheticNode {
+  static final int VISIBLE = 0;
+  static final int INVISIBLE = 1;
+  static final int GONE = 2;
+
+  static final NodeAdapter<SyntheticNode> ADAPTER = new NodeAdapter<SyntheticNode>() {
+    @Override public int childCount(SyntheticNode node) {
+      return node.children.length;
+    }
+
+    @Override public SyntheticNode childAt(SyntheticNode node, int index) {
+      return node.children[index];
+    }
+
+    @Override public boolean isGone(SyntheticNode node) {
+      return node.visibility == GONE;
+    }
+
+    @Override public boolean isVisible(SyntheticNode node) {
+      return node.visibility == VISIBLE;
+    }
+
+    @Override public void getLocation(SyntheticNode node, int[] location) {
+      location[0] = node.left;
+      location[1] = node.top;
+    }
+
+    @Override public int width(SyntheticNode node) {
+      return node.width;
+    }
+
+    @Override public int height(SyntheticNode node) {
+      return node.height;
+    }
+
+    @Override public int id(SyntheticNode node) {
+      return node.id;
+    }
+
+    @Override public boolean clipsChildren(SyntheticNode node) {
+      return node.children.length > 0;
+    }
+
+    @Override public boolean drawsContent(SyntheticNode node) {
+      // Like most layouts, groups only arrange their children.
+      return node.children.length == 0;
+    }
+  };
+
+  private static final SyntheticNode[] NO_CHILDREN = new SyntheticNode[0];
+
+  int left;
+  int top;
+  int width;
+  int height;
+  final int id;
+  int visibility = VISIBLE;
+  SyntheticNode[] children = NO_CHILDREN;
+
+  SyntheticNode(int left, int top, int width, int height, int id) {
+    this.left = left;
+    this.top = top;
+    this.width = width;
+    this.height = height;
+    this.id = id;
+  }
+
+  /** A root with {@code count} children laid out in a grid of 100 columns. */
+  static SyntheticNode wide(int count) {
+    SyntheticNode root = new SyntheticNode(0, 0, 1080, 1920, HierarchySnapshot.NO_ID);
+    root.children = new SyntheticNode[count];
+    int width = 1080 / 100;
+    int height = Math.max(1, 1920 / ((count + 99) / 100));
+    for (int i = 0; i < count; i++) {
+      root.children[i] = new SyntheticNode((i % 100) * width, (i / 100) * height, width, height, i);
+    }
+    return root;
+  }
+
+  /** A chain of {@code depth} nodes each inset by one pixel from its parent. */
+  static SyntheticNode deep(int depth) {
+    SyntheticNode root = new SyntheticNode(0, 0, 1080, 1920, HierarchySnapshot.NO_ID);
+    SyntheticNode parent = root;
+    for (int i = 0; i < depth; i++) {
+      int inset = (i + 1) % 500;
+      SyntheticNode child =
+          new SyntheticNode(inset, inset, 1080 - 2 * inset, 1920 - 2 * inset, i);
+      parent.children = new SyntheticNode[] { child };
+      parent = child;
+    }
+    return root;
+  }
+
+  /**
+   * A complete tree of {@code depth} levels below the root where each node is split into four
+   * quadrant children.
+   */
+  static SyntheticNode quadrants(int depth) {
+    SyntheticNode root = new SyntheticNode(0, 0, 1080, 1920, HierarchySnapshot.NO_ID);
+    fill(root, depth, new int[1]);
+    return root;
+  }
+
+  private static void fill(SyntheticNode parent, int depth, int[] nextId) {
+    if (depth == 0) {
+      return;
+    }
+    int width = Math.max(1, parent.width / 2);
+    int height = Math.max(1, parent.height / 2);
+    parent.children = new SyntheticNode[4];
+    for (int i = 0; i < 4; i++) {
+      int left = parent.left + (i % 2) * width;
+      int top = parent.top + (i / 2) * height;
+      SyntheticNode child = new SyntheticNode(left, top, width, height, nextId[0]++);
+      parent.children[i] = child;
+      fill(child, depth - 1, nextId);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.jakewharton.scalpel.benchmark;
+
+import com.jakewharton.scalpel.core.HierarchySnapshot;
+import com.jakewharton.scalpel.core.LayerProjection;
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import org.junit.Test;
+
+import static com.jakewharton.scalpel.core.LayerProjection.FLOATS_PER_OUTLINE;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the work done by the core for each frame does not allocate once it is warmed up.
+ * Each frame re-captures the hierarchy, as happens after a layout, checks it for staleness, and
+ * projects its outlines.
+ */
+public final class AllocationTest {
+  private static final int WARMUP_FRAMES = 2000;
+  private static final int MEASURED_FRAMES = 500;
+
+  @Test public void wideFramesDoNotAllocate() {
+    assertEquals(0, allocatedBytes(SyntheticNode.wide(10000)));
+  }
+
+  @Test public void deepFramesDoNotAllocate() {
+    assertEquals(0, allocatedBytes(SyntheticNode.deep(10000)));
+  }
+
+  @Test public void quadrantFramesDoNotAllocate() {
+    assertEquals(0, allocatedBytes(SyntheticNode.quadrants(7)));
+  }
+
+  /** Returns the bytes allocated by the measured frames of {@code root} after warming up. */
+  private static long allocatedBytes(SyntheticNode root) {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+
+    HierarchySnapshot<SyntheticNode> snapshot = new HierarchySnapshot<>(SyntheticNode.ADAPTER);
+    snapshot.capture(root, null, Integer.MAX_VALUE);
+    float[] points = new float[snapshot.count * FLOATS_PER_OUTLINE];
+    for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+      frame(root, snapshot, points, frame);
+    }
+
+    // Account for anything allocated by the measurement itself.
+    threads.getThreadAllocatedBytes(thread);
+    long start = threads.getThreadAllocatedBytes(thread);
+    long overhead = threads.getThreadAllocatedBytes(thread) - start;
+
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int frame = 0; frame < MEASURED_FRAMES; frame++) {
+      frame(root, snapshot, points, frame);
+    }
+    return threads.getThreadAllocatedBytes(thread) - before - overhead;
+  }
+
+  private static int frame(SyntheticNode root, HierarchySnapshot<SyntheticNode> snapshot,
+      float[] points, int frame) {
+    snapshot.capture(root, null, Integer.MAX_VALUE);
+    if (snapshot.isStale()) {
+      throw new AssertionError("Snapshot is stale immediately after capture.");
+    }
+    float rotation = frame % 120 - 60;
+    float layerX = LayerProjection.layerOffsetX(rotation, 25, 3);
+    float layerY = LayerProjection.layerOffsetY(-rotation, 25, 3);
+    return LayerProjection.projectOutlines(snapshot, layerX, layerY, points);
+  }
+}
@@ -0,0 +1,215 @@
+package com.jakewharton.scalpel.benchmark;
+
+import com.jakewharton.scalpel.core.HierarchySnapshot;
+import com.jakewharton.scalpel.core.ModelStreamReader;
+import com.jakewharton.scalpel.core.ModelStreamWriter;
+import com.jakewharton.scalpel.core.SnapshotWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Streams a changing synthetic hierarchy over a loopback socket and checks that the model decoded
+ * by the client matches every capture. Each step changes the hierarchy the way an app would, such
+ * as moving a node or hiding a subtree.
+ */
+public final class StreamLoopbackTest {
+  private static final SnapshotWriter.Names<SyntheticNode> NAMES =
+      new SnapshotWriter.Names<SyntheticNode>() {
+        @Override public String className(SyntheticNode node) {
+          return node.children.length == 0 ? "Leaf" : "Group";
+        }
+
+        @Override public String idName(SyntheticNode node) {
+          return node.id == HierarchySnapshot.NO_ID ? null : "node_" + node.id;
+        }
+      };
+
+  private final BlockingQueue<Object> applied = new LinkedBlockingQueue<>();
+  private final HierarchySnapshot<SyntheticNode> snapshot =
+      new HierarchySnapshot<>(SyntheticNode.ADAPTER);
+  private final SyntheticNode root = SyntheticNode.quadrants(4);
+  private ServerSocket server;
+  private Socket client;
+  private Socket connection;
+  private Thread readerThread;
+  private ModelStreamReader reader;
+  private ModelStreamWriter<SyntheticNode> writer;
+  /** The node index of each streamed node, by stream ID. */
+  private int[] indices = new int[0];
+  private int rendering;
+
+  @Before public void setUp() throws IOException {
+    server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    client = new Socket(server.getInetAddress(), server.getLocalPort());
+    connection = server.accept();
+
+    reader = new ModelStreamReader(client.getInputStream());
+    readerThread = new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          while (reader.readFrame()) {
+            applied.add(Boolean.TRUE);
+          }
+        } catch (IOException e) {
+          applied.add(e);
+        }
+      }
+    }, "StreamLoopbackTest reader");
+    readerThread.setDaemon(true);
+    readerThread.start();
+
+    writer = new ModelStreamWriter<>(connection.getOutputStream(), NAMES);
+  }
+
+  @After public void tearDown() throws Exception {
+    connection.close();
+    readerThread.join(TimeUnit.SECONDS.toMillis(5));
+    client.close();
+    server.close();
+  }
+
+  @Test public void decodedModelMatchesEveryCapture() throws Exception {
+    assertTrue(step("full", null));
+    assertFalse("An unchanged capture sends nothing new.", step("unchanged", null));
+
+    SyntheticNode moved = root.children[0].children[1].children[2].children[3];
+    moved.left += 7;
+    step("move leaf", null);
+
+    root.children[1].visibility = SyntheticNode.INVISIBLE;
+    step("hide subtree", null);
+    root.children[1].visibility = SyntheticNode.VISIBLE;
+    step("show subtree", null);
+
+    root.children[2].children[3].visibility = SyntheticNode.GONE;
+    step("remove subtree", null);
+
+    SyntheticNode parent = root.children[3].children[0].children[0];
+    SyntheticNode added = new SyntheticNode(parent.left + 1, parent.top + 1, 5, 5, 10000);
+    parent.children = Arrays.copyOf(parent.children, parent.children.length + 1);
+    parent.children[parent.children.length - 1] = added;
+    step("add leaf", null);
+
+    step("re-render leaf", added);
+
+    moved.width += 3;
+    step("resize leaf", null);
+
+    writer.reset();
+    assertTrue(step("reset", null));
+  }
+
+  /**
+   * Stream one frame of the hierarchy and check the decoded model against its capture. Returns
+   * whether the frame held any changes.
+   */
+  private boolean step(String name, SyntheticNode rerendered) throws Exception {
+    snapshot.capture(root, null, Integer.MAX_VALUE);
+    rendering++;
+
+    boolean full = writer.beginFrame(snapshot, 1080, 1920);
+    for (int i = 0; i < snapshot.count; i++) {
+      SyntheticNode node = snapshot.node(i);
+      if (!snapshot.draws[i]) {
+        continue;
+      }
+      if (full || !writer.hasPixels(i) || node == rerendered) {
+        writer.writePixels(i, node.width, node.height, render(node, rendering));
+      }
+    }
+    boolean changed = writer.endFrame();
+
+    Object result = applied.poll(5, TimeUnit.SECONDS);
+    if (result instanceof IOException) {
+      throw (IOException) result;
+    }
+    assertNotNull("Frame was not decoded: " + name, result);
+    assertNull(name, compare(rerendered));
+    return changed;
+  }
+
+  /** Returns a description of the first difference between the model and the capture. */
+  private String compare(SyntheticNode rerendered) {
+    List<ModelStreamReader.Node> nodes = reader.nodes();
+    if (nodes.size() != snapshot.count) {
+      return "count " + nodes.size() + " != " + snapshot.count;
+    }
+    if (reader.originX() != snapshot.originX || reader.originY() != snapshot.originY) {
+      return "origin";
+    }
+    int maxStreamId = 0;
+    for (ModelStreamReader.Node node : nodes) {
+      maxStreamId = Math.max(maxStreamId, node.streamId);
+    }
+    if (indices.length <= maxStreamId) {
+      indices = new int[maxStreamId + 1];
+    }
+    for (int i = 0; i < nodes.size(); i++) {
+      indices[nodes.get(i).streamId] = i;
+    }
+
+    for (int i = 0; i < snapshot.count; i++) {
+      ModelStreamReader.Node node = nodes.get(i);
+      SyntheticNode expected = snapshot.node(i);
+      int parent = node.parent == -1 ? -1 : indices[node.parent];
+      if (parent != snapshot.parents[i]
+          || node.layer != snapshot.layers[i]
+          || node.left != snapshot.lefts[i]
+          || node.top != snapshot.tops[i]
+          || node.width != snapshot.widths[i]
+          || node.height != snapshot.heights[i]
+          || node.id != snapshot.ids[i]
+          || node.visible != snapshot.visible[i]
+          || node.drawsContent != snapshot.draws[i]
+          || !node.className.equals(NAMES.className(expected))) {
+        return "node " + i;
+      }
+      String idName = NAMES.idName(expected);
+      if (idName == null ? node.idName != null : !idName.equals(node.idName)) {
+        return "id name " + i;
+      }
+      if (snapshot.draws[i]) {
+        if (node.pixels == null
+            || node.pixelWidth != expected.width
+            || node.pixelHeight != expected.height) {
+          return "pixels " + i;
+        }
+        if (expected == rerendered && !Arrays.equals(node.pixels, render(expected, rendering))) {
+          return "re-rendered pixels " + i;
+        }
+      }
+    }
+    return null;
+  }
+
+  /** A transparent rendering with an opaque border whose color changes with each rendering. */
+  private static int[] render(SyntheticNode node, int rendering) {
+    int width = node.width;
+    int height = node.height;
+    int[] pixels = new int[width * height];
+    int color = 0xFF000000 | (node.id * 31 + rendering) & 0xFFFFFF;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        if (x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+          pixels[y * width + x] = color;
+        }
+      }
+    }
+    return pixels;
+  }
+}
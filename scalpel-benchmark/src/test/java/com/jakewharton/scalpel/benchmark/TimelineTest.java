@@ -0,0 +1,171 @@
+package com.jakewharton.scalpel.benchmark;
+
+import com.jakewharton.scalpel.core.HierarchySnapshot;
+import com.jakewharton.scalpel.core.HierarchyTimeline;
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static com.jakewharton.scalpel.core.HierarchyTimeline.BLOCK_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records a changing synthetic hierarchy into a timeline and checks that every frame still held
+ * restores exactly as it was captured, and that recording an animation does not allocate once
+ * warmed up.
+ */
+public final class TimelineTest {
+  private static final int CAPACITY = 16;
+  private static final int ANIMATION_CAPACITY = 120;
+  private static final int WARMUP_FRAMES = 2000;
+  private static final int MEASURED_FRAMES = 500;
+
+  /** Apply a series of changes, then compare each frame still held with a copy of its capture. */
+  @Test public void framesRestoreExactly() {
+    SyntheticNode root = SyntheticNode.quadrants(4);
+    HierarchySnapshot<SyntheticNode> snapshot = new HierarchySnapshot<>(SyntheticNode.ADAPTER);
+    HierarchyTimeline<SyntheticNode> timeline = new HierarchyTimeline<>(CAPACITY);
+    List<Copy> copies = new ArrayList<>();
+
+    SyntheticNode moved = root.children[0].children[1].children[2].children[3];
+    SyntheticNode parent = root.children[3].children[0].children[0];
+    for (int frame = 0; frame < CAPACITY * 3; frame++) {
+      moved.left++;
+      if (frame % 10 == 3) {
+        root.children[1].visibility ^= SyntheticNode.INVISIBLE;
+      }
+      if (frame % 10 == 7) {
+        SyntheticNode added = new SyntheticNode(parent.left + 1, parent.top + 1, 5, 5, frame);
+        parent.children = Arrays.copyOf(parent.children, parent.children.length + 1);
+        parent.children[parent.children.length - 1] = added;
+      }
+      snapshot.capture(root, null, Integer.MAX_VALUE);
+      timeline.record(snapshot, frame, null);
+      copies.add(new Copy(snapshot));
+    }
+
+    assertEquals(CAPACITY, timeline.size());
+    HierarchySnapshot<SyntheticNode> restored = new HierarchySnapshot<>(SyntheticNode.ADAPTER);
+    int first = copies.size() - timeline.size();
+    for (int frame = 0; frame < timeline.size(); frame++) {
+      timeline.restore(frame, restored);
+      assertNull("Frame " + frame, copies.get(first + frame).compare(restored));
+      assertEquals(first + frame, timeline.timeNanos(frame));
+    }
+
+    // Unchanged blocks are shared, so far fewer are held than copying every frame would take.
+    int blocksPerFrame = (snapshot.count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    assertTrue(timeline.blockCount() < timeline.size() * blocksPerFrame / 2);
+  }
+
+  /** Record a leaf sliding across a large hierarchy, one frame per step. */
+  @Test public void recordingAnimationDoesNotAllocate() {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+
+    SyntheticNode root = SyntheticNode.quadrants(7);
+    SyntheticNode parent = root;
+    while (parent.children[0].children.length > 0) {
+      parent = parent.children[2];
+    }
+    HierarchySnapshot<SyntheticNode> snapshot = new HierarchySnapshot<>(SyntheticNode.ADAPTER);
+    HierarchyTimeline<SyntheticNode> timeline = new HierarchyTimeline<>(ANIMATION_CAPACITY);
+    for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+      animate(root, parent, snapshot, timeline, frame);
+    }
+
+    // Account for anything allocated by the measurement itself.
+    threads.getThreadAllocatedBytes(thread);
+    long start = threads.getThreadAllocatedBytes(thread);
+    long overhead = threads.getThreadAllocatedBytes(thread) - start;
+
+    long before = threads.getThreadAllocatedBytes(thread);
+    for (int frame = 0; frame < MEASURED_FRAMES; frame++) {
+      animate(root, parent, snapshot, timeline, frame);
+    }
+    assertEquals(0, threads.getThreadAllocatedBytes(thread) - before - overhead);
+  }
+
+  /** Slide the first leaf of {@code parent} and record the result. */
+  private static void animate(SyntheticNode root, SyntheticNode parent,
+      HierarchySnapshot<SyntheticNode> snapshot, HierarchyTimeline<SyntheticNode> timeline,
+      int frame) {
+    parent.children[0].left = parent.left + frame % parent.children[0].width;
+    snapshot.capture(root, null, Integer.MAX_VALUE);
+    timeline.record(snapshot, frame, null);
+  }
+
+  /** A full copy of a capture. */
+  private static final class Copy {
+    final int originX;
+    final int originY;
+    final Object[] nodes;
+    final int[] parents;
+    final int[] layers;
+    final int[] lefts;
+    final int[] tops;
+    final int[] widths;
+    final int[] heights;
+    final int[] ids;
+    final boolean[] visible;
+    final boolean[] draws;
+    final int layerCount;
+    final int[] layerOrder;
+
+    Copy(HierarchySnapshot<SyntheticNode> snapshot) {
+      int count = snapshot.count;
+      originX = snapshot.originX;
+      originY = snapshot.originY;
+      nodes = new Object[count];
+      for (int i = 0; i < count; i++) {
+        nodes[i] = snapshot.node(i);
+      }
+      parents = Arrays.copyOf(snapshot.parents, count);
+      layers = Arrays.copyOf(snapshot.layers, count);
+      lefts = Arrays.copyOf(snapshot.lefts, count);
+      tops = Arrays.copyOf(snapshot.tops, count);
+      widths = Arrays.copyOf(snapshot.widths, count);
+      heights = Arrays.copyOf(snapshot.heights, count);
+      ids = Arrays.copyOf(snapshot.ids, count);
+      visible = Arrays.copyOf(snapshot.visible, count);
+      draws = Arrays.copyOf(snapshot.draws, count);
+      layerCount = snapshot.layerCount;
+      layerOrder = Arrays.copyOf(snapshot.layerOrder, count);
+    }
+
+    /** Returns a description of the first difference from {@code snapshot}, or null. */
+    String compare(HierarchySnapshot<SyntheticNode> snapshot) {
+      int count = snapshot.count;
+      if (count != nodes.length) {
+        return "count " + count + " != " + nodes.length;
+      }
+      if (snapshot.originX != originX || snapshot.originY != originY) {
+        return "origin";
+      }
+      if (snapshot.layerCount != layerCount
+          || !Arrays.equals(Arrays.copyOf(snapshot.layerOrder, count), layerOrder)) {
+        return "layer order";
+      }
+      for (int i = 0; i < count; i++) {
+        if (snapshot.node(i) != nodes[i]
+            || snapshot.parents[i] != parents[i]
+            || snapshot.layers[i] != layers[i]
+            || snapshot.lefts[i] != lefts[i]
+            || snapshot.tops[i] != tops[i]
+            || snapshot.widths[i] != widths[i]
+            || snapshot.heights[i] != heights[i]
+            || snapshot.ids[i] != ids[i]
+            || snapshot.visible[i] != visible[i]
+            || snapshot.draws[i] != draws[i]) {
+          return "node " + i;
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package com.jakewharton.scalpel.core;
+
+import java.util.Arrays;
+
+/**
+ * Estimates overdraw by replaying the nodes of a {@link HierarchySnapshot} which draw content onto
+ * a coarse grid over the container. A node paints each cell whose center it covers, so the count
+ * of a cell is how many times its pixels are painted.
+ * <p>
+ * This is an approximation. Nodes are replayed depth-first from the captured parents, each before
+ * its descendants and after its earlier siblings, which is the order views draw in unless they
+ * reorder their children. Every node which draws is assumed to paint its entire bounds, and
+ * foregrounds drawn over children are not counted. The children of a group culled from the
+ * capture are replayed after its captured siblings.
+ */
+public final class CoverageGrid {
+  private int columns;
+  private int rows;
+  private int cellSize;
+  private int[] counts = new int[0];
+  private int[] levels = new int[0];
+  // Scratch space for walking the captured tree.
+  private int[] firstChildren = new int[0];
+  private int[] nextSiblings = new int[0];
+  private int[] stack = new int[0];
+
+  /**
+   * Replay the visible nodes of {@code snapshot} which draw content onto a grid of
+   * {@code cellSize} square cells covering a container of {@code width} by {@code height}.
+   */
+  public void compute(HierarchySnapshot<?> snapshot, int width, int height, int cellSize) {
+    if (cellSize <= 0) {
+      throw new IllegalArgumentException("cellSize <= 0: " + cellSize);
+    }
+    int columns = (width + cellSize - 1) / cellSize;
+    int rows = (height + cellSize - 1) / cellSize;
+    this.columns = columns;
+    this.rows = rows;
+    this.cellSize = cellSize;
+
+    int cells = columns * rows;
+    if (counts.length < cells) {
+      counts = new int[cells];
+    } else {
+      Arrays.fill(counts, 0, cells, 0);
+    }
+    int count = snapshot.count;
+    if (levels.length < count) {
+      int capacity = snapshot.lefts.length;
+      levels = new int[capacity];
+      firstChildren = new int[capacity];
+      nextSiblings = new int[capacity];
+      stack = new int[capacity];
+    } else {
+      Arrays.fill(levels, 0, count, 0);
+    }
+
+    // Link each node's children in capture order. Parents are always captured before children.
+    int[] parents = snapshot.parents;
+    int[] firstChildren = this.firstChildren;
+    int[] nextSiblings = this.nextSiblings;
+    Arrays.fill(firstChildren, 0, count, -1);
+    int firstRoot = -1;
+    for (int i = count - 1; i >= 0; i--) {
+      int parent = parents[i];
+      if (parent == -1) {
+        nextSiblings[i] = firstRoot;
+        firstRoot = i;
+      } else {
+        nextSiblings[i] = firstChildren[parent];
+        firstChildren[parent] = i;
+      }
+    }
+
+    float half = cellSize / 2f;
+    int x = snapshot.originX;
+    int y = snapshot.originY;
+    // Pre-order walk. Each node is pushed once so the stack never outgrows the node count.
+    int[] stack = this.stack;
+    int size = 0;
+    if (firstRoot != -1) {
+      stack[size++] = firstRoot;
+    }
+    while (size > 0) {
+      int i = stack[--size];
+      if (nextSiblings[i] != -1) {
+        stack[size++] = nextSiblings[i];
+      }
+      if (firstChildren[i] != -1) {
+        stack[size++] = firstChildren[i];
+      }
+      if (!snapshot.visible[i] || !snapshot.draws[i]) {
+        continue;
+      }
+      int left = snapshot.lefts[i] - x;
+      int top = snapshot.tops[i] - y;
+      // Cells whose centers lie within [left, right) and [top, bottom).
+      int firstColumn = Math.max(0, (int) Math.ceil((left - half) / cellSize));
+      int lastColumn =
+          Math.min(columns, (int) Math.ceil((left + snapshot.widths[i] - half) / cellSize)) - 1;
+      int firstRow = Math.max(0, (int) Math.ceil((top - half) / cellSize));
+      int lastRow =
+          Math.min(rows, (int) Math.ceil((top + snapshot.heights[i] - half) / cellSize)) - 1;
+
+      int level = 0;
+      for (int row = firstRow; row <= lastRow; row++) {
+        for (int column = firstColumn, cell = row * columns + firstColumn; column <= lastColumn;
+            column++, cell++) {
+          level = Math.max(level, ++counts[cell]);
+        }
+      }
+      levels[i] = level;
+    }
+  }
+
+  /**
+   * The number of times the most painted cell under the node at {@code index} has been painted
+   * once that node is drawn. One means the node does not overdraw anything. Zero means it paints
+   * nothing, either because it does not draw content or covers no cell centers.
+   */
+  public int level(int index) {
+    return levels[index];
+  }
+
+  /** The number of times the pixels of the cell at {@code column} and {@code row} are painted. */
+  public int count(int column, int row) {
+    return counts[row * columns + column];
+  }
+
+  public int columns() {
+    return columns;
+  }
+
+  public int rows() {
+    return rows;
+  }
+
+  public int cellSize() {
+    return cellSize;
+  }
+}
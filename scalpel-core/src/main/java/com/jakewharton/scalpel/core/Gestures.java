@@ -0,0 +1,74 @@
+package com.jakewharton.scalpel.core;
+
+/** Limits of the model camera and the mapping of touch movement onto them. */
+public final class Gestures {
+  public static final int ROTATION_MAX = 60;
+  public static final int ROTATION_MIN = -ROTATION_MAX;
+  public static final int ROTATION_DEFAULT_X = -10;
+  public static final int ROTATION_DEFAULT_Y = 15;
+  public static final float ZOOM_DEFAULT = 0.6f;
+  public static final float ZOOM_MIN = 0.33f;
+  public static final float ZOOM_MAX = 2f;
+  public static final int SPACING_DEFAULT = 25;
+  public static final int SPACING_MIN = 10;
+  public static final int SPACING_MAX = 100;
+
+  public static final int TRACKING_UNKNOWN = 0;
+  public static final int TRACKING_VERTICALLY = 1;
+  public static final int TRACKING_HORIZONTALLY = -1;
+
+  public static float clampRotation(float rotation) {
+    return Math.min(Math.max(rotation, ROTATION_MIN), ROTATION_MAX);
+  }
+
+  public static float clampZoom(float zoom) {
+    return Math.min(Math.max(zoom, ZOOM_MIN), ZOOM_MAX);
+  }
+
+  public static float clampSpacing(float spacing) {
+    return Math.min(Math.max(spacing, SPACING_MIN), SPACING_MAX);
+  }
+
+  /**
+   * Degrees of rotation for a pointer moving {@code delta} pixels along an axis which is
+   * {@code size} pixels long. A horizontal movement rotates around the Y axis and a vertical
+   * movement, whose delta must be inverted, rotates around the X axis.
+   */
+  public static float rotationForDrag(float delta, int size) {
+    return 90 * (delta / size);
+  }
+
+  /**
+   * Decide which direction a two pointer pinch is tracking once the pointers have moved far
+   * enough. Returns {@link #TRACKING_UNKNOWN} until then.
+   */
+  public static int classifyPinch(float dxOne, float dyOne, float dxTwo, float dyTwo, float slop) {
+    float adx = Math.abs(dxOne) + Math.abs(dxTwo);
+    float ady = Math.abs(dyOne) + Math.abs(dyTwo);
+    if (adx > slop * 2 || ady > slop * 2) {
+      // Whichever direction moved the most wins.
+      return adx > ady ? TRACKING_HORIZONTALLY : TRACKING_VERTICALLY;
+    }
+    return TRACKING_UNKNOWN;
+  }
+
+  /** Change in zoom for a vertical pinch in a view which is {@code height} pixels tall. */
+  public static float zoomForPinch(float yOne, float dyOne, float yTwo, float dyTwo, int height) {
+    if (yOne >= yTwo) {
+      return dyOne / height - dyTwo / height;
+    }
+    return dyTwo / height - dyOne / height;
+  }
+
+  /** Change in spacing for a horizontal pinch in a view which is {@code width} pixels wide. */
+  public static float spacingForPinch(float xOne, float dxOne, float xTwo, float dxTwo, int width) {
+    if (xOne >= xTwo) {
+      return (dxOne / width * SPACING_MAX) - (dxTwo / width * SPACING_MAX);
+    }
+    return (dxTwo / width * SPACING_MAX) - (dxOne / width * SPACING_MAX);
+  }
+
+  private Gestures() {
+    throw new AssertionError("No instances.");
+  }
+}
@@ -0,0 +1,398 @@
+package com.jakewharton.scalpel.core;
+
+import java.util.Arrays;
+
+/**
+ * A flattened, breadth-first capture of a hierarchy stored as parallel arrays. The container
+ * itself is not captured, only its descendants. Nodes which are not
+ * {@linkplain NodeAdapter#isGone gone} are captured along with their visibility so that visibility
+ * changes, which do not trigger a layout, can be detected with {@link #isStale()}. The children of
+ * invisible nodes are not captured.
+ * <p>
+ * Nodes which are empty or entirely clipped by their ancestors are culled from the capture.
+ * <p>
+ * When {@linkplain #setCompact(boolean) compact}, groups which draw nothing of their own and have
+ * the same bounds as their nearest captured ancestor, or the container, are collapsed. They are
+ * not captured and their children take their place, in both layer and drawing order, so chains of
+ * wrapper groups do not each add a layer to the model.
+ * <p>
+ * Re-capturing compares each node with the previous capture in place and reports whether anything
+ * differs, so that state derived from an unchanged capture can be kept after a layout pass which
+ * moved nothing.
+ * <p>
+ * The arrays are exposed directly so that renderers can iterate them in a tight loop. They must
+ * be treated as read-only and are only valid for indices less than {@link #count}. Nodes are also
+ * grouped by layer in {@link #layerOrder} so that renderers can apply each layer's offset once.
+ */
+public final class HierarchySnapshot<T> {
+  public static final int NO_ID = -1;
+
+  private static final int CHILD_COUNT_ESTIMATION = 25;
+
+  private final NodeAdapter<T> adapter;
+  private final int[] location = new int[2];
+  private final NodeQueue queue = new NodeQueue(CHILD_COUNT_ESTIMATION);
+  private int growths;
+
+  /** The number of captured nodes. */
+  public int count;
+  /** Window-relative location of the container. */
+  public int originX;
+  public int originY;
+
+  private Object[] nodes = new Object[CHILD_COUNT_ESTIMATION];
+  /** Index of each node's nearest captured ancestor or -1 for none. */
+  public int[] parents = new int[CHILD_COUNT_ESTIMATION];
+  public int[] layers = new int[CHILD_COUNT_ESTIMATION];
+  /** Window-relative bounds of each node. */
+  public int[] lefts = new int[CHILD_COUNT_ESTIMATION];
+  public int[] tops = new int[CHILD_COUNT_ESTIMATION];
+  public int[] widths = new int[CHILD_COUNT_ESTIMATION];
+  public int[] heights = new int[CHILD_COUNT_ESTIMATION];
+  public int[] ids = new int[CHILD_COUNT_ESTIMATION];
+  public boolean[] visible = new boolean[CHILD_COUNT_ESTIMATION];
+  /** Whether each node {@linkplain NodeAdapter#drawsContent draws anything of its own}. */
+  public boolean[] draws = new boolean[CHILD_COUNT_ESTIMATION];
+
+  /** One more than the deepest captured layer. Layers may be empty. */
+  public int layerCount;
+  /**
+   * Indices of the captured nodes ordered by layer. Within a layer they stay in capture order, so
+   * drawing in this order paints each node above its ancestors and earlier siblings.
+   */
+  public int[] layerOrder = new int[CHILD_COUNT_ESTIMATION];
+  /**
+   * Index in {@link #layerOrder} of the first node of each layer. A layer ends where the next one
+   * starts so this holds {@link #layerCount} + 1 entries.
+   */
+  public int[] layerStarts = new int[CHILD_COUNT_ESTIMATION];
+
+  private boolean valid;
+  private boolean compact;
+  /** Collapsed groups which are checked for visibility changes by {@link #isStale()}. */
+  private Object[] collapsed = new Object[CHILD_COUNT_ESTIMATION];
+  private int collapsedCount;
+  /** The count of the previous capture whose entries are compared while re-capturing. */
+  private int previousCount;
+  private boolean changed;
+
+  public HierarchySnapshot(NodeAdapter<T> adapter) {
+    this.adapter = adapter;
+  }
+
+  /** The captured node at {@code index}. */
+  @SuppressWarnings("unchecked") // Only nodes of type T are stored.
+  public T node(int index) {
+    return (T) nodes[index];
+  }
+
+  /**
+   * The total number of times the traversal queue or the captured arrays had to grow. Once the
+   * buffers fit the hierarchy, re-capturing it does not allocate.
+   */
+  public int growths() {
+    return queue.growths() + growths;
+  }
+
+  /**
+   * Set whether pass-through groups are collapsed into the layer of their children. Changing this
+   * invalidates the capture.
+   */
+  public void setCompact(boolean compact) {
+    if (this.compact != compact) {
+      this.compact = compact;
+      valid = false;
+    }
+  }
+
+  public boolean isCompact() {
+    return compact;
+  }
+
+  /** Mark the capture as out of date so that it will be re-captured before next use. */
+  public void invalidate() {
+    valid = false;
+  }
+
+  /**
+   * Returns true when the capture must be re-captured. In addition to explicit invalidation, this
+   * checks each captured node for a visibility change.
+   */
+  public boolean isStale() {
+    if (!valid) {
+      return true;
+    }
+    for (int i = 0; i < count; i++) {
+      if (adapter.isVisible(node(i)) != visible[i]) {
+        return true;
+      }
+    }
+    for (int i = 0; i < collapsedCount; i++) {
+      @SuppressWarnings("unchecked") // Only nodes of type T are collapsed.
+      T node = (T) collapsed[i];
+      if (!adapter.isVisible(node)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Capture the descendants of {@code container}, or {@code root} and its descendants when it is
+   * non-null. Nodes deeper than {@code maxDepth} layers are not captured. Returns false when the
+   * result is identical to the previous capture.
+   */
+  public boolean capture(T container, T root, int maxDepth) {
+    NodeAdapter<T> adapter = this.adapter;
+    // Keep the previous nodes in place to compare against as they are overwritten.
+    previousCount = count;
+    changed = false;
+    count = 0;
+    layerCount = 0;
+    Arrays.fill(collapsed, 0, collapsedCount, null);
+    collapsedCount = 0;
+
+    adapter.getLocation(container, location);
+    if (originX != location[0] || originY != location[1]) {
+      changed = true;
+    }
+    originX = location[0];
+    originY = location[1];
+    int containerWidth = adapter.width(container);
+    int containerHeight = adapter.height(container);
+    int clipRight = originX + containerWidth;
+    int clipBottom = originY + containerHeight;
+    boolean compact = this.compact;
+
+    NodeQueue queue = this.queue;
+    if (!queue.isEmpty()) {
+      throw new AssertionError("Node queue is not empty.");
+    }
+
+    if (root == null) {
+      enqueueChildren(container, -1, 0, originX, originY, clipRight, clipBottom);
+    } else {
+      queue.add(root, -1, 0, originX, originY, clipRight, clipBottom);
+    }
+
+    while (!queue.isEmpty()) {
+      queue.poll();
+      @SuppressWarnings("unchecked") // Only nodes of type T are queued.
+      T node = (T) queue.node;
+      int parent = queue.parent;
+      int layer = queue.layer;
+      int clipLeft = queue.clipLeft;
+      int clipTop = queue.clipTop;
+      clipRight = queue.clipRight;
+      clipBottom = queue.clipBottom;
+      queue.clearPolled();
+
+      if (adapter.isGone(node)) {
+        continue;
+      }
+
+      adapter.getLocation(node, location);
+      int left = location[0];
+      int top = location[1];
+      int right = left + adapter.width(node);
+      int bottom = top + adapter.height(node);
+
+      boolean clipsChildren = adapter.clipsChildren(node);
+      if (clipsChildren) {
+        clipLeft = Math.max(clipLeft, left);
+        clipTop = Math.max(clipTop, top);
+        clipRight = Math.min(clipRight, right);
+        clipBottom = Math.min(clipBottom, bottom);
+      }
+
+      if (left >= clipRight || top >= clipBottom || right <= clipLeft || bottom <= clipTop
+          || right <= left || bottom <= top) {
+        // Culled. Only the children of a visible group which does not clip them can still be seen.
+        if (!clipsChildren && adapter.isVisible(node) && layer < maxDepth) {
+          enqueueChildren(node, parent, layer + 1, clipLeft, clipTop, clipRight, clipBottom);
+        }
+        continue;
+      }
+
+      if (compact && adapter.isVisible(node) && !adapter.drawsContent(node)) {
+        boolean sameBounds = parent == -1
+            ? left == originX && top == originY
+                && right - left == containerWidth && bottom - top == containerHeight
+            : left == lefts[parent] && top == tops[parent]
+                && right - left == widths[parent] && bottom - top == heights[parent];
+        if (sameBounds && adapter.childCount(node) > 0) {
+          // Pass-through. The children take this group's place ahead of its later siblings so that
+          // they keep drawing beneath them.
+          addCollapsed(node);
+          for (int i = adapter.childCount(node) - 1; i >= 0; i--) {
+            queue.addFirst(adapter.childAt(node, i), parent, layer, clipLeft, clipTop, clipRight,
+                clipBottom);
+          }
+          continue;
+        }
+      }
+
+      int index = add(node, parent, layer, left, top);
+
+      // Descendants of invisible nodes are not drawn so they do not need to be captured.
+      if (visible[index] && layer < maxDepth) {
+        enqueueChildren(node, index, layer + 1, clipLeft, clipTop, clipRight, clipBottom);
+      }
+    }
+
+    if (count != previousCount) {
+      changed = true;
+      if (count < previousCount) {
+        Arrays.fill(nodes, count, previousCount, null);
+      }
+    }
+    previousCount = 0;
+
+    orderByLayer();
+    valid = true;
+    return changed;
+  }
+
+  /**
+   * Fill {@link #layerOrder} and {@link #layerStarts} with a stable counting sort of the nodes by
+   * layer, which keeps the drawing order of each layer.
+   */
+  private void orderByLayer() {
+    int count = this.count;
+    int[] layers = this.layers;
+    int layerCount = 0;
+    for (int i = 0; i < count; i++) {
+      layerCount = Math.max(layerCount, layers[i] + 1);
+    }
+    this.layerCount = layerCount;
+    if (layerStarts.length < layerCount + 1) {
+      layerStarts = new int[Math.max(layerCount + 1, layerStarts.length * 2)];
+      growths++;
+    }
+
+    int[] starts = layerStarts;
+    Arrays.fill(starts, 0, layerCount + 1, 0);
+    for (int i = 0; i < count; i++) {
+      starts[layers[i] + 1]++;
+    }
+    for (int layer = 0; layer < layerCount; layer++) {
+      starts[layer + 1] += starts[layer];
+    }
+    // Use each start as the cursor for its layer, which leaves it at the start of the next layer.
+    int[] order = layerOrder;
+    for (int i = 0; i < count; i++) {
+      order[starts[layers[i]]++] = i;
+    }
+    System.arraycopy(starts, 0, starts, 1, layerCount);
+    starts[0] = 0;
+  }
+
+  private void enqueueChildren(T node, int parent, int layer, int clipLeft, int clipTop,
+      int clipRight, int clipBottom) {
+    for (int i = 0, childCount = adapter.childCount(node); i < childCount; i++) {
+      queue.add(adapter.childAt(node, i), parent, layer, clipLeft, clipTop, clipRight, clipBottom);
+    }
+  }
+
+  /** Release all references to captured nodes. */
+  public void clear() {
+    Arrays.fill(nodes, 0, count, null);
+    count = 0;
+    layerCount = 0;
+    Arrays.fill(collapsed, 0, collapsedCount, null);
+    collapsedCount = 0;
+    valid = false;
+  }
+
+  /**
+   * Replace the capture with {@code count} nodes at the given origin, whose entries the caller then
+   * writes directly along with {@link #setNode}. Used by {@link HierarchyTimeline} to restore a
+   * recorded frame. Call {@link #endRestore()} once every entry is written.
+   */
+  void beginRestore(int count, int originX, int originY) {
+    while (nodes.length < count) {
+      grow();
+    }
+    if (count < this.count) {
+      Arrays.fill(nodes, count, this.count, null);
+    }
+    Arrays.fill(collapsed, 0, collapsedCount, null);
+    collapsedCount = 0;
+    this.count = count;
+    this.originX = originX;
+    this.originY = originY;
+  }
+
+  void setNode(int index, Object node) {
+    nodes[index] = node;
+  }
+
+  void endRestore() {
+    orderByLayer();
+    valid = true;
+  }
+
+  private void addCollapsed(T node) {
+    if (collapsedCount == collapsed.length) {
+      collapsed = Arrays.copyOf(collapsed, collapsedCount * 2);
+      growths++;
+    }
+    collapsed[collapsedCount++] = node;
+  }
+
+  private int add(T node, int parent, int layer, int left, int top) {
+    int index = count;
+    if (index == nodes.length) {
+      grow();
+    }
+
+    int width = adapter.width(node);
+    int height = adapter.height(node);
+    int id = adapter.id(node);
+    boolean isVisible = adapter.isVisible(node);
+    boolean drawsContent = adapter.drawsContent(node);
+    if (!changed) {
+      changed = index >= previousCount
+          || nodes[index] != node
+          || parents[index] != parent
+          || layers[index] != layer
+          || lefts[index] != left
+          || tops[index] != top
+          || widths[index] != width
+          || heights[index] != height
+          || ids[index] != id
+          || visible[index] != isVisible
+          || draws[index] != drawsContent;
+    }
+
+    nodes[index] = node;
+    parents[index] = parent;
+    layers[index] = layer;
+    lefts[index] = left;
+    tops[index] = top;
+    widths[index] = width;
+    heights[index] = height;
+    ids[index] = id;
+    visible[index] = isVisible;
+    draws[index] = drawsContent;
+
+    count = index + 1;
+    return index;
+  }
+
+  private void grow() {
+    int size = nodes.length * 2;
+    growths++;
+    nodes = Arrays.copyOf(nodes, size);
+    parents = Arrays.copyOf(parents, size);
+    layers = Arrays.copyOf(layers, size);
+    lefts = Arrays.copyOf(lefts, size);
+    tops = Arrays.copyOf(tops, size);
+    widths = Arrays.copyOf(widths, size);
+    heights = Arrays.copyOf(heights, size);
+    ids = Arrays.copyOf(ids, size);
+    visible = Arrays.copyOf(visible, size);
+    draws = Arrays.copyOf(draws, size);
+    layerOrder = new int[size];
+  }
+}
@@ -0,0 +1,283 @@
+package com.jakewharton.scalpel.core;
+
+import java.util.Arrays;
+
+/**
+ * A ring buffer of the most recent captures of a {@link HierarchySnapshot}, so that transient
+ * states which only last a few frames can be looked at afterwards. Once full, recording a frame
+ * replaces the oldest one.
+ * <p>
+ * Each capture is stored as blocks of {@link #BLOCK_SIZE} consecutive nodes. A block which is
+ * identical to the block at the same position of the previous frame is shared rather than copied,
+ * so a frame which only moved a few views costs a few blocks no matter how large the hierarchy is.
+ * Blocks are reference counted and those which no frame holds any more are reused, so recording
+ * does not allocate once the pool covers what changes between frames.
+ * <p>
+ * Frames are indexed from 0 for the oldest to {@link #size()} - 1 for the newest. Recorded frames
+ * hold references to the captured nodes until they are replaced or {@linkplain #clear() cleared}.
+ */
+public final class HierarchyTimeline<T> {
+  /** The number of consecutive nodes which are stored, and shared between frames, together. */
+  public static final int BLOCK_SIZE = 32;
+
+  /** Entries of consecutive nodes, shared by every frame in which they did not change. */
+  private static final class Block {
+    final Object[] nodes = new Object[BLOCK_SIZE];
+    final int[] parents = new int[BLOCK_SIZE];
+    final int[] layers = new int[BLOCK_SIZE];
+    final int[] lefts = new int[BLOCK_SIZE];
+    final int[] tops = new int[BLOCK_SIZE];
+    final int[] widths = new int[BLOCK_SIZE];
+    final int[] heights = new int[BLOCK_SIZE];
+    final int[] ids = new int[BLOCK_SIZE];
+    final boolean[] visible = new boolean[BLOCK_SIZE];
+    final boolean[] draws = new boolean[BLOCK_SIZE];
+    int count;
+    /** The number of frames which hold this block. */
+    int references;
+
+    boolean matches(HierarchySnapshot<?> snapshot, int from, int count) {
+      if (this.count != count) {
+        return false;
+      }
+      for (int i = 0; i < count; i++) {
+        int index = from + i;
+        if (nodes[i] != snapshot.node(index)
+            || parents[i] != snapshot.parents[index]
+            || layers[i] != snapshot.layers[index]
+            || lefts[i] != snapshot.lefts[index]
+            || tops[i] != snapshot.tops[index]
+            || widths[i] != snapshot.widths[index]
+            || heights[i] != snapshot.heights[index]
+            || ids[i] != snapshot.ids[index]
+            || visible[i] != snapshot.visible[index]
+            || draws[i] != snapshot.draws[index]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void copyFrom(HierarchySnapshot<?> snapshot, int from, int count) {
+      for (int i = 0; i < count; i++) {
+        nodes[i] = snapshot.node(from + i);
+      }
+      System.arraycopy(snapshot.parents, from, parents, 0, count);
+      System.arraycopy(snapshot.layers, from, layers, 0, count);
+      System.arraycopy(snapshot.lefts, from, lefts, 0, count);
+      System.arraycopy(snapshot.tops, from, tops, 0, count);
+      System.arraycopy(snapshot.widths, from, widths, 0, count);
+      System.arraycopy(snapshot.heights, from, heights, 0, count);
+      System.arraycopy(snapshot.ids, from, ids, 0, count);
+      System.arraycopy(snapshot.visible, from, visible, 0, count);
+      System.arraycopy(snapshot.draws, from, draws, 0, count);
+      this.count = count;
+    }
+
+    void copyTo(HierarchySnapshot<?> snapshot, int from) {
+      for (int i = 0; i < count; i++) {
+        snapshot.setNode(from + i, nodes[i]);
+      }
+      System.arraycopy(parents, 0, snapshot.parents, from, count);
+      System.arraycopy(layers, 0, snapshot.layers, from, count);
+      System.arraycopy(lefts, 0, snapshot.lefts, from, count);
+      System.arraycopy(tops, 0, snapshot.tops, from, count);
+      System.arraycopy(widths, 0, snapshot.widths, from, count);
+      System.arraycopy(heights, 0, snapshot.heights, from, count);
+      System.arraycopy(ids, 0, snapshot.ids, from, count);
+      System.arraycopy(visible, 0, snapshot.visible, from, count);
+      System.arraycopy(draws, 0, snapshot.draws, from, count);
+    }
+  }
+
+  private static final class Frame {
+    long timeNanos;
+    int originX;
+    int originY;
+    int count;
+    Block[] blocks = new Block[0];
+    int blockCount;
+    Object attachment;
+  }
+
+  private final Frame[] frames;
+  /** Built into by {@link #record} before it takes the place of the frame it replaces. */
+  private Frame spare = new Frame();
+  /** Index in {@link #frames} of the oldest frame. */
+  private int start;
+  private int size;
+  private Block[] pool = new Block[0];
+  private int poolSize;
+  private int blockCount;
+  private int growths;
+
+  public HierarchyTimeline(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity <= 0: " + capacity);
+    }
+    frames = new Frame[capacity];
+    for (int i = 0; i < capacity; i++) {
+      frames[i] = new Frame();
+    }
+  }
+
+  /** The maximum number of frames which are kept. */
+  public int capacity() {
+    return frames.length;
+  }
+
+  /** The number of recorded frames. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The number of distinct blocks held by the recorded frames. Unchanged nodes are shared so this
+   * grows with how much changed rather than with the number of frames.
+   */
+  public int blockCount() {
+    return blockCount;
+  }
+
+  /** The total number of times storage for blocks or frames had to grow. */
+  public int growths() {
+    return growths;
+  }
+
+  /**
+   * The attachment of the frame which the next recording replaces, or null when the timeline is
+   * not full. It is released by that recording so it can be reused for the new frame.
+   */
+  public Object nextReplaced() {
+    return size == frames.length ? frames[start].attachment : null;
+  }
+
+  /**
+   * Record the current capture of {@code snapshot} as the newest frame, along with an optional
+   * {@code attachment} such as a thumbnail, replacing the oldest frame when full.
+   */
+  public void record(HierarchySnapshot<T> snapshot, long timeNanos, Object attachment) {
+    Frame previous = size > 0 ? frames[slot(size - 1)] : null;
+    Frame frame = spare;
+    int count = snapshot.count;
+    int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    if (frame.blocks.length < blockCount) {
+      frame.blocks = new Block[Math.max(blockCount, frame.blocks.length * 2)];
+      growths++;
+    }
+
+    Block[] blocks = frame.blocks;
+    for (int b = 0; b < blockCount; b++) {
+      int from = b * BLOCK_SIZE;
+      int n = Math.min(BLOCK_SIZE, count - from);
+      Block block = previous != null && b < previous.blockCount ? previous.blocks[b] : null;
+      if (block == null || !block.matches(snapshot, from, n)) {
+        block = obtainBlock();
+        block.copyFrom(snapshot, from, n);
+      }
+      block.references++;
+      blocks[b] = block;
+    }
+    frame.blockCount = blockCount;
+    frame.count = count;
+    frame.originX = snapshot.originX;
+    frame.originY = snapshot.originY;
+    frame.timeNanos = timeNanos;
+    frame.attachment = attachment;
+
+    // The replaced frame is only released now since the new one may share its blocks.
+    int slot;
+    if (size == frames.length) {
+      slot = start;
+      start = slot(1);
+    } else {
+      slot = slot(size);
+      size++;
+    }
+    Frame replaced = frames[slot];
+    frames[slot] = frame;
+    release(replaced);
+    spare = replaced;
+  }
+
+  /** The time at which {@code frame} was recorded. */
+  public long timeNanos(int frame) {
+    return frames[slot(checkFrame(frame))].timeNanos;
+  }
+
+  /** The number of nodes captured in {@code frame}. */
+  public int count(int frame) {
+    return frames[slot(checkFrame(frame))].count;
+  }
+
+  /** The attachment recorded along with {@code frame}. */
+  public Object attachment(int frame) {
+    return frames[slot(checkFrame(frame))].attachment;
+  }
+
+  /**
+   * Replace the capture of {@code snapshot} with {@code frame}. The snapshot is only meant to be
+   * drawn afterwards. Re-capturing it starts over from the live hierarchy.
+   */
+  public void restore(int frame, HierarchySnapshot<T> snapshot) {
+    Frame recorded = frames[slot(checkFrame(frame))];
+    snapshot.beginRestore(recorded.count, recorded.originX, recorded.originY);
+    Block[] blocks = recorded.blocks;
+    for (int b = 0, blockCount = recorded.blockCount; b < blockCount; b++) {
+      blocks[b].copyTo(snapshot, b * BLOCK_SIZE);
+    }
+    snapshot.endRestore();
+  }
+
+  /** Discard every frame, releasing their references to nodes and attachments. */
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      release(frames[slot(i)]);
+    }
+    start = 0;
+    size = 0;
+  }
+
+  private int slot(int frame) {
+    int slot = start + frame;
+    return slot < frames.length ? slot : slot - frames.length;
+  }
+
+  private int checkFrame(int frame) {
+    if (frame < 0 || frame >= size) {
+      throw new IndexOutOfBoundsException("frame " + frame + " not in [0, " + size + ")");
+    }
+    return frame;
+  }
+
+  private Block obtainBlock() {
+    blockCount++;
+    if (poolSize > 0) {
+      Block block = pool[--poolSize];
+      pool[poolSize] = null;
+      return block;
+    }
+    growths++;
+    return new Block();
+  }
+
+  private void release(Frame frame) {
+    Block[] blocks = frame.blocks;
+    for (int b = 0, count = frame.blockCount; b < count; b++) {
+      Block block = blocks[b];
+      blocks[b] = null;
+      if (--block.references == 0) {
+        Arrays.fill(block.nodes, 0, block.count, null);
+        blockCount--;
+        if (poolSize == pool.length) {
+          pool = Arrays.copyOf(pool, Math.max(16, poolSize * 2));
+          growths++;
+        }
+        pool[poolSize++] = block;
+      }
+    }
+    frame.blockCount = 0;
+    frame.count = 0;
+    frame.attachment = null;
+  }
+}
@@ -0,0 +1,283 @@
+package com.jakewharton.scalpel.core;
+
+/**
+ * A spatial index of the visible nodes in a {@link HierarchySnapshot} for finding the node under
+ * a point in the exploded model. Each layer is divided into a uniform grid of roughly one cell per
+ * node and every node is listed in the cells it overlaps, so a lookup only tests the few nodes in
+ * a single cell of each layer. Nodes which would span many cells are kept in a separate list per
+ * layer which is tested in full.
+ * <p>
+ * All storage is reused between builds and only grows for larger hierarchies.
+ */
+public final class LayerIndex {
+  /** Nodes overlapping more cells than this are kept in the per-layer list of large nodes. */
+  private static final int MAX_CELLS_PER_NODE = 16;
+
+  private HierarchySnapshot<?> snapshot;
+  private int layerCount;
+
+  // Per-layer grid geometry in the absolute coordinates of the snapshot.
+  private int[] layerMinX = new int[8];
+  private int[] layerMinY = new int[8];
+  private int[] layerCellWidth = new int[8];
+  private int[] layerCellHeight = new int[8];
+  private int[] layerColumns = new int[8];
+  private int[] layerRows = new int[8];
+  // Scratch space for building.
+  private int[] layerMaxX = new int[8];
+  private int[] layerMaxY = new int[8];
+  private int[] layerNodes = new int[8];
+  private int[] largeCursors = new int[8];
+  /** Index of the first cell of each layer in {@link #cellStart}. */
+  private int[] layerFirstCell = new int[9];
+  /** Range of each layer's large nodes in {@link #largeNodes}. */
+  private int[] layerLargeStart = new int[9];
+
+  /** Start of each cell's nodes in {@link #cellNodes}, ending where the next cell starts. */
+  private int[] cellStart = new int[64];
+  private int[] cellNodes = new int[64];
+  private int[] largeNodes = new int[16];
+  private int[] cursors = new int[64];
+
+  /** Index the visible nodes of {@code snapshot}. It must not be re-captured until rebuilt. */
+  public void build(HierarchySnapshot<?> snapshot) {
+    this.snapshot = snapshot;
+    int count = snapshot.count;
+    boolean[] visible = snapshot.visible;
+    int[] layers = snapshot.layers;
+    int[] lefts = snapshot.lefts;
+    int[] tops = snapshot.tops;
+    int[] widths = snapshot.widths;
+    int[] heights = snapshot.heights;
+
+    int layerCount = 0;
+    for (int i = 0; i < count; i++) {
+      if (visible[i]) {
+        layerCount = Math.max(layerCount, layers[i] + 1);
+      }
+    }
+    this.layerCount = layerCount;
+    ensureLayerCapacity(layerCount);
+
+    // Bounds and node count of each layer.
+    int[] maxX = layerMaxX;
+    int[] maxY = layerMaxY;
+    for (int layer = 0; layer < layerCount; layer++) {
+      layerMinX[layer] = Integer.MAX_VALUE;
+      layerMinY[layer] = Integer.MAX_VALUE;
+      maxX[layer] = Integer.MIN_VALUE;
+      maxY[layer] = Integer.MIN_VALUE;
+      layerNodes[layer] = 0;
+    }
+    for (int i = 0; i < count; i++) {
+      if (!visible[i]) {
+        continue;
+      }
+      int layer = layers[i];
+      layerMinX[layer] = Math.min(layerMinX[layer], lefts[i]);
+      layerMinY[layer] = Math.min(layerMinY[layer], tops[i]);
+      maxX[layer] = Math.max(maxX[layer], lefts[i] + widths[i]);
+      maxY[layer] = Math.max(maxY[layer], tops[i] + heights[i]);
+      layerNodes[layer]++;
+    }
+
+    // Size each grid for roughly one cell per node.
+    int cellCount = 0;
+    for (int layer = 0; layer < layerCount; layer++) {
+      layerFirstCell[layer] = cellCount;
+      int nodes = layerNodes[layer];
+      if (nodes == 0) {
+        layerColumns[layer] = 0;
+        layerRows[layer] = 0;
+        layerCellWidth[layer] = 1;
+        layerCellHeight[layer] = 1;
+        continue;
+      }
+      int width = Math.max(1, maxX[layer] - layerMinX[layer]);
+      int height = Math.max(1, maxY[layer] - layerMinY[layer]);
+      int side = (int) Math.ceil(Math.sqrt(nodes));
+      int cellWidth = (width + side - 1) / side;
+      int cellHeight = (height + side - 1) / side;
+      layerCellWidth[layer] = cellWidth;
+      layerCellHeight[layer] = cellHeight;
+      layerColumns[layer] = (width + cellWidth - 1) / cellWidth;
+      layerRows[layer] = (height + cellHeight - 1) / cellHeight;
+      cellCount += layerColumns[layer] * layerRows[layer];
+    }
+    layerFirstCell[layerCount] = cellCount;
+
+    if (cellStart.length < cellCount + 1) {
+      cellStart = new int[cellCount + 1];
+      cursors = new int[cellCount + 1];
+    }
+    for (int cell = 0; cell <= cellCount; cell++) {
+      cellStart[cell] = 0;
+    }
+    for (int layer = 0; layer <= layerCount; layer++) {
+      layerLargeStart[layer] = 0;
+    }
+
+    // Count the nodes in each cell, offset by one so the prefix sum yields start indices.
+    for (int i = 0; i < count; i++) {
+      if (!visible[i]) {
+        continue;
+      }
+      int layer = layers[i];
+      int firstColumn = column(layer, lefts[i]);
+      int lastColumn = column(layer, lefts[i] + widths[i] - 1);
+      int firstRow = row(layer, tops[i]);
+      int lastRow = row(layer, tops[i] + heights[i] - 1);
+      if ((lastColumn - firstColumn + 1) * (lastRow - firstRow + 1) > MAX_CELLS_PER_NODE) {
+        layerLargeStart[layer + 1]++;
+        continue;
+      }
+      int columns = layerColumns[layer];
+      int base = layerFirstCell[layer] + 1;
+      for (int r = firstRow; r <= lastRow; r++) {
+        for (int c = firstColumn; c <= lastColumn; c++) {
+          cellStart[base + r * columns + c]++;
+        }
+      }
+    }
+    for (int cell = 0; cell < cellCount; cell++) {
+      cellStart[cell + 1] += cellStart[cell];
+    }
+    for (int layer = 0; layer < layerCount; layer++) {
+      layerLargeStart[layer + 1] += layerLargeStart[layer];
+    }
+
+    int cellNodeCount = cellStart[cellCount];
+    if (cellNodes.length < cellNodeCount) {
+      cellNodes = new int[cellNodeCount];
+    }
+    int largeCount = layerLargeStart[layerCount];
+    if (largeNodes.length < largeCount) {
+      largeNodes = new int[largeCount];
+    }
+
+    // Fill in node order so that each cell lists its nodes from bottom to top.
+    System.arraycopy(cellStart, 0, cursors, 0, cellCount);
+    int[] largeCursors = this.largeCursors;
+    System.arraycopy(layerLargeStart, 0, largeCursors, 0, layerCount);
+    for (int i = 0; i < count; i++) {
+      if (!visible[i]) {
+        continue;
+      }
+      int layer = layers[i];
+      int firstColumn = column(layer, lefts[i]);
+      int lastColumn = column(layer, lefts[i] + widths[i] - 1);
+      int firstRow = row(layer, tops[i]);
+      int lastRow = row(layer, tops[i] + heights[i] - 1);
+      if ((lastColumn - firstColumn + 1) * (lastRow - firstRow + 1) > MAX_CELLS_PER_NODE) {
+        largeNodes[largeCursors[layer]++] = i;
+        continue;
+      }
+      int columns = layerColumns[layer];
+      int base = layerFirstCell[layer];
+      for (int r = firstRow; r <= lastRow; r++) {
+        for (int c = firstColumn; c <= lastColumn; c++) {
+          cellNodes[cursors[base + r * columns + c]++] = i;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the top-most node under a point in the exploded model, or -1 if there is
+   * none. The point is relative to the snapshot origin after undoing the camera rotation and zoom.
+   * Each layer is offset by its index multiplied by {@code layerX} and {@code -layerY}, matching
+   * {@link LayerProjection#projectOutlines}. Deeper layers are drawn later and so are checked
+   * first.
+   */
+  public int find(float x, float y, float layerX, float layerY) {
+    HierarchySnapshot<?> snapshot = this.snapshot;
+    if (snapshot == null) {
+      return -1;
+    }
+    for (int layer = layerCount - 1; layer >= 0; layer--) {
+      float px = x + snapshot.originX - layer * layerX;
+      float py = y + snapshot.originY + layer * layerY;
+      int found = findInLayer(layer, px, py);
+      if (found != -1) {
+        return found;
+      }
+    }
+    return -1;
+  }
+
+  /** Forget the indexed snapshot. */
+  public void clear() {
+    snapshot = null;
+    layerCount = 0;
+  }
+
+  private int findInLayer(int layer, float x, float y) {
+    int found = -1;
+
+    int columns = layerColumns[layer];
+    int rows = layerRows[layer];
+    float cellX = (x - layerMinX[layer]) / layerCellWidth[layer];
+    float cellY = (y - layerMinY[layer]) / layerCellHeight[layer];
+    if (cellX >= 0 && cellX < columns && cellY >= 0 && cellY < rows) {
+      int cell = layerFirstCell[layer] + (int) cellY * columns + (int) cellX;
+      // Nodes are listed bottom to top so the last match is the top-most.
+      for (int i = cellStart[cell + 1] - 1, start = cellStart[cell]; i >= start; i--) {
+        int node = cellNodes[i];
+        if (contains(node, x, y)) {
+          found = node;
+          break;
+        }
+      }
+    }
+
+    for (int i = layerLargeStart[layer + 1] - 1, start = layerLargeStart[layer]; i >= start; i--) {
+      int node = largeNodes[i];
+      if (node <= found) {
+        break;
+      }
+      if (contains(node, x, y)) {
+        found = node;
+        break;
+      }
+    }
+    return found;
+  }
+
+  private boolean contains(int node, float x, float y) {
+    HierarchySnapshot<?> snapshot = this.snapshot;
+    int left = snapshot.lefts[node];
+    int top = snapshot.tops[node];
+    return x >= left
+        && x < left + snapshot.widths[node]
+        && y >= top
+        && y < top + snapshot.heights[node];
+  }
+
+  private int column(int layer, int x) {
+    int column = (x - layerMinX[layer]) / layerCellWidth[layer];
+    return Math.max(0, Math.min(layerColumns[layer] - 1, column));
+  }
+
+  private int row(int layer, int y) {
+    int row = (y - layerMinY[layer]) / layerCellHeight[layer];
+    return Math.max(0, Math.min(layerRows[layer] - 1, row));
+  }
+
+  private void ensureLayerCapacity(int layerCount) {
+    if (layerMinX.length < layerCount) {
+      int capacity = Math.max(layerCount, layerMinX.length * 2);
+      layerMinX = new int[capacity];
+      layerMinY = new int[capacity];
+      layerCellWidth = new int[capacity];
+      layerCellHeight = new int[capacity];
+      layerColumns = new int[capacity];
+      layerRows = new int[capacity];
+      layerMaxX = new int[capacity];
+      layerMaxY = new int[capacity];
+      layerNodes = new int[capacity];
+      largeCursors = new int[capacity];
+      layerFirstCell = new int[capacity + 1];
+      layerLargeStart = new int[capacity + 1];
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package com.jakewharton.scalpel.core;
+
+import static com.jakewharton.scalpel.core.Gestures.ROTATION_MAX;
+
+/**
+ * Positions captured nodes in the exploded model. Each layer is offset from the one beneath it in
+ * proportion to the rotation of the camera so that layers separate as the model is turned. The
+ * camera's own perspective rotation is applied by the platform on top of these offsets.
+ */
+public final class LayerProjection {
+  /** Number of floats written per node by {@link #projectOutlines}. */
+  public static final int FLOATS_PER_OUTLINE = 16;
+
+  /** Horizontal offset of each successive layer for a rotation around the Y axis. */
+  public static float layerOffsetX(float rotationY, float spacing, float density) {
+    return spacing * density * (rotationY / ROTATION_MAX);
+  }
+
+  /** Vertical offset of each successive layer for a rotation around the X axis. */
+  public static float layerOffsetY(float rotationX, float spacing, float density) {
+    return spacing * density * (rotationX / ROTATION_MAX);
+  }
+
+  /**
+   * Write the four edges of each visible node in {@code snapshot} as line segments into
+   * {@code points}, offsetting each node by its layer multiplied by {@code layerX} and
+   * {@code -layerY}. Coordinates are relative to the snapshot origin. {@code points} must hold at
+   * least {@link #FLOATS_PER_OUTLINE} floats per captured node. Returns the number of floats
+   * written.
+   */
+  public static int projectOutlines(HierarchySnapshot<?> snapshot, float layerX, float layerY,
+      float[] points) {
+    int x = snapshot.originX;
+    int y = snapshot.originY;
+    int n = 0;
+    for (int i = 0, count = snapshot.count; i < count; i++) {
+      if (!snapshot.visible[i]) {
+        continue;
+      }
+      int layer = snapshot.layers[i];
+      float left = snapshot.lefts[i] - x + layer * layerX;
+      float top = snapshot.tops[i] - y - layer * layerY;
+      float right = left + snapshot.widths[i];
+      float bottom = top + snapshot.heights[i];
+
+      // Top.
+      points[n++] = left;
+      points[n++] = top;
+      points[n++] = right;
+      points[n++] = top;
+      // Right.
+      points[n++] = right;
+      points[n++] = top;
+      points[n++] = right;
+      points[n++] = bottom;
+      // Bottom.
+      points[n++] = right;
+      points[n++] = bottom;
+      points[n++] = left;
+      points[n++] = bottom;
+      // Left.
+      points[n++] = left;
+      points[n++] = bottom;
+      points[n++] = left;
+      points[n++] = top;
+    }
+    return n;
+  }
+
+  private LayerProjection() {
+    throw new AssertionError("No instances.");
+  }
+}
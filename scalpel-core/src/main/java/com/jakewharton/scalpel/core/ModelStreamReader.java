@@ -0,0 +1,250 @@
+package com.jakewharton.scalpel.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.jakewharton.scalpel.core.ModelStreamWriter.FLAG_DRAWS;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.FLAG_VISIBLE;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.FRAME_DELTA;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.FRAME_FULL;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.MAGIC;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.OP_ADD;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.OP_END;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.OP_FLAGS;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.OP_MOVE;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.OP_ORDER;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.OP_PIXELS;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.OP_REMOVE;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.PIXELS_RAW;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.PIXELS_RUNS;
+import static com.jakewharton.scalpel.core.ModelStreamWriter.VERSION;
+
+/**
+ * Decodes the frames written by {@link ModelStreamWriter}, applying each to a model of the
+ * streamed hierarchy. The model is only modified by {@link #readFrame()} and must not be read
+ * concurrently with it.
+ */
+public final class ModelStreamReader {
+  /** A node of the streamed hierarchy. */
+  public static final class Node {
+    public final int streamId;
+    public final int id;
+    /** Null when the node has no ID. */
+    public final String idName;
+    public final String className;
+    /** Stream ID of the parent or -1 for nodes at the root. */
+    public int parent;
+    public int layer;
+    /** Window-relative bounds. */
+    public int left;
+    public int top;
+    public int width;
+    public int height;
+    public boolean visible;
+    public boolean drawsContent;
+    /**
+     * The most recently streamed rendering stored row by row, or null if none was sent. Replaced
+     * rather than modified when a new rendering arrives.
+     */
+    public int[] pixels;
+    public int pixelWidth;
+    public int pixelHeight;
+
+    Node(int streamId, int id, String idName, String className) {
+      this.streamId = streamId;
+      this.id = id;
+      this.idName = idName;
+      this.className = className;
+    }
+  }
+
+  private final DataInputStream in;
+  private final Map<Integer, Node> nodes = new HashMap<>();
+  private final List<Node> order = new ArrayList<>();
+  private final List<Node> unmodifiableOrder = Collections.unmodifiableList(order);
+  private boolean started;
+  private int originX;
+  private int originY;
+  private int width;
+  private int height;
+
+  public ModelStreamReader(InputStream in) {
+    this.in = new DataInputStream(new BufferedInputStream(in));
+  }
+
+  /**
+   * Block until the next frame is read and apply it to the model. Returns false when the stream
+   * ended cleanly between frames.
+   */
+  public boolean readFrame() throws IOException {
+    DataInputStream in = this.in;
+    int type = in.read();
+    if (type == -1) {
+      return false;
+    }
+    if (type == FRAME_FULL) {
+      int magic = in.readInt();
+      if (magic != MAGIC) {
+        throw new IOException("Not a model stream.");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported model stream version: " + version);
+      }
+      nodes.clear();
+      order.clear();
+      started = true;
+    } else if (type != FRAME_DELTA) {
+      throw new IOException("Unknown frame type: " + type);
+    } else if (!started) {
+      throw new IOException("Delta frame before a full frame.");
+    }
+    originX = in.readInt();
+    originY = in.readInt();
+    width = in.readInt();
+    height = in.readInt();
+
+    while (true) {
+      int op = in.readUnsignedByte();
+      switch (op) {
+        case OP_END:
+          return true;
+        case OP_ADD: {
+          int streamId = in.readInt();
+          int parent = in.readInt();
+          int layer = in.readInt();
+          int left = in.readInt();
+          int top = in.readInt();
+          int nodeWidth = in.readInt();
+          int nodeHeight = in.readInt();
+          int id = in.readInt();
+          int flags = in.readInt();
+          String idName = in.readBoolean() ? in.readUTF() : null;
+          String className = in.readUTF();
+          Node node = new Node(streamId, id, idName, className);
+          setBounds(node, parent, layer, left, top, nodeWidth, nodeHeight);
+          setFlags(node, flags);
+          nodes.put(streamId, node);
+          break;
+        }
+        case OP_MOVE: {
+          Node node = node(in.readInt());
+          setBounds(node, in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+              in.readInt());
+          break;
+        }
+        case OP_FLAGS:
+          setFlags(node(in.readInt()), in.readInt());
+          break;
+        case OP_REMOVE:
+          if (nodes.remove(in.readInt()) == null) {
+            throw new IOException("Removed unknown node.");
+          }
+          break;
+        case OP_ORDER: {
+          int count = in.readInt();
+          order.clear();
+          for (int i = 0; i < count; i++) {
+            order.add(node(in.readInt()));
+          }
+          break;
+        }
+        case OP_PIXELS:
+          readPixels(node(in.readInt()));
+          break;
+        default:
+          throw new IOException("Unknown op: " + op);
+      }
+    }
+  }
+
+  private void readPixels(Node node) throws IOException {
+    DataInputStream in = this.in;
+    int pixelWidth = in.readInt();
+    int pixelHeight = in.readInt();
+    int size = pixelWidth * pixelHeight;
+    // A new array each time lets renderers tell when the pixels changed by identity.
+    int[] pixels = new int[size];
+    int encoding = in.readUnsignedByte();
+    if (encoding == PIXELS_RUNS) {
+      int runs = in.readInt();
+      int offset = 0;
+      for (int i = 0; i < runs; i++) {
+        int length = in.readInt();
+        int value = in.readInt();
+        if (offset + length > size) {
+          throw new IOException("Pixel runs exceed " + pixelWidth + "x" + pixelHeight);
+        }
+        for (int end = offset + length; offset < end; offset++) {
+          pixels[offset] = value;
+        }
+      }
+      if (offset != size) {
+        throw new EOFException("Pixel runs end early.");
+      }
+    } else if (encoding == PIXELS_RAW) {
+      for (int i = 0; i < size; i++) {
+        pixels[i] = in.readInt();
+      }
+    } else {
+      throw new IOException("Unknown pixel encoding: " + encoding);
+    }
+    node.pixels = pixels;
+    node.pixelWidth = pixelWidth;
+    node.pixelHeight = pixelHeight;
+  }
+
+  private Node node(int streamId) throws IOException {
+    Node node = nodes.get(streamId);
+    if (node == null) {
+      throw new IOException("Unknown node: " + streamId);
+    }
+    return node;
+  }
+
+  private static void setBounds(Node node, int parent, int layer, int left, int top, int width,
+      int height) {
+    node.parent = parent;
+    node.layer = layer;
+    node.left = left;
+    node.top = top;
+    node.width = width;
+    node.height = height;
+  }
+
+  private static void setFlags(Node node, int flags) {
+    node.visible = (flags & FLAG_VISIBLE) != 0;
+    node.drawsContent = (flags & FLAG_DRAWS) != 0;
+  }
+
+  /** The nodes of the most recent frame in capture order. */
+  public List<Node> nodes() {
+    return unmodifiableOrder;
+  }
+
+  /** The window-relative horizontal position of the streamed container. */
+  public int originX() {
+    return originX;
+  }
+
+  /** The window-relative vertical position of the streamed container. */
+  public int originY() {
+    return originY;
+  }
+
+  public int containerWidth() {
+    return width;
+  }
+
+  public int containerHeight() {
+    return height;
+  }
+}
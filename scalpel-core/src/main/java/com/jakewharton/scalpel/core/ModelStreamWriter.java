@@ -0,0 +1,311 @@
+package com.jakewharton.scalpel.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Encodes successive captures of a hierarchy as a stream of frames which is decoded by
+ * {@link ModelStreamReader}. The first frame, and the first after {@link #reset()}, holds every
+ * node. Every later frame only holds the differences from the one before: added and removed
+ * nodes, changed bounds and flags, and a new draw order when it changed. The rendered pixels of a
+ * node are sent along with a frame only when the caller has re-rendered it.
+ * <p>
+ * Nodes are identified across frames by a stream ID assigned when they are first sent. All values
+ * are big-endian. A frame is laid out as:
+ * <pre>
+ * frame:  type, [magic, version for full frames], origin x, origin y, width, height, ops..., end
+ * add:    stream ID, parent stream ID, layer, left, top, width, height, id, flags, id name?,
+ *         class name
+ * move:   stream ID, parent stream ID, layer, left, top, width, height
+ * flags:  stream ID, flags
+ * remove: stream ID
+ * order:  count, stream IDs in capture order
+ * pixels: stream ID, width, height, encoding, then ARGB ints either raw or as run length and
+ *         value pairs
+ * </pre>
+ */
+public final class ModelStreamWriter<T> {
+  /** The port on which the model is served by default. */
+  public static final int DEFAULT_PORT = 7007;
+
+  static final int MAGIC = 0x5343504D; // "SCPM"
+  static final int VERSION = 1;
+
+  static final int FRAME_FULL = 1;
+  static final int FRAME_DELTA = 2;
+
+  static final int OP_END = 0;
+  static final int OP_ADD = 1;
+  static final int OP_MOVE = 2;
+  static final int OP_FLAGS = 3;
+  static final int OP_REMOVE = 4;
+  static final int OP_ORDER = 5;
+  static final int OP_PIXELS = 6;
+
+  static final int FLAG_VISIBLE = 1;
+  static final int FLAG_DRAWS = 1 << 1;
+
+  static final int PIXELS_RAW = 0;
+  static final int PIXELS_RUNS = 1;
+
+  /** What the client was last sent about a node. */
+  private static final class Sent {
+    final Object node;
+    final int streamId;
+    int parent;
+    int layer;
+    int left;
+    int top;
+    int width;
+    int height;
+    int flags;
+    /** True once pixels were sent since the node was added or resized. */
+    boolean hasPixels;
+    int frame;
+
+    Sent(Object node, int streamId) {
+      this.node = node;
+      this.streamId = streamId;
+    }
+  }
+
+  private final DataOutputStream out;
+  private final SnapshotWriter.Names<T> names;
+  private final Map<Object, Sent> sent = new IdentityHashMap<>();
+  /** The sent state of each node of the current frame by snapshot index. */
+  private Sent[] current = new Sent[16];
+  private int currentCount;
+  /** Stream IDs of the previous frame in capture order. */
+  private int[] order = new int[16];
+  private int orderCount;
+  private int nextStreamId;
+  private int frame;
+  private boolean fullPending = true;
+  private boolean fullFrame;
+  private int ops;
+
+  public ModelStreamWriter(OutputStream out, SnapshotWriter.Names<T> names) {
+    this.out = new DataOutputStream(new BufferedOutputStream(out));
+    this.names = names;
+  }
+
+  /** Send every node again in the next frame, such as for a newly connected client. */
+  public void reset() {
+    fullPending = true;
+  }
+
+  /**
+   * Start a frame with the differences between {@code snapshot}, captured from a container of
+   * {@code width} by {@code height}, and the previous frame. Pixels of any re-rendered nodes may
+   * then be written before the frame is completed with {@link #endFrame()}. Returns true for a
+   * full frame, which needs the pixels of every node.
+   */
+  public boolean beginFrame(HierarchySnapshot<T> snapshot, int width, int height)
+      throws IOException {
+    DataOutputStream out = this.out;
+    frame++;
+    ops = 0;
+    fullFrame = fullPending;
+    fullPending = false;
+    if (fullFrame) {
+      sent.clear();
+      orderCount = 0;
+      currentCount = 0;
+      nextStreamId = 0;
+      out.writeByte(FRAME_FULL);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+    } else {
+      out.writeByte(FRAME_DELTA);
+    }
+    out.writeInt(snapshot.originX);
+    out.writeInt(snapshot.originY);
+    out.writeInt(width);
+    out.writeInt(height);
+
+    int count = snapshot.count;
+    if (current.length < count) {
+      current = new Sent[Math.max(count, current.length * 2)];
+    }
+    boolean reordered = count != orderCount;
+    for (int i = 0; i < count; i++) {
+      T node = snapshot.node(i);
+      int parentIndex = snapshot.parents[i];
+      int parent = parentIndex == -1 ? -1 : current[parentIndex].streamId;
+      int layer = snapshot.layers[i];
+      int left = snapshot.lefts[i];
+      int top = snapshot.tops[i];
+      int nodeWidth = snapshot.widths[i];
+      int nodeHeight = snapshot.heights[i];
+      int flags = (snapshot.visible[i] ? FLAG_VISIBLE : 0) | (snapshot.draws[i] ? FLAG_DRAWS : 0);
+
+      // Most frames capture the same nodes at the same indices so skip the lookup for those.
+      Sent state = i < currentCount ? current[i] : null;
+      if (state == null || state.node != node) {
+        state = sent.get(node);
+      }
+
+      if (state == null) {
+        state = new Sent(node, nextStreamId++);
+        sent.put(node, state);
+        out.writeByte(OP_ADD);
+        out.writeInt(state.streamId);
+        out.writeInt(parent);
+        out.writeInt(layer);
+        out.writeInt(left);
+        out.writeInt(top);
+        out.writeInt(nodeWidth);
+        out.writeInt(nodeHeight);
+        out.writeInt(snapshot.ids[i]);
+        out.writeInt(flags);
+        String idName = names.idName(node);
+        out.writeBoolean(idName != null);
+        if (idName != null) {
+          out.writeUTF(idName);
+        }
+        out.writeUTF(names.className(node));
+        ops++;
+      } else {
+        if (state.parent != parent
+            || state.layer != layer
+            || state.left != left
+            || state.top != top
+            || state.width != nodeWidth
+            || state.height != nodeHeight) {
+          out.writeByte(OP_MOVE);
+          out.writeInt(state.streamId);
+          out.writeInt(parent);
+          out.writeInt(layer);
+          out.writeInt(left);
+          out.writeInt(top);
+          out.writeInt(nodeWidth);
+          out.writeInt(nodeHeight);
+          ops++;
+          if (state.width != nodeWidth || state.height != nodeHeight) {
+            state.hasPixels = false;
+          }
+        }
+        if (state.flags != flags) {
+          out.writeByte(OP_FLAGS);
+          out.writeInt(state.streamId);
+          out.writeInt(flags);
+          ops++;
+        }
+      }
+      state.parent = parent;
+      state.layer = layer;
+      state.left = left;
+      state.top = top;
+      state.width = nodeWidth;
+      state.height = nodeHeight;
+      state.flags = flags;
+      state.frame = frame;
+      current[i] = state;
+      if (!reordered && order[i] != state.streamId) {
+        reordered = true;
+      }
+    }
+    for (int i = count; i < currentCount; i++) {
+      current[i] = null;
+    }
+    currentCount = count;
+
+    if (sent.size() > count) {
+      for (Iterator<Sent> iterator = sent.values().iterator(); iterator.hasNext(); ) {
+        Sent state = iterator.next();
+        if (state.frame != frame) {
+          iterator.remove();
+          out.writeByte(OP_REMOVE);
+          out.writeInt(state.streamId);
+          ops++;
+        }
+      }
+    }
+
+    if (reordered) {
+      if (order.length < count) {
+        order = new int[Math.max(count, order.length * 2)];
+      }
+      out.writeByte(OP_ORDER);
+      out.writeInt(count);
+      for (int i = 0; i < count; i++) {
+        int streamId = current[i].streamId;
+        order[i] = streamId;
+        out.writeInt(streamId);
+      }
+      orderCount = count;
+      ops++;
+    }
+    return fullFrame;
+  }
+
+  /**
+   * True when pixels were sent for the node at {@code index} since it was added or resized in the
+   * current frame.
+   */
+  public boolean hasPixels(int index) {
+    return current[index].hasPixels;
+  }
+
+  /**
+   * Write the re-rendered pixels of the node at {@code index} as {@code width} by {@code height}
+   * ARGB values stored row by row in {@code pixels}. Runs of identical pixels, such as transparent
+   * areas, are encoded once when that is smaller.
+   */
+  public void writePixels(int index, int width, int height, int[] pixels) throws IOException {
+    int size = width * height;
+    if (pixels.length < size) {
+      throw new IllegalArgumentException(
+          "pixels.length < width * height: " + pixels.length + " < " + size);
+    }
+    Sent state = current[index];
+    DataOutputStream out = this.out;
+    out.writeByte(OP_PIXELS);
+    out.writeInt(state.streamId);
+    out.writeInt(width);
+    out.writeInt(height);
+
+    int runs = 0;
+    for (int i = 0; i < size; runs++) {
+      int value = pixels[i++];
+      while (i < size && pixels[i] == value) {
+        i++;
+      }
+    }
+    if (runs * 2 < size) {
+      out.writeByte(PIXELS_RUNS);
+      out.writeInt(runs);
+      for (int i = 0; i < size; ) {
+        int start = i;
+        int value = pixels[i++];
+        while (i < size && pixels[i] == value) {
+          i++;
+        }
+        out.writeInt(i - start);
+        out.writeInt(value);
+      }
+    } else {
+      out.writeByte(PIXELS_RAW);
+      for (int i = 0; i < size; i++) {
+        out.writeInt(pixels[i]);
+      }
+    }
+    state.hasPixels = true;
+    ops++;
+  }
+
+  /**
+   * Complete the frame and flush it to the underlying stream. Returns false when the frame holds
+   * no changes and so does not need to be delivered.
+   */
+  public boolean endFrame() throws IOException {
+    out.writeByte(OP_END);
+    out.flush();
+    return fullFrame || ops > 0;
+  }
+}
@@ -0,0 +1,33 @@
+package com.jakewharton.scalpel.core;
+
+/**
+ * Exposes the structure and geometry of a hierarchy of nodes of type {@code T} so that it can be
+ * captured into a {@link HierarchySnapshot} without depending on a particular UI toolkit.
+ */
+public interface NodeAdapter<T> {
+  int childCount(T node);
+
+  T childAt(T node, int index);
+
+  /** Returns true when {@code node} takes up no space and is not drawn. */
+  boolean isGone(T node);
+
+  /** Returns true when {@code node} and its descendants are drawn. */
+  boolean isVisible(T node);
+
+  /** Write the window-relative location of {@code node} into {@code location}. */
+  void getLocation(T node, int[] location);
+
+  int width(T node);
+
+  int height(T node);
+
+  /** Returns the identifier of {@code node} or {@link HierarchySnapshot#NO_ID}. */
+  int id(T node);
+
+  /** Returns true when the children of {@code node} are clipped to its bounds. */
+  boolean clipsChildren(T node);
+
+  /** Returns true when {@code node} draws anything of its own, such as a background. */
+  boolean drawsContent(T node);
+}
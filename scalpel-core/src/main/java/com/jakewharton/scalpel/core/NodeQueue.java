@@ -0,0 +1,132 @@
+package com.jakewharton.scalpel.core;
+
+import java.util.Arrays;
+
+/**
+ * A growable ring buffer of nodes pending traversal along with the parent index, layer, and clip
+ * which they inherit. Entries are polled in FIFO order unless {@linkplain #addFirst added first}.
+ * Entries are stored in parallel primitive arrays so that no objects are allocated per node once
+ * the buffer has grown to the widest level of the hierarchy.
+ */
+final class NodeQueue {
+  private Object[] nodes;
+  private int[] parents;
+  private int[] layers;
+  private int[] clipLefts;
+  private int[] clipTops;
+  private int[] clipRights;
+  private int[] clipBottoms;
+  private int head;
+  private int size;
+  private int growths;
+
+  // The entry most recently removed by poll().
+  Object node;
+  int parent;
+  int layer;
+  int clipLeft;
+  int clipTop;
+  int clipRight;
+  int clipBottom;
+
+  NodeQueue(int initialCapacity) {
+    nodes = new Object[initialCapacity];
+    parents = new int[initialCapacity];
+    layers = new int[initialCapacity];
+    clipLefts = new int[initialCapacity];
+    clipTops = new int[initialCapacity];
+    clipRights = new int[initialCapacity];
+    clipBottoms = new int[initialCapacity];
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** The total number of times the buffer has had to grow. */
+  int growths() {
+    return growths;
+  }
+
+  void add(Object node, int parent, int layer, int clipLeft, int clipTop, int clipRight,
+      int clipBottom) {
+    if (size == nodes.length) {
+      grow();
+    }
+    int tail = (head + size) % nodes.length;
+    nodes[tail] = node;
+    parents[tail] = parent;
+    layers[tail] = layer;
+    clipLefts[tail] = clipLeft;
+    clipTops[tail] = clipTop;
+    clipRights[tail] = clipRight;
+    clipBottoms[tail] = clipBottom;
+    size++;
+  }
+
+  /** Insert an entry ahead of every other so that it is polled next. */
+  void addFirst(Object node, int parent, int layer, int clipLeft, int clipTop, int clipRight,
+      int clipBottom) {
+    if (size == nodes.length) {
+      grow();
+    }
+    head = (head + nodes.length - 1) % nodes.length;
+    nodes[head] = node;
+    parents[head] = parent;
+    layers[head] = layer;
+    clipLefts[head] = clipLeft;
+    clipTops[head] = clipTop;
+    clipRights[head] = clipRight;
+    clipBottoms[head] = clipBottom;
+    size++;
+  }
+
+  /** Remove the oldest entry and expose it through the fields of this queue. */
+  void poll() {
+    if (size == 0) {
+      throw new IllegalStateException("Queue is empty.");
+    }
+    node = nodes[head];
+    parent = parents[head];
+    layer = layers[head];
+    clipLeft = clipLefts[head];
+    clipTop = clipTops[head];
+    clipRight = clipRights[head];
+    clipBottom = clipBottoms[head];
+    nodes[head] = null;
+    head = (head + 1) % nodes.length;
+    size--;
+  }
+
+  /** Release the reference to the most recently polled node. */
+  void clearPolled() {
+    node = null;
+  }
+
+  private void grow() {
+    int capacity = nodes.length;
+    int newCapacity = capacity * 2;
+    nodes = unroll(nodes, newCapacity);
+    parents = unroll(parents, newCapacity);
+    layers = unroll(layers, newCapacity);
+    clipLefts = unroll(clipLefts, newCapacity);
+    clipTops = unroll(clipTops, newCapacity);
+    clipRights = unroll(clipRights, newCapacity);
+    clipBottoms = unroll(clipBottoms, newCapacity);
+    head = 0;
+    growths++;
+  }
+
+  /** Copy the entries of a full ring starting at head to the front of a larger array. */
+  private Object[] unroll(Object[] array, int newCapacity) {
+    Object[] result = Arrays.copyOfRange(array, head, head + newCapacity);
+    System.arraycopy(array, 0, result, array.length - head, head);
+    return result;
+  }
+
+  private int[] unroll(int[] array, int newCapacity) {
+    int[] result = Arrays.copyOfRange(array, head, head + newCapacity);
+    System.arraycopy(array, 0, result, array.length - head, head);
+    return result;
+  }
+}
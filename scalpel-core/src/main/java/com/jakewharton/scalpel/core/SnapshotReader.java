@@ -0,0 +1,259 @@
+package com.jakewharton.scalpel.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.jakewharton.scalpel.core.SnapshotWriter.FLAG_DRAWS;
+import static com.jakewharton.scalpel.core.SnapshotWriter.FLAG_VISIBLE;
+import static com.jakewharton.scalpel.core.SnapshotWriter.HEADER_BYTES;
+import static com.jakewharton.scalpel.core.SnapshotWriter.MAGIC;
+import static com.jakewharton.scalpel.core.SnapshotWriter.MAX_FILE_BYTES;
+import static com.jakewharton.scalpel.core.SnapshotWriter.NODE_INTS;
+import static com.jakewharton.scalpel.core.SnapshotWriter.NO_STRING;
+import static com.jakewharton.scalpel.core.SnapshotWriter.TRAILER_BYTES;
+import static com.jakewharton.scalpel.core.SnapshotWriter.UTF_8;
+import static com.jakewharton.scalpel.core.SnapshotWriter.VERSION;
+
+/**
+ * Random access to a file written by {@link SnapshotWriter}. The file is memory-mapped so only
+ * the node table and the pixels which are actually read are paged in. Files of 2 GB or more cannot
+ * be mapped and are rejected.
+ */
+public final class SnapshotReader {
+  /** Map {@code file} and read its header. */
+  public static SnapshotReader open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      if (size > MAX_FILE_BYTES) {
+        throw new IOException("Snapshot file is too large to map: " + size + " bytes. Files of "
+            + "2 GB or more are not supported.");
+      }
+      // The mapping remains valid after the channel is closed.
+      return new SnapshotReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    } finally {
+      raf.close();
+    }
+  }
+
+  private final ByteBuffer buffer;
+  private final int originX;
+  private final int originY;
+  private final int width;
+  private final int height;
+  private final int count;
+  private final String[] strings;
+  private final IntBuffer nodes;
+  private final int footerOffset;
+
+  SnapshotReader(MappedByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    int size = buffer.capacity();
+    if (size < HEADER_BYTES + TRAILER_BYTES
+        || buffer.getInt(0) != MAGIC
+        || buffer.getInt(size - 4) != MAGIC) {
+      throw new IOException("Not a snapshot file.");
+    }
+    int version = buffer.getInt(4);
+    if (version != VERSION) {
+      throw new IOException("Unsupported snapshot version: " + version);
+    }
+    originX = buffer.getInt(8);
+    originY = buffer.getInt(12);
+    width = buffer.getInt(16);
+    height = buffer.getInt(20);
+    count = buffer.getInt(24);
+    int stringCount = buffer.getInt(28);
+
+    strings = new String[stringCount];
+    int position = HEADER_BYTES;
+    for (int i = 0; i < stringCount; i++) {
+      int length = buffer.getInt(position);
+      position += 4;
+      byte[] bytes = new byte[length];
+      ByteBuffer slice = buffer.duplicate();
+      slice.position(position);
+      slice.get(bytes);
+      strings[i] = new String(bytes, UTF_8);
+      position += length;
+    }
+
+    ByteBuffer nodeBytes = buffer.duplicate();
+    nodeBytes.position(position);
+    nodeBytes.limit(position + count * NODE_INTS * 4);
+    nodes = nodeBytes.slice().asIntBuffer();
+
+    long footerOffset = buffer.getLong(size - TRAILER_BYTES);
+    if (footerOffset < position || footerOffset + count * 8L > size - TRAILER_BYTES) {
+      throw new IOException("Corrupt snapshot footer offset: " + footerOffset);
+    }
+    this.footerOffset = (int) footerOffset;
+  }
+
+  /** The number of nodes in the snapshot. */
+  public int nodeCount() {
+    return count;
+  }
+
+  /** The absolute horizontal position of the container from which the snapshot was captured. */
+  public int originX() {
+    return originX;
+  }
+
+  /** The absolute vertical position of the container from which the snapshot was captured. */
+  public int originY() {
+    return originY;
+  }
+
+  /** The width of the container from which the snapshot was captured. */
+  public int containerWidth() {
+    return width;
+  }
+
+  /** The height of the container from which the snapshot was captured. */
+  public int containerHeight() {
+    return height;
+  }
+
+  /** The index of the parent of {@code index}, or -1 for nodes at the root. */
+  public int parent(int index) {
+    return field(index, 0);
+  }
+
+  public int layer(int index) {
+    return field(index, 1);
+  }
+
+  /** The absolute left position of {@code index}. */
+  public int left(int index) {
+    return field(index, 2);
+  }
+
+  /** The absolute top position of {@code index}. */
+  public int top(int index) {
+    return field(index, 3);
+  }
+
+  public int width(int index) {
+    return field(index, 4);
+  }
+
+  public int height(int index) {
+    return field(index, 5);
+  }
+
+  /** The identifier of {@code index} or {@link HierarchySnapshot#NO_ID}. */
+  public int id(int index) {
+    return field(index, 6);
+  }
+
+  /** The name of the identifier of {@code index} or null when it has none. */
+  public String idName(int index) {
+    return string(field(index, 7));
+  }
+
+  public String className(int index) {
+    return string(field(index, 8));
+  }
+
+  public boolean isVisible(int index) {
+    return (field(index, 9) & FLAG_VISIBLE) != 0;
+  }
+
+  public boolean drawsContent(int index) {
+    return (field(index, 9) & FLAG_DRAWS) != 0;
+  }
+
+  /** True if the rendered pixels of {@code index} were written. */
+  public boolean hasPixels(int index) {
+    return pixelOffset(index) != -1;
+  }
+
+  public int pixelWidth(int index) {
+    return buffer.getInt(checkedPixelOffset(index));
+  }
+
+  public int pixelHeight(int index) {
+    return buffer.getInt(checkedPixelOffset(index) + 4);
+  }
+
+  /**
+   * The rendered ARGB pixels of {@code index} stored row by row. They are inflated from the file
+   * into a new buffer on each call.
+   */
+  public IntBuffer pixels(int index) throws IOException {
+    int offset = checkedPixelOffset(index);
+    long size = (long) buffer.getInt(offset) * buffer.getInt(offset + 4) * 4;
+    if (size <= 0 || size > Integer.MAX_VALUE) {
+      throw new IOException("Pixels of node " + index + " have an invalid size: " + size
+          + " bytes.");
+    }
+    byte[] pixels = new byte[(int) size];
+
+    ByteBuffer input = buffer.duplicate();
+    input.position(offset + 8);
+    byte[] chunk = new byte[8 * 1024];
+    Inflater inflater = new Inflater();
+    try {
+      int inflated = 0;
+      while (inflated < pixels.length) {
+        if (inflater.needsInput()) {
+          int length = Math.min(chunk.length, input.remaining());
+          if (length == 0) {
+            throw new IOException("Truncated pixels of node " + index);
+          }
+          input.get(chunk, 0, length);
+          inflater.setInput(chunk, 0, length);
+        }
+        int length = inflater.inflate(pixels, inflated, pixels.length - inflated);
+        if (length == 0 && inflater.finished()) {
+          throw new IOException("Truncated pixels of node " + index);
+        }
+        inflated += length;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt pixels of node " + index, e);
+    } finally {
+      inflater.end();
+    }
+    return ByteBuffer.wrap(pixels).asIntBuffer();
+  }
+
+  private int field(int index, int field) {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException("index: " + index + ", count: " + count);
+    }
+    return nodes.get(index * NODE_INTS + field);
+  }
+
+  private String string(int index) {
+    return index == NO_STRING ? null : strings[index];
+  }
+
+  private int pixelOffset(int index) {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException("index: " + index + ", count: " + count);
+    }
+    long offset = buffer.getLong(footerOffset + index * 8);
+    if (offset < -1 || offset > footerOffset - 8) {
+      throw new IllegalStateException("Corrupt pixel offset for node " + index + ": " + offset);
+    }
+    return (int) offset;
+  }
+
+  private int checkedPixelOffset(int index) {
+    int offset = pixelOffset(index);
+    if (offset == -1) {
+      throw new IllegalStateException("No pixels for node " + index);
+    }
+    return offset;
+  }
+}
@@ -0,0 +1,263 @@
+package com.jakewharton.scalpel.core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Streams a {@link HierarchySnapshot} to a compact binary file which can be read back with
+ * {@link SnapshotReader}. The hierarchy is written first followed by the rendered pixels of any
+ * number of nodes, one at a time, so that no more than one rendering needs to be held in memory.
+ * Renderings are mostly transparent or flat color so each is deflated. An index of the pixel data
+ * is written as a footer when the writer is closed.
+ * <p>
+ * All values are big-endian. The file is laid out as:
+ * <pre>
+ * header:  magic, version, origin x, origin y, width, height, node count, string count
+ * strings: for each, byte length then UTF-8 bytes
+ * nodes:   for each, {@value #NODE_INTS} ints of parent, layer, left, top, width, height, id,
+ *          id name string, class name string, and flags
+ * pixels:  for each rendered node, width, height, then a deflate stream of ARGB ints row by row
+ * footer:  for each node, offset of its pixels or -1
+ * trailer: offset of the footer as a long, magic
+ * </pre>
+ */
+public final class SnapshotWriter implements Closeable {
+  static final int MAGIC = 0x5343504C; // "SCPL"
+  static final int VERSION = 2;
+  static final int HEADER_BYTES = 8 * 4;
+  static final int NODE_INTS = 10;
+  static final int TRAILER_BYTES = 8 + 4;
+  /** The largest file which {@link SnapshotReader} can map. */
+  static final long MAX_FILE_BYTES = Integer.MAX_VALUE;
+  static final int FLAG_VISIBLE = 1;
+  static final int FLAG_DRAWS = 1 << 1;
+  /** String index of absent names. */
+  static final int NO_STRING = -1;
+
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** Provides the names which are written for each node. */
+  public interface Names<T> {
+    /** The name of the type of {@code node}, such as its class name. */
+    String className(T node);
+
+    /** The name of the identifier of {@code node} or null when it has none. */
+    String idName(T node);
+  }
+
+  private final OutputStream out;
+  private final ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+  /** Pixels converted to bytes as input for {@link #deflater}. */
+  private final ByteBuffer pixelBytes = ByteBuffer.allocate(8 * 1024);
+  private final byte[] deflated = new byte[8 * 1024];
+  /** Favors speed since exports are made on the device, which is also what shrinks them most. */
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+  private long offset;
+  private long[] pixelOffsets;
+  private boolean closed;
+
+  public SnapshotWriter(OutputStream out) {
+    this.out = new BufferedOutputStream(out);
+  }
+
+  /**
+   * Write the nodes of {@code snapshot} captured from a container of {@code width} by
+   * {@code height}. This must be called exactly once before any pixels are written.
+   */
+  public <T> void writeHierarchy(HierarchySnapshot<T> snapshot, int width, int height,
+      Names<T> names) throws IOException {
+    if (pixelOffsets != null) {
+      throw new IllegalStateException("Hierarchy already written.");
+    }
+    int count = snapshot.count;
+
+    // Names repeat heavily so they are written once and referenced by index.
+    Map<String, Integer> stringIndices = new HashMap<>();
+    String[] strings = new String[count * 2];
+    int[] idNames = new int[count];
+    int[] classNames = new int[count];
+    int stringCount = 0;
+    for (int i = 0; i < count; i++) {
+      T node = snapshot.node(i);
+      String[] pair = { names.idName(node), names.className(node) };
+      for (int p = 0; p < 2; p++) {
+        String name = pair[p];
+        int index = NO_STRING;
+        if (name != null) {
+          Integer existing = stringIndices.get(name);
+          if (existing == null) {
+            index = stringCount;
+            strings[stringCount++] = name;
+            stringIndices.put(name, index);
+          } else {
+            index = existing;
+          }
+        }
+        if (p == 0) {
+          idNames[i] = index;
+        } else {
+          classNames[i] = index;
+        }
+      }
+    }
+
+    writeInt(MAGIC);
+    writeInt(VERSION);
+    writeInt(snapshot.originX);
+    writeInt(snapshot.originY);
+    writeInt(width);
+    writeInt(height);
+    writeInt(count);
+    writeInt(stringCount);
+
+    for (int i = 0; i < stringCount; i++) {
+      byte[] bytes = strings[i].getBytes(UTF_8);
+      writeInt(bytes.length);
+      flushBuffer();
+      checkSize(bytes.length);
+      out.write(bytes);
+      offset += bytes.length;
+    }
+
+    for (int i = 0; i < count; i++) {
+      writeInt(snapshot.parents[i]);
+      writeInt(snapshot.layers[i]);
+      writeInt(snapshot.lefts[i]);
+      writeInt(snapshot.tops[i]);
+      writeInt(snapshot.widths[i]);
+      writeInt(snapshot.heights[i]);
+      writeInt(snapshot.ids[i]);
+      writeInt(idNames[i]);
+      writeInt(classNames[i]);
+      int flags = 0;
+      if (snapshot.visible[i]) {
+        flags |= FLAG_VISIBLE;
+      }
+      if (snapshot.draws[i]) {
+        flags |= FLAG_DRAWS;
+      }
+      writeInt(flags);
+    }
+
+    pixelOffsets = new long[count];
+    Arrays.fill(pixelOffsets, -1);
+  }
+
+  /**
+   * Write the rendered pixels of the node at {@code index} as {@code width} by {@code height} ARGB
+   * values stored row by row in {@code pixels}. Each node may be written at most once, and its
+   * uncompressed pixels must not exceed 2 GB.
+   */
+  public void writePixels(int index, int width, int height, int[] pixels) throws IOException {
+    if (pixelOffsets == null) {
+      throw new IllegalStateException("Hierarchy not written.");
+    }
+    if (pixelOffsets[index] != -1) {
+      throw new IllegalStateException("Pixels already written for node " + index);
+    }
+    long area = (long) width * height;
+    if (width <= 0 || height <= 0 || area * 4 > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid pixel size " + width + "x" + height);
+    }
+    if (pixels.length < area) {
+      throw new IllegalArgumentException(
+          "pixels.length < width * height: " + pixels.length + " < " + area);
+    }
+    pixelOffsets[index] = offset + buffer.position();
+    writeInt(width);
+    writeInt(height);
+    flushBuffer();
+
+    Deflater deflater = this.deflater;
+    ByteBuffer pixelBytes = this.pixelBytes;
+    deflater.reset();
+    for (int i = 0, size = (int) area; i < size; ) {
+      pixelBytes.clear();
+      while (i < size && pixelBytes.remaining() >= 4) {
+        pixelBytes.putInt(pixels[i++]);
+      }
+      deflater.setInput(pixelBytes.array(), 0, pixelBytes.position());
+      while (!deflater.needsInput()) {
+        writeDeflated();
+      }
+    }
+    deflater.finish();
+    while (!deflater.finished()) {
+      writeDeflated();
+    }
+  }
+
+  private void writeDeflated() throws IOException {
+    int length = deflater.deflate(deflated);
+    checkSize(length);
+    out.write(deflated, 0, length);
+    offset += length;
+  }
+
+  /**
+   * Write the footer and trailer and close the underlying stream. If the hierarchy was never
+   * written the stream is closed without writing anything further.
+   */
+  @Override public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (pixelOffsets == null) {
+        return;
+      }
+      long footerOffset = offset + buffer.position();
+      for (long pixelOffset : pixelOffsets) {
+        writeLong(pixelOffset);
+      }
+      writeLong(footerOffset);
+      writeInt(MAGIC);
+      flushBuffer();
+    } finally {
+      deflater.end();
+      out.close();
+    }
+  }
+
+  private void writeInt(int value) throws IOException {
+    if (buffer.remaining() < 4) {
+      flushBuffer();
+    }
+    buffer.putInt(value);
+  }
+
+  private void writeLong(long value) throws IOException {
+    if (buffer.remaining() < 8) {
+      flushBuffer();
+    }
+    buffer.putLong(value);
+  }
+
+  private void flushBuffer() throws IOException {
+    int position = buffer.position();
+    checkSize(position);
+    out.write(buffer.array(), 0, position);
+    offset += position;
+    buffer.clear();
+  }
+
+  /**
+   * Throw before writing {@code bytes} more would make a file which {@link SnapshotReader} cannot
+   * map, rather than only failing once it is read back.
+   */
+  private void checkSize(int bytes) throws IOException {
+    if (offset + bytes > MAX_FILE_BYTES) {
+      throw new IOException("Snapshot exceeds " + MAX_FILE_BYTES + " bytes. Files of 2 GB or more "
+          + "cannot be read back.");
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package com.jakewharton.scalpel.core;
+
+import org.junit.Test;
+
+import static com.jakewharton.scalpel.core.HierarchySnapshot.NO_ID;
+import static org.junit.Assert.assertEquals;
+
+public final class CoverageGridTest {
+  private final HierarchySnapshot<TestNode> snapshot =
+      new HierarchySnapshot<>(TestNode.ADAPTER);
+  private final CoverageGrid grid = new CoverageGrid();
+
+  @Test public void stackedViewsEachOverdrawTheOnesBeneath() {
+    TestNode container = TestNode.group(0, 0, 100, 100, NO_ID);
+    TestNode a = container.add(new TestNode(0, 0, 100, 100, 1));
+    TestNode b = a.add(new TestNode(0, 0, 100, 100, 2));
+    TestNode c = b.add(new TestNode(25, 25, 50, 50, 3));
+    compute(container);
+
+    assertEquals(1, level(a));
+    assertEquals(2, level(b));
+    assertEquals(3, level(c));
+    assertEquals(2, grid.count(0, 0));
+    assertEquals(3, grid.count(5, 5));
+  }
+
+  @Test public void siblingsDrawAfterTheDescendantsOfEarlierSiblings() {
+    TestNode container = TestNode.group(0, 0, 100, 100, NO_ID);
+    TestNode first = container.add(new TestNode(0, 0, 60, 100, 1));
+    TestNode firstChild = first.add(new TestNode(0, 0, 60, 100, 2));
+    // Overlaps both the first sibling and its child, which are drawn before it.
+    TestNode second = container.add(new TestNode(40, 0, 60, 100, 3));
+    compute(container);
+
+    assertEquals(1, level(first));
+    assertEquals(2, level(firstChild));
+    assertEquals(3, level(second));
+    assertEquals(2, grid.count(0, 0));
+    assertEquals(1, grid.count(9, 0));
+  }
+
+  @Test public void groupsWhichDrawNothingDoNotPaint() {
+    TestNode container = TestNode.group(0, 0, 100, 100, NO_ID);
+    TestNode group = container.add(TestNode.group(0, 0, 100, 100, 1));
+    TestNode child = group.add(new TestNode(0, 0, 50, 50, 2));
+    compute(container);
+
+    assertEquals(0, level(group));
+    assertEquals(1, level(child));
+    assertEquals(0, grid.count(9, 9));
+  }
+
+  private void compute(TestNode container) {
+    snapshot.capture(container, null, Integer.MAX_VALUE);
+    grid.compute(snapshot, container.width, container.height, 10);
+  }
+
+  private int level(TestNode node) {
+    for (int i = 0; i < snapshot.count; i++) {
+      if (snapshot.node(i) == node) {
+        return grid.level(i);
+      }
+    }
+    throw new AssertionError("Not captured: " + node.id);
+  }
+}
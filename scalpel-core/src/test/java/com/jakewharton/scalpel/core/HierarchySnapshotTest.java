@@ -0,0 +1,85 @@
+package com.jakewharton.scalpel.core;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+import static com.jakewharton.scalpel.core.HierarchySnapshot.NO_ID;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public final class HierarchySnapshotTest {
+  @Test public void compactKeepsCollapsedChildrenBeneathLaterSiblings() {
+    TestNode container = TestNode.group(0, 0, 100, 100, NO_ID);
+    // A pass-through wrapper around the content, followed by an overlay sibling.
+    TestNode root = container.add(new TestNode(0, 0, 100, 100, 1));
+    TestNode wrapper = root.add(TestNode.group(0, 0, 100, 100, 2));
+    TestNode content = wrapper.add(new TestNode(0, 0, 100, 50, 3));
+    TestNode overlay = root.add(new TestNode(0, 0, 100, 100, 4));
+
+    HierarchySnapshot<TestNode> snapshot = new HierarchySnapshot<>(TestNode.ADAPTER);
+    snapshot.setCompact(true);
+    snapshot.capture(container, null, Integer.MAX_VALUE);
+
+    assertEquals(3, snapshot.count);
+    assertEquals(2, snapshot.layerCount);
+    assertArrayEquals(new int[] { 1, 3, 4 }, ids(snapshot));
+    assertEquals(snapshot.layers[indexOf(snapshot, content)],
+        snapshot.layers[indexOf(snapshot, overlay)]);
+    assertEquals(indexOf(snapshot, root), snapshot.parents[indexOf(snapshot, content)]);
+  }
+
+  @Test public void compactExpandsNestedWrappersInPlace() {
+    TestNode container = TestNode.group(0, 0, 100, 100, NO_ID);
+    TestNode root = container.add(new TestNode(0, 0, 100, 100, 1));
+    TestNode outer = root.add(TestNode.group(0, 0, 100, 100, 2));
+    TestNode inner = outer.add(TestNode.group(0, 0, 100, 100, 3));
+    inner.add(new TestNode(0, 0, 50, 50, 4));
+    outer.add(new TestNode(50, 0, 50, 50, 5));
+    root.add(new TestNode(0, 50, 50, 50, 6));
+    // Deeper content of an earlier sibling must still follow the collapsed children's layer.
+    TestNode first = root.add(new TestNode(50, 50, 50, 50, 7));
+    first.add(new TestNode(50, 50, 10, 10, 8));
+
+    HierarchySnapshot<TestNode> snapshot = new HierarchySnapshot<>(TestNode.ADAPTER);
+    snapshot.setCompact(true);
+    snapshot.capture(container, null, Integer.MAX_VALUE);
+
+    assertArrayEquals(new int[] { 1, 4, 5, 6, 7, 8 }, ids(snapshot));
+    assertArrayEquals(new int[] { 0, 1, 1, 1, 1, 2 }, layers(snapshot));
+  }
+
+  @Test public void layerOrderFollowsCaptureOrderWithinEachLayer() {
+    TestNode container = TestNode.group(0, 0, 100, 100, NO_ID);
+    TestNode a = container.add(new TestNode(0, 0, 50, 100, 1));
+    a.add(new TestNode(0, 0, 10, 10, 3));
+    TestNode b = container.add(new TestNode(50, 0, 50, 100, 2));
+    b.add(new TestNode(50, 0, 10, 10, 4));
+
+    HierarchySnapshot<TestNode> snapshot = new HierarchySnapshot<>(TestNode.ADAPTER);
+    snapshot.capture(container, null, Integer.MAX_VALUE);
+
+    int[] ordered = new int[snapshot.count];
+    for (int i = 0; i < snapshot.count; i++) {
+      ordered[i] = snapshot.ids[snapshot.layerOrder[i]];
+    }
+    assertArrayEquals(new int[] { 1, 2, 3, 4 }, ordered);
+    assertArrayEquals(new int[] { 0, 2, 4 }, Arrays.copyOf(snapshot.layerStarts, 3));
+  }
+
+  private static int[] ids(HierarchySnapshot<TestNode> snapshot) {
+    return Arrays.copyOf(snapshot.ids, snapshot.count);
+  }
+
+  private static int[] layers(HierarchySnapshot<TestNode> snapshot) {
+    return Arrays.copyOf(snapshot.layers, snapshot.count);
+  }
+
+  private static int indexOf(HierarchySnapshot<TestNode> snapshot, TestNode node) {
+    for (int i = 0; i < snapshot.count; i++) {
+      if (snapshot.node(i) == node) {
+        return i;
+      }
+    }
+    throw new AssertionError("Not captured: " + node.id);
+  }
+}
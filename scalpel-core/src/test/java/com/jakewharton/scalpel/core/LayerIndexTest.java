@@ -0,0 +1,84 @@
+package com.jakewharton.scalpel.core;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static com.jakewharton.scalpel.core.HierarchySnapshot.NO_ID;
+import static org.junit.Assert.assertEquals;
+
+/** Compares lookups in a {@link LayerIndex} with a linear scan of random hierarchies. */
+public final class LayerIndexTest {
+  private static final int SIZE = 1000;
+  private static final int HIERARCHIES = 50;
+  private static final int POINTS = 2000;
+
+  private final Random random = new Random(14);
+
+  @Test public void findMatchesLinearScan() {
+    HierarchySnapshot<TestNode> snapshot = new HierarchySnapshot<>(TestNode.ADAPTER);
+    LayerIndex index = new LayerIndex();
+    for (int hierarchy = 0; hierarchy < HIERARCHIES; hierarchy++) {
+      TestNode container = TestNode.group(0, 0, SIZE, SIZE, NO_ID);
+      addChildren(container, 1 + random.nextInt(40), 3);
+      snapshot.capture(container, null, Integer.MAX_VALUE);
+      index.build(snapshot);
+
+      float layerX = random.nextInt(3) * 25f;
+      float layerY = random.nextInt(3) * 25f;
+      for (int point = 0; point < POINTS; point++) {
+        float x = random.nextFloat() * SIZE * 1.2f - SIZE * 0.1f;
+        float y = random.nextFloat() * SIZE * 1.2f - SIZE * 0.1f;
+        assertEquals("hierarchy " + hierarchy + " at (" + x + ", " + y + ")",
+            linearFind(snapshot, x, y, layerX, layerY), index.find(x, y, layerX, layerY));
+      }
+    }
+  }
+
+  @Test public void findOnEmptyIndex() {
+    LayerIndex index = new LayerIndex();
+    assertEquals(-1, index.find(0, 0, 0, 0));
+
+    HierarchySnapshot<TestNode> snapshot = new HierarchySnapshot<>(TestNode.ADAPTER);
+    snapshot.capture(TestNode.group(0, 0, SIZE, SIZE, NO_ID), null, Integer.MAX_VALUE);
+    index.build(snapshot);
+    assertEquals(-1, index.find(SIZE / 2, SIZE / 2, 0, 0));
+  }
+
+  /** Add random children which may overlap each other and extend past {@code parent}. */
+  private void addChildren(TestNode parent, int count, int depth) {
+    for (int i = 0; i < count; i++) {
+      // Mostly small nodes, with some spanning enough cells to be kept in the large list.
+      int maxSize = random.nextInt(8) == 0 ? SIZE : SIZE / 8;
+      int width = 1 + random.nextInt(maxSize);
+      int height = 1 + random.nextInt(maxSize);
+      int left = random.nextInt(SIZE - width + 1);
+      int top = random.nextInt(SIZE - height + 1);
+      TestNode child = parent.add(new TestNode(left, top, width, height, i));
+      child.clips = false;
+      if (depth > 1 && random.nextInt(3) == 0) {
+        addChildren(child, random.nextInt(10), depth - 1);
+      }
+    }
+  }
+
+  /** The last visible node of the deepest layer under the point, as {@link LayerIndex#find}. */
+  private static int linearFind(HierarchySnapshot<?> snapshot, float x, float y, float layerX,
+      float layerY) {
+    int found = -1;
+    int foundLayer = -1;
+    for (int i = 0; i < snapshot.count; i++) {
+      int layer = snapshot.layers[i];
+      if (!snapshot.visible[i] || layer < foundLayer) {
+        continue;
+      }
+      float px = x + snapshot.originX - layer * layerX;
+      float py = y + snapshot.originY + layer * layerY;
+      if (px >= snapshot.lefts[i] && px < snapshot.lefts[i] + snapshot.widths[i]
+          && py >= snapshot.tops[i] && py < snapshot.tops[i] + snapshot.heights[i]) {
+        found = i;
+        foundLayer = layer;
+      }
+    }
+    return found;
+  }
+}
@@ -0,0 +1,135 @@
+package com.jakewharton.scalpel.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.jakewharton.scalpel.core.HierarchySnapshot.NO_ID;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class SnapshotFileTest {
+  private static final SnapshotWriter.Names<TestNode> NAMES = new SnapshotWriter.Names<TestNode>() {
+    @Override public String className(TestNode node) {
+      return node.children.isEmpty() ? "Leaf" : "Group";
+    }
+
+    @Override public String idName(TestNode node) {
+      return node.id == NO_ID ? null : "node_" + node.id;
+    }
+  };
+
+  private File file;
+
+  @Before public void setUp() throws IOException {
+    file = File.createTempFile("snapshot", ".scalpel");
+  }
+
+  @After public void tearDown() {
+    file.delete();
+  }
+
+  @Test public void pixelsRoundTripCompressed() throws IOException {
+    TestNode container = TestNode.group(0, 0, 400, 300, NO_ID);
+    TestNode group = container.add(new TestNode(0, 0, 400, 300, 1));
+    TestNode leaf = group.add(new TestNode(10, 20, 300, 200, NO_ID));
+    HierarchySnapshot<TestNode> snapshot = new HierarchySnapshot<>(TestNode.ADAPTER);
+    snapshot.capture(container, null, Integer.MAX_VALUE);
+
+    int[] flat = new int[400 * 300];
+    for (int i = 0; i < flat.length; i++) {
+      flat[i] = i % 400 < 200 ? 0 : 0xFF336699;
+    }
+    int[] noise = new int[300 * 200];
+    for (int i = 0; i < noise.length; i++) {
+      noise[i] = i * 0x9E3779B9;
+    }
+
+    SnapshotWriter writer = new SnapshotWriter(new FileOutputStream(file));
+    writer.writeHierarchy(snapshot, 400, 300, NAMES);
+    writer.writePixels(indexOf(snapshot, group), 400, 300, flat);
+    writer.writePixels(indexOf(snapshot, leaf), 300, 200, noise);
+    writer.close();
+
+    // Flat renderings shrink to a fraction of their raw size.
+    assertTrue(file.length() < (flat.length + noise.length) * 4 / 2 + 1024);
+
+    SnapshotReader reader = SnapshotReader.open(file);
+    assertEquals(2, reader.nodeCount());
+    int groupIndex = indexOf(snapshot, group);
+    int leafIndex = indexOf(snapshot, leaf);
+    assertEquals("node_1", reader.idName(groupIndex));
+    assertNull(reader.idName(leafIndex));
+    assertEquals("Leaf", reader.className(leafIndex));
+    assertEquals(10, reader.left(leafIndex));
+    assertEquals(groupIndex, reader.parent(leafIndex));
+    assertTrue(reader.hasPixels(groupIndex));
+    assertEquals(400, reader.pixelWidth(groupIndex));
+    assertEquals(200, reader.pixelHeight(leafIndex));
+    assertArrayEquals(flat, toArray(reader.pixels(groupIndex)));
+    assertArrayEquals(noise, toArray(reader.pixels(leafIndex)));
+  }
+
+  @Test public void nodesWithoutPixels() throws IOException {
+    TestNode container = TestNode.group(0, 0, 100, 100, NO_ID);
+    container.add(new TestNode(0, 0, 50, 50, 1));
+    HierarchySnapshot<TestNode> snapshot = new HierarchySnapshot<>(TestNode.ADAPTER);
+    snapshot.capture(container, null, Integer.MAX_VALUE);
+
+    SnapshotWriter writer = new SnapshotWriter(new FileOutputStream(file));
+    writer.writeHierarchy(snapshot, 100, 100, NAMES);
+    writer.close();
+
+    SnapshotReader reader = SnapshotReader.open(file);
+    assertEquals(1, reader.nodeCount());
+    assertFalse(reader.hasPixels(0));
+  }
+
+  @Test public void pixelSizesWhichOverflowAreRejected() throws IOException {
+    TestNode container = TestNode.group(0, 0, 100, 100, NO_ID);
+    container.add(new TestNode(0, 0, 50, 50, 1));
+    HierarchySnapshot<TestNode> snapshot = new HierarchySnapshot<>(TestNode.ADAPTER);
+    snapshot.capture(container, null, Integer.MAX_VALUE);
+
+    SnapshotWriter writer = new SnapshotWriter(new FileOutputStream(file));
+    try {
+      writer.writeHierarchy(snapshot, 100, 100, NAMES);
+      // The int product of these wraps around to 65536.
+      try {
+        writer.writePixels(0, 65536, 65537, new int[65536]);
+        fail();
+      } catch (IllegalArgumentException expected) {
+      }
+      try {
+        writer.writePixels(0, -1, 10, new int[10]);
+        fail();
+      } catch (IllegalArgumentException expected) {
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static int[] toArray(IntBuffer buffer) {
+    int[] array = new int[buffer.remaining()];
+    buffer.get(array);
+    return array;
+  }
+
+  private static int indexOf(HierarchySnapshot<TestNode> snapshot, TestNode node) {
+    for (int i = 0; i < snapshot.count; i++) {
+      if (snapshot.node(i) == node) {
+        return i;
+      }
+    }
+    throw new AssertionError("Not captured: " + node.id);
+  }
+}
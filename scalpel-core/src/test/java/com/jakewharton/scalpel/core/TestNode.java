@@ -0,0 +1,80 @@
+package com.jakewharton.scalpel.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** A node with window-relative bounds for building small hierarchies in tests. */
+final class TestNode {
+  static final NodeAdapter<TestNode> ADAPTER = new NodeAdapter<TestNode>() {
+    @Override public int childCount(TestNode node) {
+      return node.children.size();
+    }
+
+    @Override public TestNode childAt(TestNode node, int index) {
+      return node.children.get(index);
+    }
+
+    @Override public boolean isGone(TestNode node) {
+      return false;
+    }
+
+    @Override public boolean isVisible(TestNode node) {
+      return true;
+    }
+
+    @Override public void getLocation(TestNode node, int[] location) {
+      location[0] = node.left;
+      location[1] = node.top;
+    }
+
+    @Override public int width(TestNode node) {
+      return node.width;
+    }
+
+    @Override public int height(TestNode node) {
+      return node.height;
+    }
+
+    @Override public int id(TestNode node) {
+      return node.id;
+    }
+
+    @Override public boolean clipsChildren(TestNode node) {
+      return node.clips;
+    }
+
+    @Override public boolean drawsContent(TestNode node) {
+      return node.draws;
+    }
+  };
+
+  final int left;
+  final int top;
+  final int width;
+  final int height;
+  final int id;
+  boolean draws = true;
+  boolean clips = true;
+  final List<TestNode> children = new ArrayList<>();
+
+  TestNode(int left, int top, int width, int height, int id) {
+    this.left = left;
+    this.top = top;
+    this.width = width;
+    this.height = height;
+    this.id = id;
+  }
+
+  /** A group which draws nothing of its own. */
+  static TestNode group(int left, int top, int width, int height, int id) {
+    TestNode node = new TestNode(left, top, width, height, id);
+    node.draws = false;
+    return node;
+  }
+
+  /** Add {@code child} and return it. */
+  TestNode add(TestNode child) {
+    children.add(child);
+    return child;
+  }
+}
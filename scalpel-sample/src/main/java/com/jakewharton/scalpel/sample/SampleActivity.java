@@ -2,22 +2,29 @@ package com.jakewharton.scalpel.sample;
 
 import android.app.ActionBar;
 import android.app.Activity;
+import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.view.ViewPager;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 import android.widget.CompoundButton;
 import android.widget.Switch;
 import android.widget.Toast;
 import butterknife.ButterKnife;
 import butterknife.InjectView;
 import com.jakewharton.scalpel.ScalpelFrameLayout;
+import com.jakewharton.scalpel.ScalpelInspector;
+import com.jakewharton.scalpel.core.ModelStreamWriter;
 
 import static android.app.ActionBar.DISPLAY_SHOW_CUSTOM;
 import static android.app.ActionBar.DISPLAY_SHOW_TITLE;
 import static android.widget.Toast.LENGTH_LONG;
+import static android.widget.Toast.LENGTH_SHORT;
 
 public final class SampleActivity extends Activity {
+  private static final int TIMELINE_FRAMES = 120;
+
   private static boolean first = true;
 
   @InjectView(R.id.scalpel) ScalpelFrameLayout scalpelView;
@@ -31,6 +38,14 @@ public final class SampleActivity extends Activity {
 
     pagerView.setAdapter(new SamplePagerAdapter(this));
 
+    scalpelView.setOnViewSelectedListener(new ScalpelFrameLayout.OnViewSelectedListener() {
+      @Override public void onViewSelected(View view) {
+        if (view != null) {
+          Toast.makeText(SampleActivity.this, view.getClass().getSimpleName(), LENGTH_SHORT).show();
+        }
+      }
+    });
+
     Switch enabledSwitch = new Switch(this);
     enabledSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
       @Override public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
@@ -50,8 +65,46 @@ public final class SampleActivity extends Activity {
   }
 
   @Override public boolean onCreateOptionsMenu(Menu menu) {
+    menu.add("Inspect Window")
+        .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+          @Override public boolean onMenuItemClick(MenuItem item) {
+            ScalpelInspector.forWindowOf(pagerView).show();
+            return true;
+          }
+        });
+    menu.add("Stress Test")
+        .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+          @Override public boolean onMenuItemClick(MenuItem item) {
+            startActivity(new Intent(SampleActivity.this, StressActivity.class));
+            return true;
+          }
+        });
+    menu.add("Stream Model")
+        .setCheckable(true)
+        .setChecked(scalpelView.getStreamingPort() != 0)
+        .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+          @Override public boolean onMenuItemClick(MenuItem item) {
+            boolean checked = !item.isChecked();
+            item.setChecked(checked);
+            scalpelView.setStreamingPort(checked ? ModelStreamWriter.DEFAULT_PORT : 0);
+            return true;
+          }
+        });
+    menu.add("Record Timeline")
+        .setCheckable(true)
+        .setChecked(scalpelView.getTimelineCapacity() != 0)
+        .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+          @Override public boolean onMenuItemClick(MenuItem item) {
+            boolean checked = !item.isChecked();
+            item.setChecked(checked);
+            scalpelView.setTimelineThumbnailsEnabled(checked);
+            scalpelView.setTimelineCapacity(checked ? TIMELINE_FRAMES : 0);
+            invalidateOptionsMenu();
+            return true;
+          }
+        });
     if (!scalpelView.isLayerInteractionEnabled()) {
-      return false;
+      return true;
     }
     menu.add("Draw Views")
         .setCheckable(true)
@@ -75,6 +128,108 @@ public final class SampleActivity extends Activity {
             return true;
           }
         });
+    menu.add("Draw Overdraw")
+        .setCheckable(true)
+        .setChecked(scalpelView.isDrawingOverdraw())
+        .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+          @Override public boolean onMenuItemClick(MenuItem item) {
+            boolean checked = !item.isChecked();
+            item.setChecked(checked);
+            scalpelView.setDrawOverdraw(checked);
+            return true;
+          }
+        });
+    menu.add("Draw Costs")
+        .setCheckable(true)
+        .setChecked(scalpelView.isDrawingCostAnnotations())
+        .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+          @Override public boolean onMenuItemClick(MenuItem item) {
+            boolean checked = !item.isChecked();
+            item.setChecked(checked);
+            scalpelView.setDrawCostAnnotations(checked);
+            return true;
+          }
+        });
+    menu.add("Compact Layers")
+        .setCheckable(true)
+        .setChecked(scalpelView.isLayerCompactionEnabled())
+        .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+          @Override public boolean onMenuItemClick(MenuItem item) {
+            boolean checked = !item.isChecked();
+            item.setChecked(checked);
+            scalpelView.setLayerCompactionEnabled(checked);
+            return true;
+          }
+        });
+    menu.add("Cache Layers")
+        .setCheckable(true)
+        .setChecked(scalpelView.isLayerCacheEnabled())
+        .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+          @Override public boolean onMenuItemClick(MenuItem item) {
+            boolean checked = !item.isChecked();
+            item.setChecked(checked);
+            scalpelView.setLayerCacheEnabled(checked);
+            return true;
+          }
+        });
+    menu.add("Display Lists")
+        .setCheckable(true)
+        .setChecked(scalpelView.isDisplayListsEnabled())
+        .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+          @Override public boolean onMenuItemClick(MenuItem item) {
+            boolean checked = !item.isChecked();
+            item.setChecked(checked);
+            scalpelView.setDisplayListsEnabled(checked);
+            return true;
+          }
+        });
+    menu.add("Rasterize in Background")
+        .setCheckable(true)
+        .setChecked(scalpelView.isBackgroundRasterizationEnabled())
+        .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+          @Override public boolean onMenuItemClick(MenuItem item) {
+            boolean checked = !item.isChecked();
+            item.setChecked(checked);
+            scalpelView.setBackgroundRasterizationEnabled(checked);
+            return true;
+          }
+        });
+    if (scalpelView.getTimelineCapacity() != 0) {
+      menu.add("Previous Frame")
+          .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+            @Override public boolean onMenuItemClick(MenuItem item) {
+              stepTimeline(-1);
+              return true;
+            }
+          });
+      menu.add("Next Frame")
+          .setOnMenuItemClickListener(new MenuItem.OnMenuItemClickListener() {
+            @Override public boolean onMenuItemClick(MenuItem item) {
+              stepTimeline(1);
+              return true;
+            }
+          });
+    }
     return true;
   }
+
+  /** Show the frame {@code delta} frames away, where stepping past the newest returns to live. */
+  private void stepTimeline(int delta) {
+    int count = scalpelView.getTimelineFrameCount();
+    if (count == 0) {
+      return;
+    }
+    int frame = scalpelView.getShownTimelineFrame();
+    if (frame == -1) {
+      frame = count;
+    }
+    frame = Math.max(0, frame + delta);
+    if (frame >= count) {
+      scalpelView.showTimelineFrame(-1);
+      Toast.makeText(this, "Live", LENGTH_SHORT).show();
+    } else {
+      scalpelView.showTimelineFrame(frame);
+      Toast.makeText(this, "Frame " + (frame + 1) + " of " + count, LENGTH_SHORT).show();
+    }
+  }
 }
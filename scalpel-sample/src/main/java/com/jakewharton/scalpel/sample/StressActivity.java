@@ -0,0 +1,416 @@
+package com.jakewharton.scalpel.sample;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+import com.jakewharton.scalpel.FrameStats;
+import com.jakewharton.scalpel.ScalpelFrameLayout;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static android.graphics.Bitmap.Config.ARGB_8888;
+import static android.view.Gravity.BOTTOM;
+import static android.view.InputDevice.SOURCE_TOUCHSCREEN;
+import static android.view.MotionEvent.ACTION_DOWN;
+import static android.view.MotionEvent.ACTION_MOVE;
+import static android.view.MotionEvent.ACTION_POINTER_DOWN;
+import static android.view.MotionEvent.ACTION_POINTER_INDEX_SHIFT;
+import static android.view.MotionEvent.ACTION_POINTER_UP;
+import static android.view.MotionEvent.ACTION_UP;
+import static android.view.ViewGroup.LayoutParams.MATCH_PARENT;
+import static android.view.ViewGroup.LayoutParams.WRAP_CONTENT;
+
+/**
+ * Explodes a synthetic hierarchy, drives the model with a scripted sequence of gestures, and
+ * reports the per-frame timings and view counts gathered through {@link FrameStats}. This gives a
+ * reproducible baseline for rendering changes on a device.
+ * <p>
+ * The model is also rendered once before the gestures start and compared against a golden image
+ * of the same hierarchy which is recorded by the first run. The report is shown on screen and
+ * logged with the tag {@value #TAG}. Configure a run with intent extras:
+ * <pre>
+ * adb shell am start -n com.jakewharton.scalpel.sample/.StressActivity \
+ *     --ei width 10 --ei depth 4 --ez record false --ez cacheLayers false --ez displayLists false
+ * </pre>
+ * where {@code width} is the number of children of each group, {@code depth} the number of group
+ * levels, and {@code record} replaces the golden image. The remaining extras enable the layer
+ * cache and display lists of the exploded view.
+ */
+public final class StressActivity extends Activity {
+  static final String TAG = "ScalpelStress";
+  static final String EXTRA_WIDTH = "width";
+  static final String EXTRA_DEPTH = "depth";
+  static final String EXTRA_RECORD = "record";
+  static final String EXTRA_CACHE_LAYERS = "cacheLayers";
+  static final String EXTRA_DISPLAY_LISTS = "displayLists";
+
+  private static final int MAX_VIEWS = 100000;
+  private static final long FRAME_DELAY_MILLIS = 16;
+  /** Largest difference of any color channel at which two golden pixels are still equal. */
+  private static final int GOLDEN_TOLERANCE = 2;
+
+  private final Handler handler = new Handler();
+  private ScalpelFrameLayout scalpelView;
+  private TextView reportView;
+  private int width;
+  private int depth;
+  private int viewCount;
+  private GestureScript script;
+  private int frame;
+  private String goldenResult;
+
+  private long[] frameNanos;
+  private int[] viewsDrawn;
+  private int[] viewsRendered;
+  private int[] viewsTraversed;
+  private int recordedFrames;
+
+  private final Runnable nextFrame = new Runnable() {
+    @Override public void run() {
+      if (script.dispatch(scalpelView, frame++)) {
+        scalpelView.invalidate();
+        handler.postDelayed(this, FRAME_DELAY_MILLIS);
+      } else {
+        finishRun();
+      }
+    }
+  };
+
+  @Override protected void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+
+    width = getIntent().getIntExtra(EXTRA_WIDTH, 10);
+    depth = getIntent().getIntExtra(EXTRA_DEPTH, 4);
+    viewCount = countViews(width, depth);
+    if (width < 1 || depth < 0 || viewCount > MAX_VIEWS) {
+      throw new IllegalArgumentException(
+          "Hierarchy must have a width of at least one and at most " + MAX_VIEWS + " views: "
+              + width + "x" + depth);
+    }
+
+    scalpelView = new ScalpelFrameLayout(this);
+    scalpelView.addView(build(this, width, depth, new int[1]));
+    scalpelView.setLayerInteractionEnabled(true);
+    scalpelView.setLayerCacheEnabled(getIntent().getBooleanExtra(EXTRA_CACHE_LAYERS, false));
+    scalpelView.setDisplayListsEnabled(getIntent().getBooleanExtra(EXTRA_DISPLAY_LISTS, false));
+
+    reportView = new TextView(this);
+    reportView.setBackgroundColor(0xCC000000);
+    reportView.setTextColor(Color.WHITE);
+    reportView.setText("Running " + width + "x" + depth + " (" + viewCount + " views)...");
+
+    FrameLayout root = new FrameLayout(this);
+    root.addView(scalpelView);
+    root.addView(reportView, new FrameLayout.LayoutParams(MATCH_PARENT, WRAP_CONTENT, BOTTOM));
+    setContentView(root);
+
+    script = new GestureScript();
+    int frames = script.frameCount();
+    frameNanos = new long[frames];
+    viewsDrawn = new int[frames];
+    viewsRendered = new int[frames];
+    viewsTraversed = new int[frames];
+
+    scalpelView.getViewTreeObserver().addOnGlobalLayoutListener(
+        new ViewTreeObserver.OnGlobalLayoutListener() {
+          @SuppressWarnings("deprecation") // removeOnGlobalLayoutListener requires API 16.
+          @Override public void onGlobalLayout() {
+            scalpelView.getViewTreeObserver().removeGlobalOnLayoutListener(this);
+            startRun();
+          }
+        });
+  }
+
+  @Override protected void onDestroy() {
+    super.onDestroy();
+    handler.removeCallbacks(nextFrame);
+  }
+
+  private void startRun() {
+    // The golden image is rendered at the default camera before any gesture moves it.
+    goldenResult = checkGolden();
+    scalpelView.setFrameStatsListener(new ScalpelFrameLayout.FrameStatsListener() {
+      @Override public void onFrameStats(FrameStats stats) {
+        int index = recordedFrames;
+        if (index == frameNanos.length) {
+          return;
+        }
+        frameNanos[index] = stats.getCaptureNanos() + stats.getViewDrawNanos()
+            + stats.getChromeNanos();
+        viewsDrawn[index] = stats.getViewsDrawn();
+        viewsRendered[index] = stats.getViewsRendered();
+        viewsTraversed[index] = stats.getViewsTraversed();
+        recordedFrames = index + 1;
+      }
+    });
+    handler.post(nextFrame);
+  }
+
+  private void finishRun() {
+    scalpelView.setFrameStatsListener(null);
+    String report = report();
+    Log.i(TAG, report);
+    reportView.setText(report);
+  }
+
+  private String report() {
+    int frames = recordedFrames;
+    long[] sorted = Arrays.copyOf(frameNanos, frames);
+    Arrays.sort(sorted);
+    long drawn = 0;
+    long rendered = 0;
+    long traversed = 0;
+    for (int i = 0; i < frames; i++) {
+      drawn += viewsDrawn[i];
+      rendered += viewsRendered[i];
+      traversed += viewsTraversed[i];
+    }
+    int divisor = Math.max(1, frames);
+    return "Hierarchy " + width + "x" + depth + ": " + viewCount + " views, " + frames + " frames\n"
+        + String.format("Frame ms: p50 %.2f, p90 %.2f, p99 %.2f, max %.2f\n",
+        millis(percentile(sorted, 50)), millis(percentile(sorted, 90)),
+        millis(percentile(sorted, 99)), millis(frames == 0 ? 0 : sorted[frames - 1]))
+        + "Per frame: " + traversed / divisor + " views traversed, " + drawn / divisor
+        + " views drawn, " + rendered / divisor + " views rendered\n"
+        + "Golden image: " + goldenResult;
+  }
+
+  private static long percentile(long[] sorted, int percent) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  /**
+   * Render the model and compare it against the golden image of this hierarchy, recording it when
+   * there is none or when asked to. Returns a description of the result.
+   */
+  private String checkGolden() {
+    int viewWidth = scalpelView.getWidth();
+    int viewHeight = scalpelView.getHeight();
+    Bitmap actual = Bitmap.createBitmap(viewWidth, viewHeight, ARGB_8888);
+    scalpelView.draw(new Canvas(actual));
+
+    File file = new File(getFilesDir(), "golden-" + width + "x" + depth + ".png");
+    try {
+      if (!file.exists() || getIntent().getBooleanExtra(EXTRA_RECORD, false)) {
+        OutputStream out = new FileOutputStream(file);
+        try {
+          actual.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } finally {
+          out.close();
+        }
+        return "recorded " + file;
+      }
+
+      Bitmap expected = BitmapFactory.decodeFile(file.getPath());
+      if (expected == null) {
+        return "unreadable " + file;
+      }
+      try {
+        if (expected.getWidth() != viewWidth || expected.getHeight() != viewHeight) {
+          return "size " + expected.getWidth() + "x" + expected.getHeight() + " differs from "
+              + viewWidth + "x" + viewHeight + ", record it again";
+        }
+        int differences = countDifferences(expected, actual);
+        return differences == 0 ? "matched" : differences + " pixels differ";
+      } finally {
+        expected.recycle();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to record golden image.", e);
+      return "failed to record: " + e.getMessage();
+    } finally {
+      actual.recycle();
+    }
+  }
+
+  private static int countDifferences(Bitmap expected, Bitmap actual) {
+    int width = expected.getWidth();
+    int[] expectedRow = new int[width];
+    int[] actualRow = new int[width];
+    int differences = 0;
+    for (int y = 0, height = expected.getHeight(); y < height; y++) {
+      expected.getPixels(expectedRow, 0, width, 0, y, width, 1);
+      actual.getPixels(actualRow, 0, width, 0, y, width, 1);
+      for (int x = 0; x < width; x++) {
+        if (!similar(expectedRow[x], actualRow[x])) {
+          differences++;
+        }
+      }
+    }
+    return differences;
+  }
+
+  private static boolean similar(int a, int b) {
+    for (int shift = 0; shift < 32; shift += 8) {
+      if (Math.abs(((a >>> shift) & 0xFF) - ((b >>> shift) & 0xFF)) > GOLDEN_TOLERANCE) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int countViews(int width, int depth) {
+    long count = 0;
+    long level = 1;
+    for (int i = 0; i <= depth && count <= MAX_VIEWS; i++) {
+      count += level;
+      level *= width;
+    }
+    return (int) Math.min(count, MAX_VIEWS + 1);
+  }
+
+  /**
+   * A complete tree of {@code depth} levels of groups, each splitting its area evenly among
+   * {@code width} children in alternating directions, with leaves of a distinct color each.
+   */
+  private static View build(Context context, int width, int depth, int[] nextLeaf) {
+    if (depth == 0) {
+      View leaf = new View(context);
+      float hue = (nextLeaf[0]++ * 37) % 360;
+      leaf.setBackgroundColor(Color.HSVToColor(new float[] { hue, 0.6f, 0.9f }));
+      return leaf;
+    }
+    LinearLayout group = new LinearLayout(context);
+    boolean horizontal = depth % 2 == 0;
+    group.setOrientation(horizontal ? LinearLayout.HORIZONTAL : LinearLayout.VERTICAL);
+    group.setPadding(1, 1, 1, 1);
+    for (int i = 0; i < width; i++) {
+      LinearLayout.LayoutParams params = horizontal
+          ? new LinearLayout.LayoutParams(0, MATCH_PARENT, 1)
+          : new LinearLayout.LayoutParams(MATCH_PARENT, 0, 1);
+      group.addView(build(context, width, depth - 1, nextLeaf), params);
+    }
+    return group;
+  }
+
+  /**
+   * The gestures of a run, one event per frame: a pause, a one finger drag to rotate, a vertical
+   * two finger pinch to zoom, a horizontal two finger pinch to change spacing, and a tap.
+   */
+  static final class GestureScript {
+    private static final int IDLE_FRAMES = 10;
+    private static final int DRAG_FRAMES = 60;
+    private static final int PINCH_FRAMES = 40;
+
+    private final MotionEvent.PointerProperties[] properties = {
+        new MotionEvent.PointerProperties(), new MotionEvent.PointerProperties()
+    };
+    private final MotionEvent.PointerCoords[] coords = {
+        new MotionEvent.PointerCoords(), new MotionEvent.PointerCoords()
+    };
+    private long downTime;
+
+    GestureScript() {
+      properties[0].id = 0;
+      properties[1].id = 1;
+      properties[0].toolType = MotionEvent.TOOL_TYPE_FINGER;
+      properties[1].toolType = MotionEvent.TOOL_TYPE_FINGER;
+    }
+
+    int frameCount() {
+      // Drags and pinches also take a frame to go down, and a pinch one more for each finger up.
+      return IDLE_FRAMES + (DRAG_FRAMES + 2) + 2 * (PINCH_FRAMES + 4) + 2;
+    }
+
+    /** Dispatch the event of {@code frame} to {@code view}. Returns false once the script ended. */
+    boolean dispatch(View view, int frame) {
+      float cx = view.getWidth() / 2f;
+      float cy = view.getHeight() / 2f;
+      float span = Math.min(cx, cy) / 2;
+
+      if (frame < IDLE_FRAMES) {
+        return true;
+      }
+      frame -= IDLE_FRAMES;
+
+      if (frame < DRAG_FRAMES + 2) {
+        float progress = frame / (float) (DRAG_FRAMES + 1);
+        float x = cx - span + 2 * span * progress;
+        float y = cy + span * (float) Math.sin(progress * Math.PI);
+        int action = frame == 0 ? ACTION_DOWN : frame == DRAG_FRAMES + 1 ? ACTION_UP : ACTION_MOVE;
+        send(view, action, 1, x, y, 0, 0);
+        return true;
+      }
+      frame -= DRAG_FRAMES + 2;
+
+      for (int pinch = 0; pinch < 2; pinch++) {
+        if (frame < PINCH_FRAMES + 4) {
+          boolean vertical = pinch == 0;
+          pinch(view, frame, vertical, cx, cy, span);
+          return true;
+        }
+        frame -= PINCH_FRAMES + 4;
+      }
+
+      if (frame < 2) {
+        send(view, frame == 0 ? ACTION_DOWN : ACTION_UP, 1, cx, cy, 0, 0);
+        return true;
+      }
+      return false;
+    }
+
+    /** Fingers go down one at a time, spread apart along an axis, and are lifted one at a time. */
+    private void pinch(View view, int frame, boolean vertical, float cx, float cy, float span) {
+      int moveFrame = Math.min(Math.max(frame - 2, 0), PINCH_FRAMES - 1);
+      float distance = span / 4 + span * moveFrame / PINCH_FRAMES;
+      float dx = vertical ? 0 : distance;
+      float dy = vertical ? distance : 0;
+      float x1 = cx - dx;
+      float y1 = cy - dy;
+      float x2 = cx + dx;
+      float y2 = cy + dy;
+      int secondPointer = 1 << ACTION_POINTER_INDEX_SHIFT;
+
+      if (frame == 0) {
+        send(view, ACTION_DOWN, 1, x1, y1, 0, 0);
+      } else if (frame == 1) {
+        send(view, ACTION_POINTER_DOWN | secondPointer, 2, x1, y1, x2, y2);
+      } else if (frame < PINCH_FRAMES + 2) {
+        send(view, ACTION_MOVE, 2, x1, y1, x2, y2);
+      } else if (frame == PINCH_FRAMES + 2) {
+        send(view, ACTION_POINTER_UP | secondPointer, 2, x1, y1, x2, y2);
+      } else {
+        send(view, ACTION_UP, 1, x1, y1, 0, 0);
+      }
+    }
+
+    private void send(View view, int action, int pointers, float x1, float y1, float x2,
+        float y2) {
+      long now = SystemClock.uptimeMillis();
+      if (action == ACTION_DOWN) {
+        downTime = now;
+      }
+      coords[0].x = x1;
+      coords[0].y = y1;
+      coords[1].x = x2;
+      coords[1].y = y2;
+      MotionEvent event = MotionEvent.obtain(downTime, now, action, pointers, properties, coords,
+          0, 0, 1, 1, 0, 0, SOURCE_TOUCHSCREEN, 0);
+      view.dispatchTouchEvent(event);
+      event.recycle();
+    }
+  }
+}
@@ -0,0 +1,261 @@
+package com.jakewharton.scalpel.viewer;
+
+import com.jakewharton.scalpel.core.ModelStreamReader;
+import com.jakewharton.scalpel.core.ModelStreamWriter;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+
+import static com.jakewharton.scalpel.core.Gestures.ROTATION_DEFAULT_X;
+import static com.jakewharton.scalpel.core.Gestures.ROTATION_DEFAULT_Y;
+import static com.jakewharton.scalpel.core.Gestures.SPACING_DEFAULT;
+import static com.jakewharton.scalpel.core.Gestures.ZOOM_DEFAULT;
+import static com.jakewharton.scalpel.core.Gestures.clampRotation;
+import static com.jakewharton.scalpel.core.Gestures.clampSpacing;
+import static com.jakewharton.scalpel.core.Gestures.clampZoom;
+import static com.jakewharton.scalpel.core.Gestures.rotationForDrag;
+import static com.jakewharton.scalpel.core.LayerProjection.layerOffsetX;
+import static com.jakewharton.scalpel.core.LayerProjection.layerOffsetY;
+
+/**
+ * Shows the model streamed by a {@code ScalpelFrameLayout} as exploded layers. Dragging rotates
+ * the model, the mouse wheel zooms, and the mouse wheel with shift held changes the layer spacing.
+ * <p>
+ * Usage: {@code ScalpelViewer [host] [port]}, which defaults to the forwarded port on this machine.
+ */
+public final class ScalpelViewer extends JComponent {
+  private static final long serialVersionUID = 1L;
+  private static final Color BACKGROUND_COLOR = new Color(0xFF222222, true);
+  private static final Color CHROME_COLOR = new Color(0xFF888888, true);
+  private static final long RECONNECT_DELAY_MILLIS = 1000;
+  /** The density of the device is not streamed so assume a phone which is 360dp wide. */
+  private static final float WIDTH_DP = 360;
+
+  public static void main(String... args) {
+    String host = args.length > 0 ? args[0] : "127.0.0.1";
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : ModelStreamWriter.DEFAULT_PORT;
+
+    final ScalpelViewer viewer = new ScalpelViewer(host + ":" + port);
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override public void run() {
+        JFrame frame = new JFrame("Scalpel");
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.add(viewer);
+        frame.pack();
+        frame.setLocationRelativeTo(null);
+        frame.setVisible(true);
+      }
+    });
+    viewer.stream(host, port);
+  }
+
+  /** A node of a decoded frame along with its rendering. Immutable. */
+  private static final class Layer {
+    final int layer;
+    final int left;
+    final int top;
+    final int width;
+    final int height;
+    final BufferedImage image;
+
+    Layer(ModelStreamReader.Node node, BufferedImage image) {
+      layer = node.layer;
+      left = node.left;
+      top = node.top;
+      width = node.width;
+      height = node.height;
+      this.image = image;
+    }
+  }
+
+  /** The visible nodes of a decoded frame in drawing order. Immutable. */
+  private static final class Model {
+    final int originX;
+    final int originY;
+    final int width;
+    final int height;
+    final List<Layer> layers;
+
+    Model(int originX, int originY, int width, int height, List<Layer> layers) {
+      this.originX = originX;
+      this.originY = originY;
+      this.width = width;
+      this.height = height;
+      this.layers = layers;
+    }
+  }
+
+  private static final Comparator<Layer> BY_LAYER = new Comparator<Layer>() {
+    @Override public int compare(Layer a, Layer b) {
+      return a.layer < b.layer ? -1 : (a.layer == b.layer ? 0 : 1);
+    }
+  };
+
+  private final String address;
+  /** Images of the renderings of the previous frame by pixel array. Only used by the reader. */
+  private Map<int[], BufferedImage> images = new IdentityHashMap<>();
+  private volatile Model model;
+  private volatile String status;
+
+  private float rotationX = ROTATION_DEFAULT_X;
+  private float rotationY = ROTATION_DEFAULT_Y;
+  private float zoom = ZOOM_DEFAULT;
+  private float spacing = SPACING_DEFAULT;
+  private int lastX;
+  private int lastY;
+
+  private ScalpelViewer(String address) {
+    this.address = address;
+    status = "Connecting to " + address + "...";
+    setPreferredSize(new Dimension(800, 900));
+
+    MouseAdapter mouse = new MouseAdapter() {
+      @Override public void mousePressed(MouseEvent e) {
+        lastX = e.getX();
+        lastY = e.getY();
+      }
+
+      @Override public void mouseDragged(MouseEvent e) {
+        rotationY = clampRotation(rotationY + rotationForDrag(e.getX() - lastX, getWidth()));
+        rotationX = clampRotation(rotationX + rotationForDrag(lastY - e.getY(), getHeight()));
+        lastX = e.getX();
+        lastY = e.getY();
+        repaint();
+      }
+
+      @Override public void mouseWheelMoved(MouseWheelEvent e) {
+        if (e.isShiftDown()) {
+          spacing = clampSpacing(spacing - e.getWheelRotation() * 5);
+        } else {
+          zoom = clampZoom(zoom - e.getWheelRotation() * 0.05f);
+        }
+        repaint();
+      }
+    };
+    addMouseListener(mouse);
+    addMouseMotionListener(mouse);
+    addMouseWheelListener(mouse);
+  }
+
+  /** Read frames from the device forever, reconnecting whenever the stream ends. */
+  private void stream(String host, int port) {
+    while (true) {
+      try (Socket socket = new Socket(host, port)) {
+        ModelStreamReader reader = new ModelStreamReader(socket.getInputStream());
+        status = "Waiting for " + address + " to draw...";
+        repaint();
+        while (reader.readFrame()) {
+          model = decode(reader);
+          status = null;
+          repaint();
+        }
+        status = "Disconnected from " + address + ". Reconnecting...";
+      } catch (IOException e) {
+        status = "Unable to stream from " + address + ": " + e.getMessage();
+      }
+      model = null;
+      images.clear();
+      repaint();
+      try {
+        Thread.sleep(RECONNECT_DELAY_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  /** Copy the visible nodes of the reader's model into an immutable model which can be drawn. */
+  private Model decode(ModelStreamReader reader) {
+    Map<int[], BufferedImage> previousImages = images;
+    Map<int[], BufferedImage> images = new IdentityHashMap<>();
+    List<Layer> layers = new ArrayList<>();
+    for (ModelStreamReader.Node node : reader.nodes()) {
+      if (!node.visible) {
+        continue;
+      }
+      BufferedImage image = null;
+      int[] pixels = node.pixels;
+      if (node.drawsContent && pixels != null && node.pixelWidth > 0 && node.pixelHeight > 0) {
+        // Renderings are only replaced, never modified, so an unchanged array has the same image.
+        image = previousImages.get(pixels);
+        if (image == null) {
+          image = new BufferedImage(node.pixelWidth, node.pixelHeight, BufferedImage.TYPE_INT_ARGB);
+          image.setRGB(0, 0, node.pixelWidth, node.pixelHeight, pixels, 0, node.pixelWidth);
+        }
+        images.put(pixels, image);
+      }
+      layers.add(new Layer(node, image));
+    }
+    this.images = images;
+    // Draw layer by layer like the device does. The sort is stable so capture order is kept.
+    Collections.sort(layers, BY_LAYER);
+    return new Model(reader.originX(), reader.originY(), reader.containerWidth(),
+        reader.containerHeight(), Collections.unmodifiableList(layers));
+  }
+
+  @Override protected void paintComponent(Graphics graphics) {
+    Graphics2D g = (Graphics2D) graphics.create();
+    try {
+      g.setColor(BACKGROUND_COLOR);
+      g.fillRect(0, 0, getWidth(), getHeight());
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+      Model model = this.model;
+      String status = this.status;
+      if (status != null) {
+        g.setColor(CHROME_COLOR);
+        g.drawString(status, 10, 20);
+      }
+      if (model == null || model.width == 0 || model.height == 0) {
+        return;
+      }
+      drawModel(g, model);
+    } finally {
+      g.dispose();
+    }
+  }
+
+  private void drawModel(Graphics2D g, Model model) {
+    // Fit the container to the window before zooming, then approximate the perspective rotation of
+    // the device by foreshortening each axis.
+    double fit = Math.min(getWidth() / (double) model.width, getHeight() / (double) model.height);
+    double scale = fit * zoom;
+    g.translate(getWidth() / 2.0, getHeight() / 2.0);
+    g.scale(scale * Math.cos(Math.toRadians(rotationY)),
+        scale * Math.cos(Math.toRadians(rotationX)));
+    g.translate(-model.width / 2.0, -model.height / 2.0);
+
+    float density = model.width / WIDTH_DP;
+    float layerX = layerOffsetX(rotationY, spacing, density);
+    float layerY = layerOffsetY(rotationX, spacing, density);
+
+    g.setColor(CHROME_COLOR);
+    for (Layer layer : model.layers) {
+      int x = Math.round(layer.left - model.originX + layer.layer * layerX);
+      int y = Math.round(layer.top - model.originY - layer.layer * layerY);
+      if (layer.image != null) {
+        g.drawImage(layer.image, x, y, layer.width, layer.height, null);
+      }
+      g.drawRect(x, y, layer.width, layer.height);
+    }
+  }
+}
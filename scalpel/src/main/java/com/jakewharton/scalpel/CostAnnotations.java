@@ -0,0 +1,147 @@
+package com.jakewharton.scalpel;
+
+import android.os.Build;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import com.jakewharton.scalpel.core.HierarchySnapshot;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN;
+import static android.view.View.LAYER_TYPE_HARDWARE;
+import static android.view.View.LAYER_TYPE_NONE;
+import static android.view.View.LAYER_TYPE_SOFTWARE;
+
+/**
+ * The cost properties of each captured view which are used to tint and label the model. They are
+ * read once per capture. Draw times are recorded by the model as it draws each view.
+ */
+final class CostAnnotations {
+  private static final int SOFTWARE_LAYER_TINT = 0x40FF0000;
+  private static final int OFFSCREEN_TINT = 0x40FF8800;
+  private static final int HARDWARE_LAYER_TINT = 0x4000CC00;
+
+  private static final Comparator<ViewCost> BY_SCORE = new Comparator<ViewCost>() {
+    @Override public int compare(ViewCost lhs, ViewCost rhs) {
+      long left = lhs.getScore();
+      long right = rhs.getScore();
+      return left < right ? 1 : (left == right ? 0 : -1);
+    }
+  };
+
+  private int count;
+  private int[] depths = new int[0];
+  private int[] childCounts = new int[0];
+  private int[] layerTypes = new int[0];
+  private float[] alphas = new float[0];
+  private boolean[] offscreen = new boolean[0];
+  private long[] drawNanos = new long[0];
+  private String[] labels = new String[0];
+
+  /** Read the properties of every view in {@code snapshot} and reset their draw times. */
+  void update(HierarchySnapshot<View> snapshot) {
+    int count = snapshot.count;
+    if (depths.length < count) {
+      int capacity = snapshot.lefts.length;
+      depths = new int[capacity];
+      childCounts = new int[capacity];
+      layerTypes = new int[capacity];
+      alphas = new float[capacity];
+      offscreen = new boolean[capacity];
+      drawNanos = new long[capacity];
+      labels = new String[capacity];
+    }
+    this.count = count;
+
+    boolean overlapping = Build.VERSION.SDK_INT >= JELLY_BEAN;
+    StringBuilder label = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      View view = snapshot.node(i);
+
+      // Count the ancestors up to the nearest captured one, whose depth is already known.
+      int parent = snapshot.parents[i];
+      View stop = parent == -1 ? null : snapshot.node(parent);
+      int depth = parent == -1 ? 0 : depths[parent] + 1;
+      for (ViewParent ancestor = view.getParent(); ancestor != stop && ancestor instanceof View;
+          ancestor = ancestor.getParent()) {
+        depth++;
+      }
+      depths[i] = depth;
+
+      int childCount = view instanceof ViewGroup ? ((ViewGroup) view).getChildCount() : 0;
+      childCounts[i] = childCount;
+      int layerType = view.getLayerType();
+      layerTypes[i] = layerType;
+      float alpha = view.getAlpha();
+      alphas[i] = alpha;
+      // Overlapping rendering is assumed before it could be declared.
+      offscreen[i] = alpha < 1
+          && layerType == LAYER_TYPE_NONE
+          && (!overlapping || view.hasOverlappingRendering());
+      drawNanos[i] = 0;
+
+      label.setLength(0);
+      label.append('d').append(depth);
+      if (childCount > 0) {
+        label.append(" c").append(childCount);
+      }
+      if (layerType == LAYER_TYPE_HARDWARE) {
+        label.append(" HW");
+      } else if (layerType == LAYER_TYPE_SOFTWARE) {
+        label.append(" SW");
+      }
+      if (alpha < 1) {
+        label.append(" a").append(Math.round(alpha * 100)).append('%');
+      }
+      labels[i] = label.toString();
+    }
+  }
+
+  /** Release all references to the labels of the previous capture. */
+  void clear() {
+    for (int i = 0; i < count; i++) {
+      labels[i] = null;
+    }
+    count = 0;
+  }
+
+  void setDrawNanos(int index, long nanos) {
+    drawNanos[index] = nanos;
+  }
+
+  /** Returns the color with which to tint the view at {@code index} or zero for none. */
+  int tint(int index) {
+    if (layerTypes[index] == LAYER_TYPE_SOFTWARE) {
+      return SOFTWARE_LAYER_TINT;
+    }
+    if (offscreen[index]) {
+      return OFFSCREEN_TINT;
+    }
+    if (layerTypes[index] == LAYER_TYPE_HARDWARE) {
+      return HARDWARE_LAYER_TINT;
+    }
+    return 0;
+  }
+
+  String label(int index) {
+    return labels[index];
+  }
+
+  /** Returns the costs of at most {@code limit} views of {@code snapshot}, highest score first. */
+  CostReport report(HierarchySnapshot<View> snapshot, int limit, long measureNanos,
+      long layoutNanos) {
+    List<ViewCost> views = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      views.add(new ViewCost(snapshot.node(i), depths[i], childCounts[i], layerTypes[i],
+          alphas[i], offscreen[i], drawNanos[i]));
+    }
+    Collections.sort(views, BY_SCORE);
+    if (views.size() > limit) {
+      views = new ArrayList<>(views.subList(0, limit));
+    }
+    return new CostReport(measureNanos, layoutNanos, Collections.unmodifiableList(views));
+  }
+}
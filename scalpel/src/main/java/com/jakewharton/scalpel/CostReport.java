@@ -0,0 +1,42 @@
+package com.jakewharton.scalpel;
+
+import java.util.List;
+
+/** The most expensive views in the model along with the cost of laying out the hierarchy. */
+public final class CostReport {
+  private final long measureNanos;
+  private final long layoutNanos;
+  private final List<ViewCost> views;
+
+  CostReport(long measureNanos, long layoutNanos, List<ViewCost> views) {
+    this.measureNanos = measureNanos;
+    this.layoutNanos = layoutNanos;
+    this.views = views;
+  }
+
+  /** Time of the most recent measure pass of the hierarchy or zero if none was timed. */
+  public long getMeasureNanos() {
+    return measureNanos;
+  }
+
+  /** Time of the most recent layout pass of the hierarchy or zero if none was timed. */
+  public long getLayoutNanos() {
+    return layoutNanos;
+  }
+
+  /** The views with the highest {@linkplain ViewCost#getScore() score}, highest first. */
+  public List<ViewCost> getViews() {
+    return views;
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder()
+        .append("CostReport{measureNanos=").append(measureNanos)
+        .append(", layoutNanos=").append(layoutNanos)
+        .append('}');
+    for (int i = 0, count = views.size(); i < count; i++) {
+      builder.append('\n').append(i + 1).append(". ").append(views.get(i));
+    }
+    return builder.toString();
+  }
+}
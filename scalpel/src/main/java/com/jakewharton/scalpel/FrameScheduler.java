@@ -0,0 +1,101 @@
+package com.jakewharton.scalpel;
+
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.View;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN;
+
+/**
+ * Invokes a callback at most once per display frame. Frames are paced by the vsync signal through
+ * {@link Choreographer} where available and approximated with delayed posts otherwise.
+ */
+abstract class FrameScheduler {
+  interface Callback {
+    /** Called with the frame start time in the {@link System#nanoTime()} time base. */
+    void doFrame(long frameTimeNanos);
+  }
+
+  static FrameScheduler create(View view, Callback callback) {
+    if (Build.VERSION.SDK_INT >= JELLY_BEAN) {
+      return new ChoreographerFrameScheduler(callback);
+    }
+    return new PostingFrameScheduler(view, callback);
+  }
+
+  final Callback callback;
+  boolean scheduled;
+
+  FrameScheduler(Callback callback) {
+    this.callback = callback;
+  }
+
+  /** Request a callback for the next frame. Multiple requests before that frame are coalesced. */
+  final void schedule() {
+    if (!scheduled) {
+      scheduled = true;
+      post();
+    }
+  }
+
+  /** Cancel any outstanding request. */
+  final void cancel() {
+    if (scheduled) {
+      scheduled = false;
+      remove();
+    }
+  }
+
+  final void dispatch(long frameTimeNanos) {
+    scheduled = false;
+    callback.doFrame(frameTimeNanos);
+  }
+
+  abstract void post();
+
+  abstract void remove();
+
+  private static final class ChoreographerFrameScheduler extends FrameScheduler
+      implements Choreographer.FrameCallback {
+    private final Choreographer choreographer = Choreographer.getInstance();
+
+    ChoreographerFrameScheduler(Callback callback) {
+      super(callback);
+    }
+
+    @Override void post() {
+      choreographer.postFrameCallback(this);
+    }
+
+    @Override void remove() {
+      choreographer.removeFrameCallback(this);
+    }
+
+    @Override public void doFrame(long frameTimeNanos) {
+      dispatch(frameTimeNanos);
+    }
+  }
+
+  private static final class PostingFrameScheduler extends FrameScheduler implements Runnable {
+    private static final long FRAME_DELAY_MS = 16;
+
+    private final View view;
+
+    PostingFrameScheduler(View view, Callback callback) {
+      super(callback);
+      this.view = view;
+    }
+
+    @Override void post() {
+      view.postDelayed(this, FRAME_DELAY_MS);
+    }
+
+    @Override void remove() {
+      view.removeCallbacks(this);
+    }
+
+    @Override public void run() {
+      dispatch(System.nanoTime());
+    }
+  }
+}
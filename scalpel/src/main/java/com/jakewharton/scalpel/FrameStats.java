@@ -0,0 +1,135 @@
+package com.jakewharton.scalpel;
+
+/**
+ * Measurements of the work done to draw a single frame of the 3D model. A single instance is
+ * reused for every frame so it must not be retained after
+ * {@link ScalpelFrameLayout.FrameStatsListener#onFrameStats(FrameStats)} returns.
+ */
+public final class FrameStats {
+  boolean captured;
+  boolean hierarchyChanged;
+  long captureNanos;
+  int captureGrowths;
+  int viewsTraversed;
+  int viewsDrawn;
+  int viewsRendered;
+  int maxDepth;
+  long viewDrawNanos;
+  long chromeNanos;
+  int idNameHits;
+  int idNameMisses;
+  long timelineNanos;
+
+  FrameStats() {
+  }
+
+  void reset() {
+    captured = false;
+    hierarchyChanged = false;
+    captureNanos = 0;
+    captureGrowths = 0;
+    viewsTraversed = 0;
+    viewsDrawn = 0;
+    viewsRendered = 0;
+    maxDepth = 0;
+    viewDrawNanos = 0;
+    chromeNanos = 0;
+    idNameHits = 0;
+    idNameMisses = 0;
+    timelineNanos = 0;
+  }
+
+  /** Returns true when the hierarchy was re-captured before drawing this frame. */
+  public boolean wasHierarchyCaptured() {
+    return captured;
+  }
+
+  /**
+   * Returns true when the hierarchy was re-captured and differed from the previous capture. A
+   * layout pass which moves nothing re-captures the hierarchy without changing it.
+   */
+  public boolean didHierarchyChange() {
+    return hierarchyChanged;
+  }
+
+  /** Time spent capturing the hierarchy in nanoseconds or zero if it was not captured. */
+  public long getCaptureNanos() {
+    return captureNanos;
+  }
+
+  /** Number of times the capture had to grow its storage for a larger hierarchy. */
+  public int getCaptureGrowths() {
+    return captureGrowths;
+  }
+
+  /** Number of visible views visited by the draw pass, whether or not their content was drawn. */
+  public int getViewsTraversed() {
+    return viewsTraversed;
+  }
+
+  /** Number of views whose content was drawn. Zero when only wireframes are drawn. */
+  public int getViewsDrawn() {
+    return viewsDrawn;
+  }
+
+  /**
+   * Number of views whose content was rendered rather than reused from the layer cache. Only views
+   * which were invalidated or resized since the previous frame are rendered when it is enabled.
+   */
+  public int getViewsRendered() {
+    return viewsRendered;
+  }
+
+  /** Deepest layer visited by the draw pass. */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /** Time spent drawing view contents in nanoseconds. */
+  public long getViewDrawNanos() {
+    return viewDrawNanos;
+  }
+
+  /** Time spent drawing outlines and IDs in nanoseconds. */
+  public long getChromeNanos() {
+    return chromeNanos;
+  }
+
+  /** Number of ID labels whose names were resolved ahead of time. */
+  public int getIdNameHits() {
+    return idNameHits;
+  }
+
+  /**
+   * Number of ID labels whose names were not resolved ahead of time. They are skipped until
+   * resolved in the background, or resolved while drawing when no resolution is outstanding.
+   */
+  public int getIdNameMisses() {
+    return idNameMisses;
+  }
+
+  /**
+   * Time spent recording the frame into the timeline in nanoseconds, including its thumbnail. Zero
+   * when the hierarchy did not change or no timeline is being recorded.
+   */
+  public long getTimelineNanos() {
+    return timelineNanos;
+  }
+
+  @Override public String toString() {
+    return "FrameStats{captured=" + captured
+        + ", hierarchyChanged=" + hierarchyChanged
+        + ", captureNanos=" + captureNanos
+        + ", captureGrowths=" + captureGrowths
+        + ", viewsTraversed=" + viewsTraversed
+        + ", viewsDrawn=" + viewsDrawn
+        + ", viewsRendered=" + viewsRendered
+        + ", maxDepth=" + maxDepth
+        + ", viewDrawNanos=" + viewDrawNanos
+        + ", chromeNanos=" + chromeNanos
+        + ", idNameHits=" + idNameHits
+        + ", idNameMisses=" + idNameMisses
+        + ", timelineNanos=" + timelineNanos
+        + '}';
+  }
+}
@@ -0,0 +1,265 @@
+package com.jakewharton.scalpel;
+
+import android.content.res.Resources;
+import android.content.res.Resources.NotFoundException;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import android.util.SparseArray;
+import android.view.View;
+import com.jakewharton.scalpel.core.HierarchySnapshot;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static android.graphics.Bitmap.Config.ARGB_8888;
+import static android.graphics.Paint.FILTER_BITMAP_FLAG;
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+import static android.view.View.NO_ID;
+
+/**
+ * Resolves the resource entry names of view IDs and draws them as labels. When a hierarchy is
+ * captured, the names of its IDs are resolved and their labels rendered on a background thread so
+ * that drawing neither looks up resources nor lays out text. A label is then a single bitmap blit.
+ * <p>
+ * Names are kept for every ID seen until {@linkplain #clear() cleared}, so a hierarchy whose IDs
+ * are all known is not prewarmed again. Label bitmaps are kept within a byte budget, least recently
+ * drawn first out.
+ */
+final class IdLabels {
+  private static final int MAX_LABEL_BYTES = 2 * 1024 * 1024;
+  /** Room around the text for its shadow, which has a radius and offset of one pixel. */
+  private static final int SHADOW_PADDING = 2;
+
+  private static Executor resolver;
+
+  /** A worker shared by every instance. Only accessed from the main thread. */
+  private static Executor resolver() {
+    if (resolver == null) {
+      resolver = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override public Thread newThread(final Runnable runnable) {
+          Thread thread = new Thread(new Runnable() {
+            @Override public void run() {
+              Process.setThreadPriority(THREAD_PRIORITY_BACKGROUND);
+              runnable.run();
+            }
+          }, "Scalpel-IdLabels");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return resolver;
+  }
+
+  private final View host;
+  private final Resources res;
+  private final Paint textPaint;
+  private final Paint bitmapPaint = new Paint(FILTER_BITMAP_FLAG);
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final LruCache<String, Bitmap> labels = new LruCache<String, Bitmap>(MAX_LABEL_BYTES) {
+    @Override protected int sizeOf(String name, Bitmap label) {
+      return label.getByteCount();
+    }
+  };
+  private SparseArray<String> names = new SparseArray<>();
+  /** Changed by {@link #clear()} so that the results of earlier prewarms are dropped. */
+  private int generation;
+  /** Changed by {@link #clearLabels()} so that labels rendered with the old paint are dropped. */
+  private int paintGeneration;
+  /** The number of prewarms whose results have not been merged yet. */
+  private int pendingPrewarms;
+  /** Distance from the text baseline to the top of every label bitmap, or NaN if not computed. */
+  private float labelTop = Float.NaN;
+
+  /** Labels are drawn with {@code textPaint}. Call {@link #clearLabels()} after changing it. */
+  IdLabels(View host, Resources res, Paint textPaint) {
+    this.host = host;
+    this.res = res;
+    this.textPaint = textPaint;
+  }
+
+  /**
+   * Resolve the names of the IDs in {@code snapshot} which are not known yet and render their
+   * labels, along with any missing labels of known names, in the background. The host is
+   * invalidated once they are ready. Nothing is done when every ID is already known.
+   */
+  void prewarm(HierarchySnapshot<View> snapshot) {
+    if (isKnown(snapshot)) {
+      return;
+    }
+
+    SparseArray<String> seen = new SparseArray<>();
+    int[] unknown = new int[snapshot.count];
+    String[] missing = new String[snapshot.count];
+    int unknownCount = 0;
+    int missingCount = 0;
+    for (int i = 0, count = snapshot.count; i < count; i++) {
+      int id = snapshot.ids[i];
+      if (id == NO_ID || seen.get(id) != null) {
+        continue;
+      }
+      String name = names.get(id);
+      if (name == null) {
+        // Placeholder so that an ID which occurs more than once is only resolved once.
+        seen.put(id, "");
+        unknown[unknownCount++] = id;
+      } else {
+        seen.put(id, name);
+        if (labels.get(name) == null) {
+          missing[missingCount++] = name;
+        }
+      }
+    }
+
+    final int generation = this.generation;
+    final int paintGeneration = this.paintGeneration;
+    final int[] ids = new int[unknownCount];
+    System.arraycopy(unknown, 0, ids, 0, unknownCount);
+    final String[] known = new String[missingCount];
+    System.arraycopy(missing, 0, known, 0, missingCount);
+    final Paint paint = new Paint(textPaint);
+    final Resources res = this.res;
+    final LruCache<String, Bitmap> labels = this.labels;
+    final int budget = labels.maxSize() - labels.size();
+    pendingPrewarms++;
+
+    resolver().execute(new Runnable() {
+      @Override public void run() {
+        final String[] resolved = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+          resolved[i] = resolve(res, ids[i]);
+        }
+
+        // Labels are only cached on the main thread so that none rendered with an outdated paint
+        // are kept after it changes.
+        int total = known.length + ids.length;
+        final String[] labelNames = new String[total];
+        final Bitmap[] labelBitmaps = new Bitmap[total];
+        int labelCount = 0;
+        int bytes = 0;
+        for (int i = 0; i < total && bytes < budget; i++) {
+          String name = i < known.length ? known[i] : resolved[i - known.length];
+          Bitmap label = render(paint, name);
+          labelNames[labelCount] = name;
+          labelBitmaps[labelCount++] = label;
+          bytes += label.getByteCount();
+        }
+
+        final int renderedCount = labelCount;
+        mainHandler.post(new Runnable() {
+          @Override public void run() {
+            if (IdLabels.this.generation != generation) {
+              return;
+            }
+            pendingPrewarms--;
+            // Names do not depend on the paint so they are kept even when the labels are not.
+            for (int i = 0; i < ids.length; i++) {
+              names.put(ids[i], resolved[i]);
+            }
+            if (IdLabels.this.paintGeneration == paintGeneration) {
+              for (int i = 0; i < renderedCount; i++) {
+                if (labels.get(labelNames[i]) == null) {
+                  labels.put(labelNames[i], labelBitmaps[i]);
+                }
+              }
+            }
+            host.invalidate();
+          }
+        });
+      }
+    });
+  }
+
+  /** Returns true when the names of every ID in {@code snapshot} are known. */
+  private boolean isKnown(HierarchySnapshot<View> snapshot) {
+    for (int i = 0, count = snapshot.count; i < count; i++) {
+      int id = snapshot.ids[i];
+      if (id != NO_ID && names.get(id) == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Draw the label for {@code id} with the left of its text at {@code x} and its baseline at
+   * {@code y}. Returns false when the name had not been resolved ahead of time. The label is then
+   * skipped while a prewarm is outstanding, or rendered immediately otherwise.
+   */
+  boolean draw(Canvas canvas, int id, float x, float y) {
+    String name = names.get(id);
+    boolean hit = name != null;
+    if (!hit) {
+      if (pendingPrewarms > 0) {
+        return false;
+      }
+      name = name(id);
+    }
+    Bitmap label = labels.get(name);
+    if (label == null) {
+      label = render(textPaint, name);
+      labels.put(name, label);
+    }
+    if (Float.isNaN(labelTop)) {
+      // Every label uses the same paint so they share their vertical metrics.
+      labelTop = textPaint.ascent() - SHADOW_PADDING;
+    }
+    canvas.drawBitmap(label, x - SHADOW_PADDING, y + labelTop, bitmapPaint);
+    return hit;
+  }
+
+  /** Returns true while names are being resolved, during which unresolved labels are skipped. */
+  boolean isPrewarming() {
+    return pendingPrewarms > 0;
+  }
+
+  /** Returns the name of {@code id}, resolving it immediately if needed. */
+  String name(int id) {
+    String name = names.get(id);
+    if (name == null) {
+      name = resolve(res, id);
+      names.put(id, name);
+    }
+    return name;
+  }
+
+  /** Discard the rendered labels, such as after the text paint changed. */
+  void clearLabels() {
+    labels.evictAll();
+    labelTop = Float.NaN;
+    // Labels rendered by an outstanding prewarm used the previous paint.
+    paintGeneration++;
+  }
+
+  /** Discard all names and labels, dropping the results of outstanding prewarms. */
+  void clear() {
+    names = new SparseArray<>();
+    labels.evictAll();
+    generation++;
+    pendingPrewarms = 0;
+  }
+
+  /** Render {@code name} with its baseline {@code -paint.ascent()} below the padding. */
+  private static Bitmap render(Paint paint, String name) {
+    float ascent = paint.ascent();
+    float descent = paint.descent();
+    int width = (int) Math.ceil(paint.measureText(name)) + 2 * SHADOW_PADDING;
+    int height = (int) Math.ceil(descent - ascent) + 2 * SHADOW_PADDING;
+    Bitmap label = Bitmap.createBitmap(width, height, ARGB_8888);
+    new Canvas(label).drawText(name, SHADOW_PADDING, SHADOW_PADDING - ascent, paint);
+    return label;
+  }
+
+  private static String resolve(Resources res, int id) {
+    try {
+      return res.getResourceEntryName(id);
+    } catch (NotFoundException e) {
+      return String.format("0x%8x", id);
+    }
+  }
+}
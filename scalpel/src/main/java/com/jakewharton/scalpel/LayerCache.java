@@ -0,0 +1,596 @@
+package com.jakewharton.scalpel;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.view.View;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static android.graphics.Bitmap.Config.ARGB_8888;
+import static android.graphics.Color.TRANSPARENT;
+import static android.graphics.Paint.FILTER_BITMAP_FLAG;
+import static android.graphics.PorterDuff.Mode.CLEAR;
+import static android.os.Build.VERSION_CODES.KITKAT;
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+
+/**
+ * Caches the rendered content of individual views as bitmaps so that changes to the camera only
+ * require re-compositing the cached layers. Only the content which belongs to a view itself is
+ * cached, as drawn by {@link ViewContent}. An entry is re-rendered only when the caller reports its
+ * view as dirty or its size changes, so moving a view does not re-render it.
+ * <p>
+ * The bitmaps of every entry and of a pool of released bitmaps which are reused for new entries
+ * are kept within a byte budget. When there is no room, the least recently drawn entries which are
+ * not part of the current frame are evicted. When a frame has to evict entries from the previous
+ * frame, the views no longer fit together and new entries are cached at half the resolution and
+ * drawn scaled up. The resolution is restored once the views would fit again. A single view which
+ * does not fit is cached at a lower resolution still, or drawn directly as a last resort.
+ * <p>
+ * When {@linkplain #setAsync(boolean) asynchronous}, re-rendering a view only records its drawing
+ * commands into a {@link Picture} on the main thread. A worker plays the picture back into a
+ * second bitmap which is swapped in on the main thread once complete, so the cached bitmap always
+ * holds the most recent completed rasterization.
+ */
+final class LayerCache implements ComponentCallbacks2 {
+  private static final int BYTES_PER_PIXEL = 4;
+  /** The smallest fraction of a view's size at which it will be cached. */
+  private static final float MIN_SCALE = 1 / 8f;
+
+  private static Executor rasterizer;
+
+  /** Workers shared by every cache. Only accessed from the main thread. */
+  private static Executor rasterizer() {
+    if (rasterizer == null) {
+      int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+      rasterizer = Executors.newFixedThreadPool(threads, new RasterThreadFactory());
+    }
+    return rasterizer;
+  }
+
+  /** A default budget of one eighth of the heap, the same share suggested for image caches. */
+  static int defaultMaxSize() {
+    return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+  }
+
+  private static int allocationBytes(Bitmap bitmap) {
+    if (Build.VERSION.SDK_INT >= KITKAT) {
+      return bitmap.getAllocationByteCount();
+    }
+    return bitmap.getByteCount();
+  }
+
+  private final class Entry {
+    final View view;
+    final int width;
+    final int height;
+    /** The cache-wide scale when this entry was created. It is re-created when that changes. */
+    final float cacheScale;
+    /** Fraction of the view's size at which its content is cached. */
+    final float scale;
+    /** The bounds of the view for drawing a bitmap cached at a lower scale. */
+    final Rect bounds;
+    /** The most recent completed rendering. Only drawn once {@link #rendered} is set. */
+    Bitmap bitmap;
+    Canvas canvas;
+    boolean rendered;
+    /** Target of asynchronous rasterization which is swapped with {@link #bitmap} when done. */
+    Bitmap backBitmap;
+    Canvas backCanvas;
+    /** Picture being played back by a worker. Written only while no worker holds the entry. */
+    Picture rasterizing;
+    /** Canvas into which {@link #rasterizing} is being played back. */
+    Canvas target;
+    /** Picture recorded while another was rasterizing which should be played back next. */
+    Picture pending;
+    /**
+     * Picture which no worker holds, recorded into again rather than allocating a new one. An entry
+     * needs at most two since only the latest recording made during a rasterization is kept.
+     */
+    Picture spare;
+    boolean released;
+    int frame;
+    /** Value of {@link #clock} when this entry was last drawn. */
+    long used;
+
+    final Runnable rasterize = new Runnable() {
+      @Override public void run() {
+        render(rasterizing, target);
+        mainHandler.post(rasterized);
+      }
+    };
+    final Runnable rasterized = new Runnable() {
+      @Override public void run() {
+        onRasterized(Entry.this);
+      }
+    };
+
+    Entry(View view, int width, int height, float cacheScale, float scale, Bitmap bitmap) {
+      this.view = view;
+      this.width = width;
+      this.height = height;
+      this.cacheScale = cacheScale;
+      this.scale = scale;
+      this.bounds = scale < 1 ? new Rect(0, 0, width, height) : null;
+      this.bitmap = bitmap;
+      this.canvas = new Canvas(bitmap);
+    }
+
+    /** Play {@code picture} back into {@code canvas} at this entry's scale. */
+    void render(Picture picture, Canvas canvas) {
+      clearAndScale(canvas);
+      picture.draw(canvas);
+      canvas.restore();
+    }
+
+    /** Draw the view into {@code canvas} at this entry's scale. */
+    void render(Canvas canvas) {
+      clearAndScale(canvas);
+      content.draw(view, canvas);
+      canvas.restore();
+    }
+
+    private void clearAndScale(Canvas canvas) {
+      canvas.drawColor(TRANSPARENT, CLEAR);
+      canvas.save();
+      if (scale < 1) {
+        canvas.scale(scale, scale);
+      }
+    }
+  }
+
+  private final Map<View, Entry> entries = new HashMap<>();
+  /** The values of {@link #entries} for iteration without allocating an iterator. */
+  private final List<Entry> entryList = new ArrayList<>();
+  /** Released bitmaps which are reused for new entries. */
+  private final List<Bitmap> pool = new ArrayList<>();
+  private final Paint scaledPaint = new Paint(FILTER_BITMAP_FLAG);
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final View host;
+  private final ViewContent content;
+  private boolean async;
+  private int frame;
+  private long clock;
+  /** Fraction of their size at which new entries are cached. */
+  private float scale = 1;
+  /** True when an entry drawn in the previous or current frame was evicted during this frame. */
+  private boolean thrashed;
+
+  private int maxSize = defaultMaxSize();
+  /**
+   * The budget currently enforced. It is halved when memory runs low and only restored when the
+   * cache is cleared, such as when the model is hidden or disabled, since a lower trim level does
+   * not mean that pressure has eased.
+   */
+  private int limit = maxSize;
+  /** Bytes allocated by every entry and pooled bitmap, including those held by workers. */
+  private int size;
+  private int hitCount;
+  private int missCount;
+  private int evictionCount;
+
+  /**
+   * @param host View which is invalidated when an asynchronous rasterization completes.
+   * @param content Draws the content of each view. Only used on the main thread.
+   */
+  LayerCache(View host, ViewContent content) {
+    this.host = host;
+    this.content = content;
+  }
+
+  /**
+   * Set whether views are rasterized by background workers rather than on the calling thread.
+   * Changing this releases all cached bitmaps.
+   */
+  void setAsync(boolean async) {
+    if (this.async != async) {
+      clear();
+      this.async = async;
+    }
+  }
+
+  /** Set the budget in bytes for all cached bitmaps, evicting entries if it is now exceeded. */
+  void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+    this.limit = maxSize;
+    trimToSize(maxSize);
+  }
+
+  int maxSize() {
+    return maxSize;
+  }
+
+  /** Bytes currently allocated to cached and pooled bitmaps. */
+  int size() {
+    return size;
+  }
+
+  /** Number of times a view was drawn from an existing entry of the correct size. */
+  int hitCount() {
+    return hitCount;
+  }
+
+  /** Number of times a view needed a new entry. */
+  int missCount() {
+    return missCount;
+  }
+
+  /** Number of entries released to stay within the budget. */
+  int evictionCount() {
+    return evictionCount;
+  }
+
+  /** Mark the start of a frame. Entries not drawn before {@link #endFrame()} are released. */
+  void beginFrame() {
+    frame++;
+  }
+
+  /**
+   * Release the entries for any views which were not drawn in the current frame and adjust the
+   * resolution of new entries to the number of bytes the frame needed.
+   */
+  void endFrame() {
+    int frameBytes = 0;
+    for (int i = entryList.size() - 1; i >= 0; i--) {
+      Entry entry = entryList.get(i);
+      if (entry.frame != frame) {
+        remove(i);
+      } else if (entry.bitmap != null) {
+        frameBytes += allocationBytes(entry.bitmap);
+        if (entry.backBitmap != null) {
+          frameBytes += allocationBytes(entry.backBitmap);
+        }
+      }
+    }
+
+    if (thrashed) {
+      thrashed = false;
+      if (scale > MIN_SCALE) {
+        scale /= 2;
+      }
+    } else if (scale < 1 && frameBytes <= limit / 8) {
+      // Doubling the resolution quadruples the bytes which leaves half of the budget to spare.
+      scale *= 2;
+    }
+  }
+
+  /**
+   * Draw the content of {@code view} to {@code canvas}, rendering it to the cache if needed. When
+   * {@code dirty} is false, an existing entry of the correct size is drawn as-is. Returns true if
+   * the content was rendered rather than drawn from the cache.
+   */
+  boolean draw(View view, Canvas canvas, boolean dirty) {
+    int width = view.getWidth();
+    int height = view.getHeight();
+    if (width <= 0 || height <= 0) {
+      return false;
+    }
+
+    Entry entry = entries.get(view);
+    boolean render = dirty;
+    if (entry != null
+        && entry.width == width
+        && entry.height == height
+        && entry.cacheScale == scale) {
+      hitCount++;
+    } else {
+      missCount++;
+      if (entry != null) {
+        remove(entryList.indexOf(entry));
+      }
+      entry = createEntry(view, width, height);
+      if (entry == null) {
+        // Too large to cache even at the lowest scale.
+        content.draw(view, canvas);
+        return true;
+      }
+      render = true;
+    }
+    entry.frame = frame;
+    entry.used = ++clock;
+
+    if (render) {
+      if (async) {
+        record(entry);
+      } else {
+        entry.render(entry.canvas);
+        entry.rendered = true;
+      }
+    }
+    if (entry.rendered) {
+      if (entry.bounds == null) {
+        canvas.drawBitmap(entry.bitmap, 0, 0, null);
+      } else {
+        canvas.drawBitmap(entry.bitmap, null, entry.bounds, scaledPaint);
+      }
+    }
+    return render;
+  }
+
+  /** Release all cached and pooled bitmaps and restore the full budget. */
+  void clear() {
+    for (int i = 0, count = entryList.size(); i < count; i++) {
+      release(entryList.get(i));
+    }
+    entryList.clear();
+    entries.clear();
+    trimPool(0);
+    limit = maxSize;
+    scale = 1;
+  }
+
+  @Override public void onTrimMemory(int level) {
+    if (level >= TRIM_MEMORY_UI_HIDDEN) {
+      // The model is no longer visible so there is nothing worth keeping.
+      clear();
+    } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+      limit = Math.min(limit, maxSize / 2);
+      trimToSize(limit);
+    }
+  }
+
+  @Override public void onLowMemory() {
+    clear();
+  }
+
+  @Override public void onConfigurationChanged(Configuration newConfig) {
+  }
+
+  /**
+   * Create an entry for {@code view}, halving the scale at which it is cached until its bitmap
+   * fits within the budget. Returns null if it does not fit at {@link #MIN_SCALE}.
+   */
+  private Entry createEntry(View view, int width, int height) {
+    for (float scale = this.scale; scale >= MIN_SCALE; scale /= 2) {
+      Bitmap bitmap = obtain(scaled(width, scale), scaled(height, scale), false, null);
+      if (bitmap != null) {
+        Entry entry = new Entry(view, width, height, this.scale, scale, bitmap);
+        entries.put(view, entry);
+        entryList.add(entry);
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private static int scaled(int length, float scale) {
+    return Math.max(1, (int) Math.ceil(length * scale));
+  }
+
+  /**
+   * Returns a bitmap of the requested size, reusing a pooled bitmap where possible. When
+   * {@code evictCurrent} is false, entries drawn in the current frame are not evicted to make
+   * room. The {@code requester}, if any, is never evicted. Returns null if the bitmap does not fit
+   * within the budget.
+   */
+  private Bitmap obtain(int width, int height, boolean evictCurrent, Entry requester) {
+    Bitmap bitmap = takeFromPool(width, height);
+    if (bitmap != null) {
+      return bitmap;
+    }
+
+    int bytes = width * height * BYTES_PER_PIXEL;
+    if (bytes > limit) {
+      return null;
+    }
+    while (size + bytes > limit) {
+      if (!pool.isEmpty()) {
+        recycle(pool.remove(pool.size() - 1));
+        continue;
+      }
+      int index = leastRecentlyUsed(evictCurrent, requester);
+      if (index == -1) {
+        return null;
+      }
+      if (entryList.get(index).frame >= frame - 1) {
+        thrashed = true;
+      }
+      remove(index);
+      evictionCount++;
+      bitmap = takeFromPool(width, height);
+      if (bitmap != null) {
+        return bitmap;
+      }
+    }
+
+    bitmap = Bitmap.createBitmap(width, height, ARGB_8888);
+    size += allocationBytes(bitmap);
+    return bitmap;
+  }
+
+  /** Remove and return a pooled bitmap which can hold the requested size, or null. */
+  private Bitmap takeFromPool(int width, int height) {
+    boolean reconfigure = Build.VERSION.SDK_INT >= KITKAT;
+    int bytes = width * height * BYTES_PER_PIXEL;
+    for (int i = pool.size() - 1; i >= 0; i--) {
+      Bitmap bitmap = pool.get(i);
+      if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+        return pool.remove(i);
+      }
+      if (reconfigure && bitmap.getAllocationByteCount() >= bytes) {
+        pool.remove(i);
+        bitmap.reconfigure(width, height, ARGB_8888);
+        return bitmap;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Index of the entry drawn least recently which can be evicted, other than {@code exclude}, or -1
+   * if there is none.
+   */
+  private int leastRecentlyUsed(boolean includeCurrent, Entry exclude) {
+    int index = -1;
+    long oldest = Long.MAX_VALUE;
+    for (int i = 0, count = entryList.size(); i < count; i++) {
+      Entry entry = entryList.get(i);
+      if (entry == exclude || entry.rasterizing != null
+          || (!includeCurrent && entry.frame == frame)) {
+        continue;
+      }
+      if (entry.used < oldest) {
+        oldest = entry.used;
+        index = i;
+      }
+    }
+    return index;
+  }
+
+  /** Release pooled bitmaps and then the least recently drawn entries until within budget. */
+  private void trimToSize(int maxSize) {
+    trimPool(maxSize);
+    while (size > maxSize) {
+      int index = leastRecentlyUsed(true, null);
+      if (index == -1) {
+        break;
+      }
+      remove(index);
+      evictionCount++;
+      trimPool(maxSize);
+    }
+  }
+
+  private void trimPool(int maxSize) {
+    while (size > maxSize && !pool.isEmpty()) {
+      recycle(pool.remove(pool.size() - 1));
+    }
+  }
+
+  private void recycle(Bitmap bitmap) {
+    size -= allocationBytes(bitmap);
+    bitmap.recycle();
+  }
+
+  /** Record the drawing commands of the entry's view and queue them for rasterization. */
+  private void record(Entry entry) {
+    // A pending recording which has not started rasterizing yet is replaced in place.
+    Picture picture = entry.pending;
+    if (picture == null) {
+      picture = entry.spare != null ? entry.spare : new Picture();
+      entry.spare = null;
+    }
+    content.draw(entry.view, picture.beginRecording(entry.width, entry.height));
+    picture.endRecording();
+
+    if (entry.rasterizing != null) {
+      // Only the latest recording matters. It is started when the current one completes.
+      entry.pending = picture;
+    } else {
+      rasterize(entry, picture);
+    }
+  }
+
+  private void rasterize(Entry entry, Picture picture) {
+    Canvas target;
+    if (!entry.rendered) {
+      // Nothing is shown from the front bitmap yet so it can be the target.
+      target = entry.canvas;
+    } else {
+      if (entry.backBitmap == null) {
+        // Making room must not evict the entry itself, whose bitmap is still shown.
+        Bitmap bitmap = obtain(entry.bitmap.getWidth(), entry.bitmap.getHeight(), true, entry);
+        if (bitmap == null) {
+          // No room for a second bitmap. Update the shown one on this thread instead.
+          entry.render(picture, entry.canvas);
+          entry.spare = picture;
+          return;
+        }
+        entry.backBitmap = bitmap;
+        entry.backCanvas = new Canvas(bitmap);
+      }
+      target = entry.backCanvas;
+    }
+    entry.rasterizing = picture;
+    entry.target = target;
+    rasterizer().execute(entry.rasterize);
+  }
+
+  /** Show the completed rasterization of {@code entry}. Called on the main thread. */
+  private void onRasterized(Entry entry) {
+    boolean swap = entry.target == entry.backCanvas;
+    entry.spare = entry.rasterizing;
+    entry.rasterizing = null;
+    entry.target = null;
+    if (entry.released) {
+      releaseBitmaps(entry);
+      return;
+    }
+
+    if (swap) {
+      Bitmap bitmap = entry.bitmap;
+      Canvas canvas = entry.canvas;
+      entry.bitmap = entry.backBitmap;
+      entry.canvas = entry.backCanvas;
+      entry.backBitmap = bitmap;
+      entry.backCanvas = canvas;
+    }
+    entry.rendered = true;
+
+    Picture pending = entry.pending;
+    if (pending != null) {
+      entry.pending = null;
+      rasterize(entry, pending);
+    }
+    host.invalidate();
+  }
+
+  /** Remove the entry at {@code index} by swapping the last entry into its place. */
+  private void remove(int index) {
+    Entry entry = entryList.get(index);
+    int last = entryList.size() - 1;
+    entryList.set(index, entryList.get(last));
+    entryList.remove(last);
+    entries.remove(entry.view);
+    release(entry);
+  }
+
+  private void release(Entry entry) {
+    entry.released = true;
+    entry.pending = null;
+    // A worker may still be drawing into one of the bitmaps. They are released once it completes.
+    if (entry.rasterizing == null) {
+      releaseBitmaps(entry);
+    }
+  }
+
+  /** Return the bitmaps of a released entry to the pool, keeping it within the budget. */
+  private void releaseBitmaps(Entry entry) {
+    pool.add(entry.bitmap);
+    if (entry.backBitmap != null) {
+      pool.add(entry.backBitmap);
+    }
+    entry.bitmap = null;
+    entry.backBitmap = null;
+    trimPool(limit);
+  }
+
+  private static final class RasterThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override public Thread newThread(final Runnable runnable) {
+      Thread thread = new Thread(new Runnable() {
+        @Override public void run() {
+          Process.setThreadPriority(THREAD_PRIORITY_BACKGROUND);
+          runnable.run();
+        }
+      }, "Scalpel-Raster-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package com.jakewharton.scalpel;
+
+import android.annotation.TargetApi;
+import android.graphics.Canvas;
+import android.graphics.Picture;
+import android.graphics.RenderNode;
+import android.os.Build;
+
+import static android.os.Build.VERSION_CODES.M;
+import static android.os.Build.VERSION_CODES.Q;
+
+/**
+ * Records everything drawn for each layer of the model, positioned relative to the container, so
+ * that a frame which only moves the camera draws each layer without running anything belonging to
+ * the views themselves. A layer is only recorded again once {@linkplain #invalidate(int)
+ * invalidated}.
+ * <p>
+ * On API 29 and newer each layer is a {@link RenderNode}, a display list of its own which the
+ * host's display list only references, so replaying a layer costs the same however much it draws.
+ * Older releases record a {@link Picture} instead, whose operations a hardware accelerated canvas
+ * copies into the display list of the host on each frame.
+ */
+final class LayerDisplayLists {
+  /** Hardware accelerated canvases can only draw pictures on API 23 and newer. */
+  static boolean isSupported(Canvas canvas) {
+    return Build.VERSION.SDK_INT >= M && canvas.isHardwareAccelerated();
+  }
+
+  private final boolean renderNodes = Build.VERSION.SDK_INT >= Q;
+  /** One of {@link RenderNode} or {@link Picture} per layer, depending on {@link #renderNodes}. */
+  private Object[] recordings = new Object[0];
+  private boolean[] valid = new boolean[0];
+  private int[] lefts = new int[0];
+  private int[] tops = new int[0];
+  private int recording = -1;
+
+  /** Size the storage for {@code layerCount} layers, releasing any beyond it. */
+  void setLayerCount(int layerCount) {
+    if (recordings.length < layerCount) {
+      int length = Math.max(layerCount, recordings.length * 2);
+      Object[] recordings = new Object[length];
+      System.arraycopy(this.recordings, 0, recordings, 0, this.recordings.length);
+      this.recordings = recordings;
+      boolean[] valid = new boolean[length];
+      System.arraycopy(this.valid, 0, valid, 0, this.valid.length);
+      this.valid = valid;
+      int[] lefts = new int[length];
+      System.arraycopy(this.lefts, 0, lefts, 0, this.lefts.length);
+      this.lefts = lefts;
+      int[] tops = new int[length];
+      System.arraycopy(this.tops, 0, tops, 0, this.tops.length);
+      this.tops = tops;
+    }
+    for (int layer = layerCount; layer < valid.length; layer++) {
+      release(layer);
+    }
+  }
+
+  /** Returns true when {@code layer} has a recording which is still up to date. */
+  boolean isValid(int layer) {
+    return valid[layer];
+  }
+
+  /** Mark {@code layer} to be recorded again before it is next drawn. */
+  void invalidate(int layer) {
+    valid[layer] = false;
+  }
+
+  void invalidateAll() {
+    for (int layer = 0; layer < valid.length; layer++) {
+      valid[layer] = false;
+    }
+  }
+
+  /**
+   * Start recording {@code layer}, whose contents lie within the given bounds relative to the
+   * container. Drawing to the returned canvas uses the coordinates of the container.
+   */
+  Canvas beginRecording(int layer, int left, int top, int right, int bottom) {
+    if (recording != -1) {
+      throw new IllegalStateException("Already recording layer " + recording);
+    }
+    recording = layer;
+    lefts[layer] = left;
+    tops[layer] = top;
+    int width = Math.max(1, right - left);
+    int height = Math.max(1, bottom - top);
+    Canvas canvas = renderNodes
+        ? RenderNodes.beginRecording(recordings, layer, left, top, width, height)
+        : beginPicture(layer, width, height);
+    canvas.translate(-left, -top);
+    return canvas;
+  }
+
+  private Canvas beginPicture(int layer, int width, int height) {
+    Picture picture = (Picture) recordings[layer];
+    if (picture == null) {
+      picture = new Picture();
+      recordings[layer] = picture;
+    }
+    return picture.beginRecording(width, height);
+  }
+
+  void endRecording() {
+    int layer = recording;
+    if (renderNodes) {
+      RenderNodes.endRecording(recordings[layer]);
+    } else {
+      ((Picture) recordings[layer]).endRecording();
+    }
+    valid[layer] = true;
+    recording = -1;
+  }
+
+  /** Draw the most recent recording of {@code layer} in the coordinates of the container. */
+  void draw(Canvas canvas, int layer) {
+    Object recording = recordings[layer];
+    if (recording == null) {
+      return;
+    }
+    if (renderNodes) {
+      RenderNodes.draw(canvas, recording);
+      return;
+    }
+    int left = lefts[layer];
+    int top = tops[layer];
+    canvas.translate(left, top);
+    canvas.drawPicture((Picture) recording);
+    canvas.translate(-left, -top);
+  }
+
+  /** Release every recording. */
+  void clear() {
+    for (int layer = 0; layer < recordings.length; layer++) {
+      release(layer);
+    }
+  }
+
+  private void release(int layer) {
+    Object recording = recordings[layer];
+    if (recording != null && renderNodes) {
+      RenderNodes.discard(recording);
+    }
+    recordings[layer] = null;
+    valid[layer] = false;
+  }
+
+  /**
+   * Calls which only exist on API 29 and newer, kept apart so that this class still loads on older
+   * releases.
+   */
+  @TargetApi(Q)
+  private static final class RenderNodes {
+    static Canvas beginRecording(Object[] recordings, int layer, int left, int top, int width,
+        int height) {
+      RenderNode node = (RenderNode) recordings[layer];
+      if (node == null) {
+        node = new RenderNode("ScalpelLayer");
+        recordings[layer] = node;
+      }
+      // The node is positioned within its parent so it is drawn without translating the canvas.
+      node.setPosition(left, top, left + width, top + height);
+      return node.beginRecording(width, height);
+    }
+
+    static void endRecording(Object node) {
+      ((RenderNode) node).endRecording();
+    }
+
+    static void draw(Canvas canvas, Object node) {
+      canvas.drawRenderNode((RenderNode) node);
+    }
+
+    static void discard(Object node) {
+      ((RenderNode) node).discardDisplayList();
+    }
+
+    private RenderNodes() {
+      throw new AssertionError("No instances.");
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package com.jakewharton.scalpel;
+
+import android.os.Process;
+import android.util.Log;
+import android.view.View;
+import com.jakewharton.scalpel.core.ModelStreamWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+
+/**
+ * Serves the frames encoded by {@link ModelStreamWriter} to a single client on the loopback
+ * interface, from which it is reached with {@code adb forward}. A new client replaces the previous
+ * one. Frames are sent from a background thread in the order they were encoded. A client which
+ * falls too far behind is disconnected rather than letting frames pile up, and starts over with a
+ * full frame when it reconnects.
+ */
+final class ModelServer {
+  private static final String TAG = "Scalpel";
+  private static final int MAX_PENDING_FRAMES = 8;
+
+  private final View host;
+  private final int port;
+  private final ExecutorService sender = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override public Thread newThread(final Runnable runnable) {
+      Thread thread = new Thread(new Runnable() {
+        @Override public void run() {
+          Process.setThreadPriority(THREAD_PRIORITY_BACKGROUND);
+          runnable.run();
+        }
+      }, "Scalpel-Model-Sender");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  private final AtomicInteger pending = new AtomicInteger();
+  private volatile ServerSocket serverSocket;
+  private volatile Socket client;
+  private volatile int connections;
+  private volatile boolean stopped;
+
+  ModelServer(View host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  int port() {
+    return port;
+  }
+
+  /** Start accepting clients in the background. */
+  void start() {
+    Thread acceptor = new Thread(new Runnable() {
+      @Override public void run() {
+        accept();
+      }
+    }, "Scalpel-Model-Server");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  private void accept() {
+    ServerSocket serverSocket;
+    try {
+      serverSocket = new ServerSocket(port, 1, InetAddress.getByName("127.0.0.1"));
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to serve the model on port " + port + ".", e);
+      return;
+    }
+    this.serverSocket = serverSocket;
+    if (stopped) {
+      closeQuietly(serverSocket);
+      return;
+    }
+    try {
+      while (true) {
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        Socket previous;
+        synchronized (this) {
+          previous = client;
+          client = socket;
+          connections++;
+        }
+        if (previous != null) {
+          closeQuietly(previous);
+        }
+        // The new client needs a full frame which is only encoded while drawing.
+        host.postInvalidate();
+      }
+    } catch (IOException e) {
+      if (!stopped) {
+        Log.w(TAG, "Stopped serving the model on port " + port + ".", e);
+      }
+    } finally {
+      closeQuietly(serverSocket);
+    }
+  }
+
+  /** True while a client is connected. */
+  boolean isConnected() {
+    return client != null;
+  }
+
+  /**
+   * The number of clients which have connected. A change means the stream must start over. Frames
+   * are encoded for the connection read here and passed along with it to {@link #send}.
+   */
+  int connections() {
+    return connections;
+  }
+
+  /**
+   * Queue {@code frame}, which must not be modified afterwards, for the client of
+   * {@code connection}. The frame is dropped if another client has connected since, as it was
+   * encoded against what the previous client had been sent.
+   */
+  void send(final byte[] frame, int connection) {
+    final Socket client;
+    synchronized (this) {
+      if (connection != connections) {
+        return;
+      }
+      client = this.client;
+    }
+    if (client == null) {
+      return;
+    }
+    if (pending.incrementAndGet() > MAX_PENDING_FRAMES) {
+      pending.decrementAndGet();
+      Log.w(TAG, "Model client is not keeping up. Disconnecting.");
+      disconnect(client);
+      return;
+    }
+    sender.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          if (ModelServer.this.client == client) {
+            client.getOutputStream().write(frame);
+          }
+        } catch (IOException e) {
+          disconnect(client);
+        } finally {
+          pending.decrementAndGet();
+        }
+      }
+    });
+  }
+
+  private void disconnect(Socket socket) {
+    synchronized (this) {
+      if (client == socket) {
+        client = null;
+      }
+    }
+    closeQuietly(socket);
+  }
+
+  /** Disconnect the client and stop accepting new ones. */
+  void stop() {
+    stopped = true;
+    ServerSocket serverSocket = this.serverSocket;
+    if (serverSocket != null) {
+      closeQuietly(serverSocket);
+    }
+    Socket client = this.client;
+    if (client != null) {
+      disconnect(client);
+    }
+    sender.shutdown();
+  }
+
+  private static void closeQuietly(ServerSocket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignored) {
+    }
+  }
+}
@@ -1,34 +1,70 @@
 package com.jakewharton.scalpel;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.Resources;
-import android.content.res.Resources.NotFoundException;
+import android.graphics.Bitmap;
 import android.graphics.Camera;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.VelocityTracker;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.view.ViewTreeObserver;
 import android.widget.FrameLayout;
-import java.util.ArrayDeque;
-import java.util.BitSet;
-import java.util.Deque;
-
+import com.jakewharton.scalpel.core.CoverageGrid;
+import com.jakewharton.scalpel.core.HierarchySnapshot;
+import com.jakewharton.scalpel.core.HierarchyTimeline;
+import com.jakewharton.scalpel.core.LayerIndex;
+import com.jakewharton.scalpel.core.ModelStreamWriter;
+import com.jakewharton.scalpel.core.SnapshotReader;
+import com.jakewharton.scalpel.core.SnapshotWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static android.graphics.Bitmap.Config.ARGB_8888;
+import static android.graphics.Bitmap.Config.RGB_565;
+import static android.graphics.Color.TRANSPARENT;
 import static android.graphics.Paint.ANTI_ALIAS_FLAG;
+import static android.graphics.Paint.FILTER_BITMAP_FLAG;
+import static android.graphics.Paint.Style.FILL;
 import static android.graphics.Paint.Style.STROKE;
 import static android.graphics.Typeface.NORMAL;
 import static android.os.Build.VERSION_CODES.JELLY_BEAN;
+import static android.os.Build.VERSION_CODES.O;
 import static android.view.MotionEvent.ACTION_DOWN;
 import static android.view.MotionEvent.ACTION_POINTER_UP;
+import static android.view.MotionEvent.ACTION_UP;
 import static android.view.MotionEvent.INVALID_POINTER_ID;
+import static com.jakewharton.scalpel.core.Gestures.ROTATION_DEFAULT_X;
+import static com.jakewharton.scalpel.core.Gestures.ROTATION_DEFAULT_Y;
+import static com.jakewharton.scalpel.core.Gestures.ROTATION_MAX;
+import static com.jakewharton.scalpel.core.Gestures.SPACING_DEFAULT;
+import static com.jakewharton.scalpel.core.Gestures.TRACKING_HORIZONTALLY;
+import static com.jakewharton.scalpel.core.Gestures.TRACKING_UNKNOWN;
+import static com.jakewharton.scalpel.core.Gestures.TRACKING_VERTICALLY;
+import static com.jakewharton.scalpel.core.Gestures.ZOOM_DEFAULT;
+import static com.jakewharton.scalpel.core.Gestures.clampRotation;
+import static com.jakewharton.scalpel.core.Gestures.clampSpacing;
+import static com.jakewharton.scalpel.core.Gestures.clampZoom;
+import static com.jakewharton.scalpel.core.Gestures.classifyPinch;
+import static com.jakewharton.scalpel.core.Gestures.rotationForDrag;
+import static com.jakewharton.scalpel.core.Gestures.spacingForPinch;
+import static com.jakewharton.scalpel.core.Gestures.zoomForPinch;
+import static com.jakewharton.scalpel.core.LayerProjection.layerOffsetX;
+import static com.jakewharton.scalpel.core.LayerProjection.layerOffsetY;
 
 /**
  * Renders your view hierarchy as an interactive 3D visualization of layers.
@@ -38,71 +74,145 @@ import static android.view.MotionEvent.INVALID_POINTER_ID;
  * <li>Single touch: controls the rotation of the model.</li>
  * <li>Two finger vertical pinch: Adjust zoom.</li>
  * <li>Two finger horizontal pinch: Adjust layer spacing.</li>
+ * <li>Tap: selects the top-most view under the finger.</li>
  * </ul>
  */
 public class ScalpelFrameLayout extends FrameLayout {
-  private static final int TRACKING_UNKNOWN = 0;
-  private static final int TRACKING_VERTICALLY = 1;
-  private static final int TRACKING_HORIZONTALLY = -1;
-  private static final int ROTATION_MAX = 60;
-  private static final int ROTATION_MIN = -ROTATION_MAX;
-  private static final int ROTATION_DEFAULT_X = -10;
-  private static final int ROTATION_DEFAULT_Y = 15;
-  private static final float ZOOM_DEFAULT = 0.6f;
-  private static final float ZOOM_MIN = 0.33f;
-  private static final float ZOOM_MAX = 2f;
-  private static final int SPACING_DEFAULT = 25;
-  private static final int SPACING_MIN = 10;
-  private static final int SPACING_MAX = 100;
   private static final int CHROME_COLOR = 0xFF888888;
   private static final int CHROME_SHADOW_COLOR = 0xFF000000;
+  private static final int SELECTION_COLOR = 0x6633B5E5;
+  /** Colors by paint count matching the platform's overdraw debugging overlay. */
+  private static final int[] OVERDRAW_COLORS =
+      { 0x00000000, 0x2F0000FF, 0x2F00FF00, 0x3FFF0000, 0x7FFF0000 };
+  private static final int OVERDRAW_CELL_DP = 8;
   private static final int TEXT_OFFSET_DP = 2;
   private static final int TEXT_SIZE_DP = 10;
-  private static final int CHILD_COUNT_ESTIMATION = 25;
+  private static final int GESTURE_DETAIL_THRESHOLD_DEFAULT = 150;
+  private static final long GESTURE_SETTLE_DELAY_DEFAULT = 150;
+  private static final long ANIMATION_DURATION_NANOS = 300 * 1000000L;
+  /** Timeline thumbnails are recorded at this fraction of the size of the container. */
+  private static final int THUMBNAIL_SCALE = 8;
+  /** Pixels of views which the model client has no rendering of that are streamed per frame. */
+  private static final int STREAM_PIXELS_PER_FRAME = 512 * 1024;
+  /** Exponential decay rate per second of the fling velocity. */
+  private static final float FLING_FRICTION = 4f;
+  /** Rotation velocity in degrees per second below which a fling stops. */
+  private static final float FLING_MIN_VELOCITY = 5f;
   private static final boolean DEBUG = false;
 
   private static void log(String message, Object... args) {
     Log.d("Scalpel", String.format(message, args));
   }
 
-  private static class LayeredView {
-    View view;
-    int layer;
-
-    void set(View view, int layer) {
-      this.view = view;
-      this.layer = layer;
-    }
+  /** Receives measurements of each frame drawn while layer interaction is enabled. */
+  public interface FrameStatsListener {
+    /**
+     * Called on the main thread at the end of each frame. {@code stats} is reused for every frame
+     * and must not be retained.
+     */
+    void onFrameStats(FrameStats stats);
+  }
 
-    void clear() {
-      view = null;
-      layer = -1;
-    }
+  /** Receives the view selected by tapping its layer while layer interaction is enabled. */
+  public interface OnViewSelectedListener {
+    /** Called with the tapped view or null when a tap did not land on any view. */
+    void onViewSelected(View view);
   }
 
   private final Rect viewBoundsRect = new Rect();
   private final Paint viewBorderPaint = new Paint(ANTI_ALIAS_FLAG);
+  private final Paint selectionPaint = new Paint();
+  private final Paint overdrawPaint = new Paint();
+  private final Paint costPaint = new Paint();
   private final Camera camera = new Camera();
+  /** The transform of the most recently drawn frame, kept for mapping taps back to layers. */
   private final Matrix matrix = new Matrix();
-  private final int[] location = new int[2];
-  private final BitSet visibilities = new BitSet(CHILD_COUNT_ESTIMATION);
-  private final SparseArray<String> idNames = new SparseArray<>();
-  private final Deque<LayeredView> layeredViewQueue = new ArrayDeque<>();
-  private final Pool<LayeredView> layeredViewPool = new Pool<LayeredView>(CHILD_COUNT_ESTIMATION) {
-    @Override protected LayeredView newObject() {
-      return new LayeredView();
-    }
-  };
+  private final Matrix inverseMatrix = new Matrix();
+  private final float[] tapPoint = new float[2];
+  private final LayerIndex layerIndex = new LayerIndex();
+  private final CoverageGrid overdrawGrid = new CoverageGrid();
+  private final ViewContent viewContent = new ViewContent();
+  private final LayerCache layerCache = new LayerCache(this, viewContent);
+  /** Union of the areas invalidated by descendants since views were last rendered. */
+  private final Rect dirtyRegion = new Rect();
+  private final Rect descendantBounds = new Rect();
+  private final HierarchySnapshot<View> snapshot =
+      new HierarchySnapshot<View>(ViewNodeAdapter.INSTANCE);
+  private final SnapshotInvalidator snapshotInvalidator = new SnapshotInvalidator();
+  private final WireframeRenderer wireframeRenderer = new WireframeRenderer();
+  private final Tween rotationXTween = new Tween();
+  private final Tween rotationYTween = new Tween();
+  private final Tween zoomTween = new Tween();
+  private final Tween spacingTween = new Tween();
+  private final FrameScheduler frameScheduler;
 
   private final Resources res;
+  private final IdLabels idLabels;
   private final float density;
   private final float slop;
+  private final float minFlingVelocity;
+  private final float maxFlingVelocity;
   private final float textOffset;
   private final float textSize;
+  private final int overdrawCellSize;
 
   private boolean enabled;
   private boolean drawViews = true;
   private boolean drawIds;
+  private boolean drawOverdraw;
+  /** False when the snapshot was re-captured since {@link #overdrawGrid} was computed. */
+  private boolean overdrawValid;
+  private boolean drawCosts;
+  private final CostAnnotations costs = new CostAnnotations();
+  /** False when the snapshot was re-captured since {@link #costs} were read. */
+  private boolean costsValid;
+  private long measureNanos;
+  private long layoutNanos;
+  private boolean cacheLayers;
+  private boolean displayLists;
+  private final LayerDisplayLists layerDisplayLists = new LayerDisplayLists();
+  private boolean rasterizeInBackground;
+  private int maxLayerDepth = Integer.MAX_VALUE;
+  private View subtreeRoot;
+  private View inspectedRoot;
+  /**
+   * Views of an inspected root which were dirty when its window last drew, by snapshot index.
+   * Cleared once they are rendered.
+   */
+  private boolean[] dirtyMarks = new boolean[0];
+  private int streamingPort;
+  private ModelServer modelServer;
+  private ModelStreamWriter<View> streamWriter;
+  private final ByteArrayOutputStream streamBuffer = new ByteArrayOutputStream();
+  private int streamedConnections;
+  /** Views which were dirty before this frame drew them, by snapshot index. */
+  private boolean[] streamMarks = new boolean[0];
+  private Bitmap streamBitmap;
+  private Canvas streamCanvas;
+  private int[] streamPixels;
+  private HierarchyTimeline<View> timeline;
+  /** The recorded frame of the timeline which is shown instead of the live hierarchy, or -1. */
+  private int timelineFrame = -1;
+  private final HierarchySnapshot<View> timelineSnapshot =
+      new HierarchySnapshot<View>(ViewNodeAdapter.INSTANCE);
+  private boolean timelineThumbnails;
+  private final Canvas thumbnailCanvas = new Canvas();
+  private final Rect thumbnailBounds = new Rect();
+  private final Paint thumbnailPaint = new Paint(FILTER_BITMAP_FLAG);
+  private ViewTreeObserver observedTree;
+  private boolean gestureDetailEnabled;
+  private int gestureDetailThreshold = GESTURE_DETAIL_THRESHOLD_DEFAULT;
+  private long gestureSettleDelay = GESTURE_SETTLE_DELAY_DEFAULT;
+  private boolean gesturing;
+  private FrameStatsListener frameStatsListener;
+  /** Non-null only while a listener is set so that measuring costs nothing otherwise. */
+  private FrameStats frameStats;
+  private final Runnable gestureSettled = new Runnable() {
+    @Override public void run() {
+      gesturing = false;
+      invalidate();
+    }
+  };
 
   private int pointerOne = INVALID_POINTER_ID;
   private float lastOneX;
@@ -111,6 +221,31 @@ public class ScalpelFrameLayout extends FrameLayout {
   private float lastTwoX;
   private float lastTwoY;
   private int multiTouchTracking = TRACKING_UNKNOWN;
+  private VelocityTracker velocityTracker;
+  /** True while the single pointer which went down has stayed within the touch slop. */
+  private boolean tapping;
+  private float downX;
+  private float downY;
+  // Layer offsets of the most recently drawn frame.
+  private float drawnLayerX;
+  private float drawnLayerY;
+  /** False when the snapshot was re-captured since {@link #layerIndex} was built. */
+  private boolean layerIndexValid;
+  private View selectedView;
+  /** Last known index of the selected view in the snapshot. */
+  private int selectedIndex = -1;
+  private OnViewSelectedListener onViewSelectedListener;
+
+  // Changes from touch events which have not yet been applied by a frame.
+  private float pendingRotationX;
+  private float pendingRotationY;
+  private float pendingZoom;
+  private float pendingSpacing;
+
+  // Rotation velocities in degrees per second.
+  private float flingVelocityX;
+  private float flingVelocityY;
+  private long lastFrameNanos;
 
   private float rotationY = ROTATION_DEFAULT_Y;
   private float rotationX = ROTATION_DEFAULT_X;
@@ -119,6 +254,7 @@ public class ScalpelFrameLayout extends FrameLayout {
 
   private int chromeColor;
   private int chromeShadowColor;
+  private int selectionColor;
 
   public ScalpelFrameLayout(Context context) {
     this(context, null);
@@ -131,16 +267,30 @@ public class ScalpelFrameLayout extends FrameLayout {
   public ScalpelFrameLayout(Context context, AttributeSet attrs, int defStyle) {
     super(context, attrs, defStyle);
     res = context.getResources();
+    idLabels = new IdLabels(this, res, viewBorderPaint);
     density = context.getResources().getDisplayMetrics().density;
-    slop = ViewConfiguration.get(context).getScaledTouchSlop();
+    ViewConfiguration viewConfiguration = ViewConfiguration.get(context);
+    slop = viewConfiguration.getScaledTouchSlop();
+    minFlingVelocity = viewConfiguration.getScaledMinimumFlingVelocity();
+    maxFlingVelocity = viewConfiguration.getScaledMaximumFlingVelocity();
+    frameScheduler = FrameScheduler.create(this, new FrameScheduler.Callback() {
+      @Override public void doFrame(long frameTimeNanos) {
+        onFrame(frameTimeNanos);
+      }
+    });
 
     textSize = TEXT_SIZE_DP * density;
     textOffset = TEXT_OFFSET_DP * density;
+    overdrawCellSize = Math.max(1, (int) (OVERDRAW_CELL_DP * density));
 
     setChromeColor(CHROME_COLOR);
     viewBorderPaint.setStyle(STROKE);
     viewBorderPaint.setTextSize(textSize);
     setChromeShadowColor(CHROME_SHADOW_COLOR);
+    selectionPaint.setStyle(FILL);
+    overdrawPaint.setStyle(FILL);
+    costPaint.setStyle(FILL);
+    setSelectionColor(SELECTION_COLOR);
     if (Build.VERSION.SDK_INT >= JELLY_BEAN) {
       viewBorderPaint.setTypeface(Typeface.create("sans-serif-condensed", NORMAL));
     }
@@ -151,6 +301,8 @@ public class ScalpelFrameLayout extends FrameLayout {
     if (chromeColor != color) {
       viewBorderPaint.setColor(color);
       chromeColor = color;
+      idLabels.clearLabels();
+      layerDisplayLists.invalidateAll();
       invalidate();
     }
   }
@@ -165,6 +317,8 @@ public class ScalpelFrameLayout extends FrameLayout {
     if (chromeShadowColor != color) {
       viewBorderPaint.setShadowLayer(1, -1, 1, color);
       chromeShadowColor = color;
+      idLabels.clearLabels();
+      layerDisplayLists.invalidateAll();
       invalidate();
     }
   }
@@ -174,11 +328,38 @@ public class ScalpelFrameLayout extends FrameLayout {
     return chromeShadowColor;
   }
 
+  /** Set the color with which the selected view is highlighted. */
+  public void setSelectionColor(int color) {
+    if (selectionColor != color) {
+      selectionPaint.setColor(color);
+      selectionColor = color;
+      invalidate();
+    }
+  }
+
+  /** Get the color with which the selected view is highlighted. */
+  public int getSelectionColor() {
+    return selectionColor;
+  }
+
   /** Set whether or not the 3D view layer interaction is enabled. */
   public void setLayerInteractionEnabled(boolean enabled) {
     if (this.enabled != enabled) {
       this.enabled = enabled;
-      setWillNotDraw(!enabled);
+      setWillNotDraw(!enabled && !capturesWhileDisabled());
+      if (enabled) {
+        if (getWindowToken() != null) {
+          observeTree();
+        }
+      } else {
+        if (!capturesWhileDisabled()) {
+          stopObservingTree();
+        }
+        snapshot.clear();
+        onSnapshotChanged();
+        layerCache.clear();
+        layerDisplayLists.clear();
+      }
       invalidate();
     }
   }
@@ -201,10 +382,17 @@ public class ScalpelFrameLayout extends FrameLayout {
     return drawViews;
   }
 
-  /** Set whether the view layers draw their IDs. */
+  /**
+   * Set whether the view layers draw their IDs. The ID names of the hierarchy are resolved in the
+   * background and each label is rendered once, so a label appears once its name is resolved.
+   */
   public void setDrawIds(boolean drawIds) {
     if (this.drawIds != drawIds) {
       this.drawIds = drawIds;
+      if (drawIds && snapshot.count > 0) {
+        idLabels.prewarm(snapshot);
+      }
+      layerDisplayLists.invalidateAll();
       invalidate();
     }
   }
@@ -214,6 +402,756 @@ public class ScalpelFrameLayout extends FrameLayout {
     return drawIds;
   }
 
+  /**
+   * Set whether views are tinted by how many times their pixels have been painted once they are
+   * drawn. Like the platform's overdraw overlay, blue, green, pink, and red mark pixels painted
+   * two, three, four, and five or more times. Unlike it, the tint is on the view responsible.
+   */
+  public void setDrawOverdraw(boolean drawOverdraw) {
+    if (this.drawOverdraw != drawOverdraw) {
+      this.drawOverdraw = drawOverdraw;
+      invalidate();
+    }
+  }
+
+  /** Returns true when views are tinted by their overdraw. */
+  public boolean isDrawingOverdraw() {
+    return drawOverdraw;
+  }
+
+  /**
+   * Set whether views are tinted and labeled with properties which affect their cost. Labels show
+   * the depth of the view in its window, its number of children, its layer type, and its alpha.
+   * Views with a software layer are tinted red, views whose alpha forces an offscreen buffer
+   * orange, and views with a hardware layer green. While enabled, the time to draw each view and
+   * to measure and lay out the hierarchy are also recorded for {@link #getCostReport(int)}.
+   */
+  public void setDrawCostAnnotations(boolean drawCosts) {
+    if (this.drawCosts != drawCosts) {
+      this.drawCosts = drawCosts;
+      invalidate();
+    }
+  }
+
+  /** Returns true when views are tinted and labeled with properties which affect their cost. */
+  public boolean isDrawingCostAnnotations() {
+    return drawCosts;
+  }
+
+  /**
+   * Returns the costs of at most {@code limit} views from the most recently drawn model, ranked
+   * from the most expensive. Draw, measure, and layout times are only recorded while
+   * {@linkplain #setDrawCostAnnotations(boolean) cost annotations} are drawn.
+   */
+  public CostReport getCostReport(int limit) {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit < 0: " + limit);
+    }
+    return costs().report(snapshot, limit, measureNanos, layoutNanos);
+  }
+
+  /**
+   * Returns how many times the most painted part of {@code view} had already been painted when it
+   * is drawn, or zero for no overdraw. This is estimated on a coarse grid from the bounds of the
+   * views which draw a background or content of their own. Returns -1 when {@code view} is not
+   * part of the most recently drawn model or draws nothing of its own.
+   */
+  public int getOverdraw(View view) {
+    int index = indexOf(snapshot, view);
+    if (index == -1) {
+      return -1;
+    }
+    return overdraw().level(index) - 1;
+  }
+
+  /**
+   * Write the hierarchy shown by the exploded model to {@code out} in the format read by
+   * {@link SnapshotReader}. The bounds, layer, ID, ID name, class, and visibility of every view are
+   * written. When {@code includePixels} is true, the content of each visible view is then rendered
+   * and written one view at a time so that only a single rendering is held in memory. {@code out}
+   * is closed when this returns.
+   */
+  public void exportSnapshot(OutputStream out, boolean includePixels) throws IOException {
+    updateSnapshot(null);
+    HierarchySnapshot<View> snapshot = this.snapshot;
+
+    SnapshotWriter writer = new SnapshotWriter(out);
+    try {
+      writer.writeHierarchy(snapshot, getWidth(), getHeight(), snapshotNames);
+      if (includePixels) {
+        writePixels(writer, snapshot);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Render each visible view into a single shared bitmap and write its pixels. Drawing a view
+   * clears its dirty flag, which the layer cache and streaming rely on to notice that it changed,
+   * so views which were dirty are invalidated again afterwards.
+   */
+  private void writePixels(SnapshotWriter writer, HierarchySnapshot<View> snapshot)
+      throws IOException {
+    int maxWidth = 0;
+    int maxHeight = 0;
+    for (int i = 0, count = snapshot.count; i < count; i++) {
+      if (snapshot.visible[i]) {
+        maxWidth = Math.max(maxWidth, snapshot.widths[i]);
+        maxHeight = Math.max(maxHeight, snapshot.heights[i]);
+      }
+    }
+    if (maxWidth == 0 || maxHeight == 0) {
+      return;
+    }
+
+    Bitmap bitmap = Bitmap.createBitmap(maxWidth, maxHeight, ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+    int[] pixels = new int[maxWidth * maxHeight];
+    try {
+      for (int i = 0, count = snapshot.count; i < count; i++) {
+        int width = snapshot.widths[i];
+        int height = snapshot.heights[i];
+        if (!snapshot.visible[i] || width == 0 || height == 0) {
+          continue;
+        }
+        View view = snapshot.node(i);
+        boolean dirty = view.isDirty();
+        bitmap.eraseColor(TRANSPARENT);
+        viewContent.draw(view, canvas);
+        if (dirty) {
+          view.invalidate();
+        }
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        writer.writePixels(i, width, height, pixels);
+      }
+    } finally {
+      bitmap.recycle();
+    }
+  }
+
+  /**
+   * Set whether the contents of views are cached as bitmaps between frames. When true, changing
+   * the rotation, zoom, or spacing only re-composites the cached layers. A view is only re-drawn
+   * when it is resized or invalidated, or for a group when an area it covers is invalidated, so a
+   * ticking timer only re-renders itself and the groups beneath it. This trades memory for faster
+   * interaction.
+   */
+  public void setLayerCacheEnabled(boolean cacheLayers) {
+    if (this.cacheLayers != cacheLayers) {
+      this.cacheLayers = cacheLayers;
+      if (!cacheLayers) {
+        layerCache.clear();
+      }
+      invalidate();
+    }
+  }
+
+  /** Returns true when the contents of views are cached as bitmaps between frames. */
+  public boolean isLayerCacheEnabled() {
+    return cacheLayers;
+  }
+
+  /**
+   * Set whether each layer of the model is recorded into a display list when drawing to a hardware
+   * accelerated canvas on API 23 or newer. A layer is only recorded again when one of its views
+   * needs to be re-drawn, so changing the rotation, zoom, or spacing replays the recorded
+   * operations without running any of the views' drawing code. On API 29 and newer each layer is
+   * a render node of its own which this view's display list only references. Before that the
+   * operations are copied into this view's display list on every frame, so the cost grows with how
+   * much the layers draw.
+   * Elsewhere the views are drawn through the
+   * {@linkplain #setLayerCacheEnabled(boolean) layer cache} when enabled, or directly.
+   */
+  public void setDisplayListsEnabled(boolean displayLists) {
+    if (this.displayLists != displayLists) {
+      this.displayLists = displayLists;
+      layerDisplayLists.clear();
+      invalidate();
+    }
+  }
+
+  /** Returns true when layers are recorded into display lists on supported canvases. */
+  public boolean isDisplayListsEnabled() {
+    return displayLists;
+  }
+
+  /**
+   * Set whether cached layers are rasterized on background threads. When true, the main thread
+   * only records the drawing commands of a view which needs to be re-drawn and the model shows the
+   * most recent completed rasterization of each layer, so its contents may briefly lag behind the
+   * app. Only has an effect while the {@linkplain #setLayerCacheEnabled(boolean) layer cache} is
+   * enabled.
+   */
+  public void setBackgroundRasterizationEnabled(boolean rasterizeInBackground) {
+    if (this.rasterizeInBackground != rasterizeInBackground) {
+      this.rasterizeInBackground = rasterizeInBackground;
+      layerCache.setAsync(rasterizeInBackground);
+      invalidate();
+    }
+  }
+
+  /** Returns true when cached layers are rasterized on background threads. */
+  public boolean isBackgroundRasterizationEnabled() {
+    return rasterizeInBackground;
+  }
+
+  /**
+   * Set the maximum number of bytes used by the layer cache. Defaults to one eighth of the heap.
+   * When the cached layers of a frame do not fit they are cached at a lower resolution. The cache
+   * also shrinks when the system reports memory pressure through
+   * {@link android.content.ComponentCallbacks2#onTrimMemory(int) onTrimMemory}.
+   */
+  public void setLayerCacheMaxSize(int maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes <= 0: " + maxBytes);
+    }
+    layerCache.setMaxSize(maxBytes);
+    invalidate();
+  }
+
+  /** Returns the maximum number of bytes used by the layer cache. */
+  public int getLayerCacheMaxSize() {
+    return layerCache.maxSize();
+  }
+
+  /** Returns the number of bytes currently used by the layer cache. */
+  public int getLayerCacheSize() {
+    return layerCache.size();
+  }
+
+  /** Returns the number of times a layer was drawn from an existing cache entry. */
+  public int getLayerCacheHitCount() {
+    return layerCache.hitCount();
+  }
+
+  /** Returns the number of times a layer needed a new cache entry. */
+  public int getLayerCacheMissCount() {
+    return layerCache.missCount();
+  }
+
+  /** Returns the number of cache entries released to stay within the maximum size. */
+  public int getLayerCacheEvictionCount() {
+    return layerCache.evictionCount();
+  }
+
+  /**
+   * Set the deepest layer which will be drawn. Layer zero contains the children of this view, or
+   * the subtree root when one is set. Defaults to {@link Integer#MAX_VALUE}.
+   */
+  public void setMaxLayerDepth(int maxLayerDepth) {
+    if (maxLayerDepth < 0) {
+      throw new IllegalArgumentException("maxLayerDepth < 0: " + maxLayerDepth);
+    }
+    if (this.maxLayerDepth != maxLayerDepth) {
+      this.maxLayerDepth = maxLayerDepth;
+      snapshot.invalidate();
+      invalidate();
+    }
+  }
+
+  /** Get the deepest layer which will be drawn. */
+  public int getMaxLayerDepth() {
+    return maxLayerDepth;
+  }
+
+  /**
+   * Restrict drawing to {@code root}, which must be a descendant of this view or of the
+   * {@linkplain #setInspectedRoot(View) inspected root}, and its descendants. Passing null draws
+   * everything.
+   */
+  public void setSubtreeRoot(View root) {
+    if (subtreeRoot != root) {
+      subtreeRoot = root;
+      snapshot.invalidate();
+      invalidate();
+    }
+  }
+
+  /** Get the view to which drawing is restricted or null when all children are drawn. */
+  public View getSubtreeRoot() {
+    return subtreeRoot;
+  }
+
+  /**
+   * Explode {@code root} and its descendants instead of the children of this view. The root may
+   * belong to another window, such as a dialog or popup, over which this view is shown at the same
+   * size. Its background is then drawn behind the model to hide the window beneath. Passing null
+   * returns to exploding the children of this view.
+   *
+   * @see ScalpelInspector
+   */
+  public void setInspectedRoot(View root) {
+    if (inspectedRoot != root) {
+      boolean observing = observedTree != null;
+      stopObservingTree();
+      inspectedRoot = root;
+      snapshot.clear();
+      onSnapshotChanged();
+      layerCache.clear();
+      if (observing) {
+        observeTree();
+      }
+      invalidate();
+    }
+  }
+
+  /** Get the view which is exploded instead of the children of this view, or null. */
+  public View getInspectedRoot() {
+    return inspectedRoot;
+  }
+
+  /**
+   * Set whether groups which draw nothing of their own and have the same bounds as their parent
+   * are collapsed into the layer of their children. This removes a layer for each wrapper in a
+   * chain of them, giving a shallower model which is cheaper to draw.
+   */
+  public void setLayerCompactionEnabled(boolean compact) {
+    if (snapshot.isCompact() != compact) {
+      snapshot.setCompact(compact);
+      invalidate();
+    }
+  }
+
+  /** Returns true when pass-through groups are collapsed into the layer of their children. */
+  public boolean isLayerCompactionEnabled() {
+    return snapshot.isCompact();
+  }
+
+  /**
+   * Serve the model on {@code port} of the device's loopback interface while attached, or stop
+   * serving it when 0. A desktop viewer reaches it after {@code adb forward tcp:7007 tcp:7007} for
+   * the {@linkplain ModelStreamWriter#DEFAULT_PORT default port}. The viewer is sent the whole
+   * model once, with the renderings of a large hierarchy spread over the first few frames, and then
+   * only the views which were added, removed, moved, shown, hidden, or re-drawn as the app draws.
+   * This works whether or not layer interaction is enabled and requires the {@code INTERNET}
+   * permission.
+   */
+  public void setStreamingPort(int port) {
+    if (port < 0 || port > 65535) {
+      throw new IllegalArgumentException("port < 0 || port > 65535: " + port);
+    }
+    if (streamingPort != port) {
+      stopStreaming();
+      streamingPort = port;
+      setWillNotDraw(!enabled && !capturesWhileDisabled());
+      if (getWindowToken() != null) {
+        // Streaming changes which listeners observe the tree.
+        stopObservingTree();
+        if (port != 0) {
+          startStreaming();
+        } else if (enabled || timeline != null) {
+          observeTree();
+        } else {
+          snapshot.clear();
+          onSnapshotChanged();
+        }
+      }
+    }
+  }
+
+  /** Get the port on which the model is served or 0 when it is not. */
+  public int getStreamingPort() {
+    return streamingPort;
+  }
+
+  /**
+   * Record the bounds, layer, and visibility of every view into a timeline of the most recent
+   * {@code frames} layout passes which changed the hierarchy, or stop recording and discard the
+   * timeline when 0. Views which did not change are shared with the previous frame rather than
+   * copied, so recording is cheap enough to leave running through an animation. This works
+   * whether or not layer interaction is enabled. Changing the capacity discards the recorded
+   * frames. Show a recorded frame in the model with {@link #showTimelineFrame(int)}.
+   */
+  public void setTimelineCapacity(int frames) {
+    if (frames < 0) {
+      throw new IllegalArgumentException("frames < 0: " + frames);
+    }
+    if (getTimelineCapacity() != frames) {
+      timeline = frames != 0 ? new HierarchyTimeline<View>(frames) : null;
+      showLiveHierarchy();
+      setWillNotDraw(!enabled && !capturesWhileDisabled());
+      if (getWindowToken() != null) {
+        if (frames != 0) {
+          observeTree();
+        } else if (!enabled && streamingPort == 0) {
+          stopObservingTree();
+          snapshot.clear();
+          onSnapshotChanged();
+        }
+      }
+      invalidate();
+    }
+  }
+
+  /** Get the number of frames kept by the timeline or 0 when it is not being recorded. */
+  public int getTimelineCapacity() {
+    return timeline != null ? timeline.capacity() : 0;
+  }
+
+  /**
+   * Set whether a thumbnail of the container, at an eighth of its size, is recorded along with
+   * each timeline frame and drawn beneath the outlines of a shown frame. Rendering a thumbnail
+   * draws the hierarchy again in software, which makes recording considerably more expensive.
+   */
+  public void setTimelineThumbnailsEnabled(boolean timelineThumbnails) {
+    this.timelineThumbnails = timelineThumbnails;
+  }
+
+  /** Returns true when a thumbnail is recorded along with each timeline frame. */
+  public boolean isTimelineThumbnailsEnabled() {
+    return timelineThumbnails;
+  }
+
+  /** Get the number of recorded frames in the timeline. */
+  public int getTimelineFrameCount() {
+    return timeline != null ? timeline.size() : 0;
+  }
+
+  /** Get the {@link System#nanoTime()} at which {@code frame} of the timeline was recorded. */
+  public long getTimelineFrameNanos(int frame) {
+    if (timeline == null) {
+      throw new IllegalStateException("Timeline is not being recorded.");
+    }
+    return timeline.timeNanos(frame);
+  }
+
+  /**
+   * Show {@code frame} of the timeline in the model instead of the live hierarchy, or return to
+   * the live hierarchy when -1. Frames are numbered from 0 for the oldest to
+   * {@link #getTimelineFrameCount()} - 1 for the newest. Recording is paused while a frame is
+   * shown so that the numbering does not shift. The contents of views are not recorded, so a shown
+   * frame is drawn as outlines above its thumbnail, if any, and views can be selected from it.
+   */
+  public void showTimelineFrame(int frame) {
+    if (frame == -1) {
+      showLiveHierarchy();
+      invalidate();
+      return;
+    }
+    if (frame < 0 || frame >= getTimelineFrameCount()) {
+      throw new IllegalArgumentException(
+          "frame " + frame + " not in [0, " + getTimelineFrameCount() + ")");
+    }
+    timeline.restore(frame, timelineSnapshot);
+    timelineFrame = frame;
+    layerIndexValid = false;
+    selectedIndex = -1;
+    invalidate();
+  }
+
+  /** Get the frame of the timeline which is shown in the model, or -1 for the live hierarchy. */
+  public int getShownTimelineFrame() {
+    return timelineFrame;
+  }
+
+  private void showLiveHierarchy() {
+    if (timelineFrame != -1) {
+      timelineFrame = -1;
+      timelineSnapshot.clear();
+      layerIndexValid = false;
+      selectedIndex = -1;
+    }
+  }
+
+  /** Returns true when the hierarchy is captured as the app draws even without interaction. */
+  private boolean capturesWhileDisabled() {
+    return streamingPort != 0 || timeline != null;
+  }
+
+  /**
+   * Set whether a cheaper representation of the model is drawn while a gesture is in progress.
+   * Wireframes are drawn instead of view contents, or cached contents are drawn without being
+   * refreshed when {@linkplain #setLayerCacheEnabled(boolean) caching} is enabled. IDs are not
+   * drawn. Full quality is restored once the gesture settles.
+   */
+  public void setGestureDetailEnabled(boolean gestureDetailEnabled) {
+    if (this.gestureDetailEnabled != gestureDetailEnabled) {
+      this.gestureDetailEnabled = gestureDetailEnabled;
+      invalidate();
+    }
+  }
+
+  /** Returns true when a cheaper representation of the model is drawn during gestures. */
+  public boolean isGestureDetailEnabled() {
+    return gestureDetailEnabled;
+  }
+
+  /**
+   * Set the minimum number of drawn views for which a cheaper representation is used during
+   * gestures. Smaller hierarchies are always drawn at full quality.
+   */
+  public void setGestureDetailThreshold(int viewCount) {
+    gestureDetailThreshold = viewCount;
+  }
+
+  /** Get the minimum number of drawn views for which a cheaper representation is used. */
+  public int getGestureDetailThreshold() {
+    return gestureDetailThreshold;
+  }
+
+  /** Set the time in milliseconds after a gesture ends before full quality is restored. */
+  public void setGestureSettleDelay(long millis) {
+    if (millis < 0) {
+      throw new IllegalArgumentException("millis < 0: " + millis);
+    }
+    gestureSettleDelay = millis;
+  }
+
+  /** Get the time in milliseconds after a gesture ends before full quality is restored. */
+  public long getGestureSettleDelay() {
+    return gestureSettleDelay;
+  }
+
+  /** Set the rotation of the model in degrees around the X and Y axes. */
+  public void setLayerRotation(float rotationX, float rotationY) {
+    rotationXTween.cancel();
+    rotationYTween.cancel();
+    flingVelocityX = 0;
+    flingVelocityY = 0;
+    this.rotationX = clampRotation(rotationX);
+    this.rotationY = clampRotation(rotationY);
+    invalidate();
+  }
+
+  /** Animate the rotation of the model in degrees around the X and Y axes. */
+  public void animateLayerRotation(float rotationX, float rotationY) {
+    flingVelocityX = 0;
+    flingVelocityY = 0;
+    long now = System.nanoTime();
+    rotationXTween.start(this.rotationX, clampRotation(rotationX), now, ANIMATION_DURATION_NANOS);
+    rotationYTween.start(this.rotationY, clampRotation(rotationY), now, ANIMATION_DURATION_NANOS);
+    frameScheduler.schedule();
+  }
+
+  /** Get the rotation of the model in degrees around the X axis. */
+  public float getLayerRotationX() {
+    return rotationX;
+  }
+
+  /** Get the rotation of the model in degrees around the Y axis. */
+  public float getLayerRotationY() {
+    return rotationY;
+  }
+
+  /** Set the zoom of the model. */
+  public void setZoom(float zoom) {
+    zoomTween.cancel();
+    this.zoom = clampZoom(zoom);
+    invalidate();
+  }
+
+  /** Animate the zoom of the model. */
+  public void animateZoom(float zoom) {
+    zoomTween.start(this.zoom, clampZoom(zoom), System.nanoTime(), ANIMATION_DURATION_NANOS);
+    frameScheduler.schedule();
+  }
+
+  /** Get the zoom of the model. */
+  public float getZoom() {
+    return zoom;
+  }
+
+  /** Set the spacing between layers in dips. */
+  public void setLayerSpacing(float spacing) {
+    spacingTween.cancel();
+    this.spacing = clampSpacing(spacing);
+    invalidate();
+  }
+
+  /** Animate the spacing between layers in dips. */
+  public void animateLayerSpacing(float spacing) {
+    spacingTween.start(this.spacing, clampSpacing(spacing), System.nanoTime(),
+        ANIMATION_DURATION_NANOS);
+    frameScheduler.schedule();
+  }
+
+  /** Get the spacing between layers in dips. */
+  public float getLayerSpacing() {
+    return spacing;
+  }
+
+  /** Set a listener to receive measurements of each frame or null to stop measuring. */
+  public void setFrameStatsListener(FrameStatsListener listener) {
+    frameStatsListener = listener;
+    if (listener == null) {
+      frameStats = null;
+    } else if (frameStats == null) {
+      frameStats = new FrameStats();
+    }
+  }
+
+  /**
+   * Set a listener to be notified when a view is selected by tapping its layer. Selecting a view
+   * with {@link #setSelectedView(View)} does not notify the listener.
+   */
+  public void setOnViewSelectedListener(OnViewSelectedListener listener) {
+    onViewSelectedListener = listener;
+  }
+
+  /** Highlight {@code view} in the model, or clear the highlight when null. */
+  public void setSelectedView(View view) {
+    if (selectedView != view) {
+      selectedView = view;
+      selectedIndex = -1;
+      invalidate();
+    }
+  }
+
+  /** Returns the view highlighted in the model or null. */
+  public View getSelectedView() {
+    return selectedView;
+  }
+
+  @Override protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+    if (!drawCosts) {
+      super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+      return;
+    }
+    long start = System.nanoTime();
+    super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+    measureNanos = System.nanoTime() - start;
+  }
+
+  @Override protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+    if (!drawCosts) {
+      super.onLayout(changed, left, top, right, bottom);
+      return;
+    }
+    long start = System.nanoTime();
+    super.onLayout(changed, left, top, right, bottom);
+    layoutNanos = System.nanoTime() - start;
+  }
+
+  @Override protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    getContext().getApplicationContext().registerComponentCallbacks(layerCache);
+    if (enabled || timeline != null) {
+      observeTree();
+    }
+    if (streamingPort != 0) {
+      startStreaming();
+    }
+  }
+
+  @Override protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    getContext().getApplicationContext().unregisterComponentCallbacks(layerCache);
+    removeCallbacks(gestureSettled);
+    gesturing = false;
+    frameScheduler.cancel();
+    stopFling();
+    stopStreaming();
+    stopObservingTree();
+    snapshot.clear();
+    onSnapshotChanged();
+    layerCache.clear();
+    layerDisplayLists.clear();
+    idLabels.clear();
+    showLiveHierarchy();
+    if (timeline != null) {
+      timeline.clear();
+    }
+  }
+
+  /**
+   * Capture the children of this view, or the inspected root and its descendants. Returns false
+   * when nothing changed since the previous capture.
+   */
+  private boolean captureSnapshot() {
+    View inspectedRoot = this.inspectedRoot;
+    if (inspectedRoot == null) {
+      return snapshot.capture(this, subtreeRoot, maxLayerDepth);
+    }
+    // The inspected root draws the window background so it is captured along with its children.
+    View root = subtreeRoot != null ? subtreeRoot : inspectedRoot;
+    return snapshot.capture(inspectedRoot, root, maxLayerDepth);
+  }
+
+  /** Discard everything derived from the previous capture of the snapshot. */
+  private void onSnapshotChanged() {
+    if (inspectedRoot != null) {
+      // Indices no longer identify the same views so everything is rendered again.
+      if (dirtyMarks.length < snapshot.count) {
+        dirtyMarks = new boolean[snapshot.count];
+      }
+      Arrays.fill(dirtyMarks, true);
+    }
+    if (drawIds && snapshot.count > 0) {
+      idLabels.prewarm(snapshot);
+    }
+    layerDisplayLists.invalidateAll();
+    layerIndex.clear();
+    layerIndexValid = false;
+    overdrawValid = false;
+    costsValid = false;
+    costs.clear();
+  }
+
+  /**
+   * Keep the hierarchy snapshot up to date with layout and scroll changes in the window. For an
+   * inspected root in another window, and while streaming, this view is also redrawn whenever one
+   * of the captured views is about to be.
+   */
+  private void observeTree() {
+    if (observedTree == null) {
+      View root = inspectedRoot != null ? inspectedRoot : this;
+      observedTree = root.getViewTreeObserver();
+      observedTree.addOnGlobalLayoutListener(snapshotInvalidator);
+      observedTree.addOnScrollChangedListener(snapshotInvalidator);
+      if (inspectedRoot != null || streamingPort != 0) {
+        observedTree.addOnPreDrawListener(snapshotInvalidator);
+      }
+    }
+    snapshot.invalidate();
+  }
+
+  @SuppressWarnings("deprecation") // removeOnGlobalLayoutListener requires API 16.
+  private void stopObservingTree() {
+    if (observedTree != null) {
+      if (observedTree.isAlive()) {
+        observedTree.removeGlobalOnLayoutListener(snapshotInvalidator);
+        observedTree.removeOnScrollChangedListener(snapshotInvalidator);
+        observedTree.removeOnPreDrawListener(snapshotInvalidator);
+      }
+      observedTree = null;
+    }
+  }
+
+  @Override public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+    ViewParent parent = super.invalidateChildInParent(location, dirty);
+    if (enabled || streamingPort != 0) {
+      if (parent != null) {
+        // The area has been mapped into the coordinates of this view.
+        dirtyRegion.union(dirty);
+      } else {
+        dirtyRegion.set(0, 0, getWidth(), getHeight());
+      }
+    }
+    return parent;
+  }
+
+  /**
+   * Hardware accelerated invalidations reach this view here instead of through
+   * {@link #invalidateChildInParent} on API 26 and newer. Only the invalidated {@code target} is
+   * dirty, so its bounds are recorded like any other invalidated area. The platform still passes
+   * the invalidation up as usual. The model draws the contents of descendants itself, so this
+   * view is also invalidated while it is shown.
+   */
+  @TargetApi(O)
+  @Override public void onDescendantInvalidated(View child, View target) {
+    super.onDescendantInvalidated(child, target);
+    if (enabled || streamingPort != 0) {
+      Rect bounds = descendantBounds;
+      bounds.set(0, 0, target.getWidth(), target.getHeight());
+      offsetDescendantRectToMyCoords(target, bounds);
+      dirtyRegion.union(bounds);
+    }
+    if (enabled) {
+      invalidate();
+    }
+  }
+
   @Override public boolean onInterceptTouchEvent(MotionEvent ev) {
     return enabled || super.onInterceptTouchEvent(ev);
   }
@@ -223,11 +1161,24 @@ public class ScalpelFrameLayout extends FrameLayout {
       return super.onTouchEvent(event);
     }
 
+    if (velocityTracker == null) {
+      velocityTracker = VelocityTracker.obtain();
+    }
+    // Historical samples are included so the release velocity reflects the full motion.
+    velocityTracker.addMovement(event);
+
     int action = event.getActionMasked();
     switch (action) {
       case MotionEvent.ACTION_DOWN:
       case MotionEvent.ACTION_POINTER_DOWN: {
+        removeCallbacks(gestureSettled);
+        stopFling();
         int index = (action == ACTION_DOWN) ? 0 : event.getActionIndex();
+        tapping = action == ACTION_DOWN;
+        if (tapping) {
+          downX = event.getX();
+          downY = event.getY();
+        }
         if (pointerOne == INVALID_POINTER_ID) {
           pointerOne = event.getPointerId(index);
           lastOneX = event.getX(index);
@@ -251,13 +1202,16 @@ public class ScalpelFrameLayout extends FrameLayout {
             if (pointerOne == event.getPointerId(i)) {
               float eventX = event.getX(i);
               float eventY = event.getY(i);
+              if (tapping && Math.hypot(eventX - downX, eventY - downY) > slop) {
+                tapping = false;
+              }
               float dx = eventX - lastOneX;
               float dy = eventY - lastOneY;
-              float drx = 90 * (dx / getWidth());
-              float dry = 90 * (-dy / getHeight()); // Invert Y-axis.
+              float drx = rotationForDrag(dx, getWidth());
+              float dry = rotationForDrag(-dy, getHeight()); // Invert Y-axis.
               // An 'x' delta affects 'y' rotation and vise versa.
-              rotationY = Math.min(Math.max(rotationY + drx, ROTATION_MIN), ROTATION_MAX);
-              rotationX = Math.min(Math.max(rotationX + dry, ROTATION_MIN), ROTATION_MAX);
+              pendingRotationY += drx;
+              pendingRotationX += dry;
               if (DEBUG) {
                 log("Single pointer moved (%s, %s) affecting rotation (%s, %s).", dx, dy, drx, dry);
               }
@@ -265,7 +1219,7 @@ public class ScalpelFrameLayout extends FrameLayout {
               lastOneX = eventX;
               lastOneY = eventY;
 
-              invalidate();
+              onGestureChanged();
             }
           }
         } else {
@@ -284,38 +1238,15 @@ public class ScalpelFrameLayout extends FrameLayout {
           float dyTwo = yTwo - lastTwoY;
 
           if (multiTouchTracking == TRACKING_UNKNOWN) {
-            float adx = Math.abs(dxOne) + Math.abs(dxTwo);
-            float ady = Math.abs(dyOne) + Math.abs(dyTwo);
-
-            if (adx > slop * 2 || ady > slop * 2) {
-              if (adx > ady) {
-                // Left/right movement wins. Track horizontal.
-                multiTouchTracking = TRACKING_HORIZONTALLY;
-              } else {
-                // Up/down movement wins. Track vertical.
-                multiTouchTracking = TRACKING_VERTICALLY;
-              }
-            }
+            multiTouchTracking = classifyPinch(dxOne, dyOne, dxTwo, dyTwo, slop);
           }
 
           if (multiTouchTracking == TRACKING_VERTICALLY) {
-            if (yOne >= yTwo) {
-              zoom += dyOne / getHeight() - dyTwo / getHeight();
-            } else {
-              zoom += dyTwo / getHeight() - dyOne / getHeight();
-            }
-
-            zoom = Math.min(Math.max(zoom, ZOOM_MIN), ZOOM_MAX);
-            invalidate();
+            pendingZoom += zoomForPinch(yOne, dyOne, yTwo, dyTwo, getHeight());
+            onGestureChanged();
           } else if (multiTouchTracking == TRACKING_HORIZONTALLY) {
-            if (xOne >= xTwo) {
-              spacing += (dxOne / getWidth() * SPACING_MAX) - (dxTwo / getWidth() * SPACING_MAX);
-            } else {
-              spacing += (dxTwo / getWidth() * SPACING_MAX) - (dxOne / getWidth() * SPACING_MAX);
-            }
-
-            spacing = Math.min(Math.max(spacing, SPACING_MIN), SPACING_MAX);
-            invalidate();
+            pendingSpacing += spacingForPinch(xOne, dxOne, xTwo, dxTwo, getWidth());
+            onGestureChanged();
           }
 
           if (multiTouchTracking != TRACKING_UNKNOWN) {
@@ -333,6 +1264,12 @@ public class ScalpelFrameLayout extends FrameLayout {
       case MotionEvent.ACTION_POINTER_UP: {
         int index = (action != ACTION_POINTER_UP) ? 0 : event.getActionIndex();
         int pointerId = event.getPointerId(index);
+        if (action == ACTION_UP && tapping) {
+          selectAt(event.getX(), event.getY());
+        } else if (action == ACTION_UP && pointerTwo == INVALID_POINTER_ID && gesturing) {
+          startFling(pointerId);
+        }
+        tapping = false;
         if (pointerOne == pointerId) {
           // Shift pointer two (real or invalid) up to pointer one.
           pointerOne = pointerTwo;
@@ -347,6 +1284,13 @@ public class ScalpelFrameLayout extends FrameLayout {
           pointerTwo = INVALID_POINTER_ID;
           multiTouchTracking = TRACKING_UNKNOWN;
         }
+        if (action != ACTION_POINTER_UP) {
+          velocityTracker.recycle();
+          velocityTracker = null;
+          if (gesturing && !isFlinging()) {
+            postDelayed(gestureSettled, gestureSettleDelay);
+          }
+        }
         break;
       }
     }
@@ -354,15 +1298,137 @@ public class ScalpelFrameLayout extends FrameLayout {
     return true;
   }
 
+  /** Schedule a frame to apply changes made to the model by a gesture. */
+  private void onGestureChanged() {
+    gesturing = true;
+    rotationXTween.cancel();
+    rotationYTween.cancel();
+    zoomTween.cancel();
+    spacingTween.cancel();
+    frameScheduler.schedule();
+  }
+
+  /** Start rotating the model with the velocity of {@code pointerId} as it is released. */
+  private void startFling(int pointerId) {
+    velocityTracker.computeCurrentVelocity(1000, maxFlingVelocity);
+    float vx = velocityTracker.getXVelocity(pointerId);
+    float vy = velocityTracker.getYVelocity(pointerId);
+    if (Math.abs(vx) < minFlingVelocity && Math.abs(vy) < minFlingVelocity) {
+      return;
+    }
+    // Map pixels per second to degrees per second the same way as single pointer movement.
+    flingVelocityY = rotationForDrag(vx, getWidth());
+    flingVelocityX = rotationForDrag(-vy, getHeight());
+    lastFrameNanos = 0;
+    frameScheduler.schedule();
+  }
+
+  private void stopFling() {
+    flingVelocityX = 0;
+    flingVelocityY = 0;
+  }
+
+  private boolean isFlinging() {
+    return flingVelocityX != 0 || flingVelocityY != 0;
+  }
+
+  /** Apply pending touch changes, fling, and animations to the model once per frame. */
+  private void onFrame(long frameTimeNanos) {
+    rotationX = clampRotation(rotationX + pendingRotationX);
+    rotationY = clampRotation(rotationY + pendingRotationY);
+    zoom = clampZoom(zoom + pendingZoom);
+    spacing = clampSpacing(spacing + pendingSpacing);
+    pendingRotationX = 0;
+    pendingRotationY = 0;
+    pendingZoom = 0;
+    pendingSpacing = 0;
+
+    if (isFlinging()) {
+      if (lastFrameNanos != 0) {
+        float seconds = (frameTimeNanos - lastFrameNanos) / 1e9f;
+        float decay = (float) Math.exp(-FLING_FRICTION * seconds);
+        rotationX = clampRotation(rotationX + flingVelocityX * seconds);
+        rotationY = clampRotation(rotationY + flingVelocityY * seconds);
+        flingVelocityX *= decay;
+        flingVelocityY *= decay;
+        // Stop an axis once it slows down enough or hits its limit.
+        if (Math.abs(flingVelocityX) < FLING_MIN_VELOCITY || Math.abs(rotationX) == ROTATION_MAX) {
+          flingVelocityX = 0;
+        }
+        if (Math.abs(flingVelocityY) < FLING_MIN_VELOCITY || Math.abs(rotationY) == ROTATION_MAX) {
+          flingVelocityY = 0;
+        }
+      }
+      lastFrameNanos = frameTimeNanos;
+      if (!isFlinging() && gesturing && pointerOne == INVALID_POINTER_ID) {
+        postDelayed(gestureSettled, gestureSettleDelay);
+      }
+    }
+
+    if (rotationXTween.isRunning()) {
+      rotationX = rotationXTween.valueAt(frameTimeNanos);
+    }
+    if (rotationYTween.isRunning()) {
+      rotationY = rotationYTween.valueAt(frameTimeNanos);
+    }
+    if (zoomTween.isRunning()) {
+      zoom = zoomTween.valueAt(frameTimeNanos);
+    }
+    if (spacingTween.isRunning()) {
+      spacing = spacingTween.valueAt(frameTimeNanos);
+    }
+
+    invalidate();
+
+    if (isFlinging()
+        || rotationXTween.isRunning()
+        || rotationYTween.isRunning()
+        || zoomTween.isRunning()
+        || spacingTween.isRunning()) {
+      frameScheduler.schedule();
+    }
+  }
+
   @Override public void draw(@SuppressWarnings("NullableProblems") Canvas canvas) {
+    ModelServer modelServer = this.modelServer;
+    boolean streaming = modelServer != null && modelServer.isConnected();
+    boolean recording = timeline != null && timelineFrame == -1;
     if (!enabled) {
+      boolean changed = false;
+      if (streaming || recording) {
+        changed = updateSnapshot(null);
+      }
+      if (streaming) {
+        markStreamDirty();
+      }
       super.draw(canvas);
+      if (streaming) {
+        streamFrame(modelServer);
+      }
+      if (recording && (changed || timeline.size() == 0)) {
+        recordTimelineFrame();
+      }
+      dirtyRegion.setEmpty();
       return;
     }
 
-    getLocationInWindow(location);
-    float x = location[0];
-    float y = location[1];
+    FrameStats stats = frameStats;
+    if (stats != null) {
+      stats.reset();
+    }
+
+    boolean changed = updateSnapshot(stats);
+    if (streaming) {
+      markStreamDirty();
+    }
+
+    if (inspectedRoot != null) {
+      Drawable background = getBackground();
+      if (background != null) {
+        background.setBounds(0, 0, getWidth(), getHeight());
+        background.draw(canvas);
+      }
+    }
 
     int saveCount = canvas.save();
 
@@ -376,121 +1442,707 @@ public class ScalpelFrameLayout extends FrameLayout {
 
     matrix.preTranslate(-cx, -cy);
     matrix.postTranslate(cx, cy);
+    matrix.preScale(zoom, zoom, cx, cy);
     canvas.concat(matrix);
-    canvas.scale(zoom, zoom, cx, cy);
-
-    if (!layeredViewQueue.isEmpty()) {
-      throw new AssertionError("View queue is not empty.");
-    }
-
-    // We don't want to be rendered so seed the queue with our children.
-    for (int i = 0, count = getChildCount(); i < count; i++) {
-      LayeredView layeredView = layeredViewPool.obtain();
-      layeredView.set(getChildAt(i), 0);
-      layeredViewQueue.add(layeredView);
-    }
-
-    while (!layeredViewQueue.isEmpty()) {
-      LayeredView layeredView = layeredViewQueue.removeFirst();
-      View view = layeredView.view;
-      int layer = layeredView.layer;
-
-      // Restore the object to the pool for use later.
-      layeredView.clear();
-      layeredViewPool.restore(layeredView);
-
-      // Hide any visible children.
-      if (view instanceof ViewGroup) {
-        ViewGroup viewGroup = (ViewGroup) view;
-        visibilities.clear();
-        for (int i = 0, count = viewGroup.getChildCount(); i < count; i++) {
-          View child = viewGroup.getChildAt(i);
-          //noinspection ConstantConditions
-          if (child.getVisibility() == VISIBLE) {
-            visibilities.set(i);
-            child.setVisibility(INVISIBLE);
+
+    // Scale the layer index translation by the rotation amount.
+    float layerX = layerOffsetX(rotationY, spacing, density);
+    float layerY = layerOffsetY(rotationX, spacing, density);
+    drawnLayerX = layerX;
+    drawnLayerY = layerY;
+
+    HierarchySnapshot<View> snapshot = this.snapshot;
+    boolean simplify =
+        gesturing && gestureDetailEnabled && snapshot.count >= gestureDetailThreshold;
+    boolean recorded = displayLists && LayerDisplayLists.isSupported(canvas);
+    if (timelineFrame != -1) {
+      snapshot = timelineSnapshot;
+      drawTimelineFrame(canvas, snapshot, layerX, layerY, !simplify, stats);
+    } else if (drawViews && recorded) {
+      drawLayerDisplayLists(canvas, snapshot, layerX, layerY, !simplify, stats);
+    } else if (drawViews && (!simplify || cacheLayers)) {
+      drawLayers(canvas, snapshot, layerX, layerY, !simplify, stats);
+    } else {
+      long start = stats != null ? System.nanoTime() : 0;
+      wireframeRenderer.draw(canvas, snapshot, layerX, layerY, viewBorderPaint);
+      if (drawIds && !simplify) {
+        drawIds(canvas, snapshot, layerX, layerY);
+      }
+      if (stats != null) {
+        stats.chromeNanos = System.nanoTime() - start;
+        for (int i = 0, count = snapshot.count; i < count; i++) {
+          if (snapshot.visible[i]) {
+            stats.viewsTraversed++;
+            stats.maxDepth = Math.max(stats.maxDepth, snapshot.layers[i]);
           }
         }
       }
+    }
+
+    // Overdraw and costs are read from the live views so they do not apply to a recorded frame.
+    if (drawOverdraw && timelineFrame == -1) {
+      drawOverdraw(canvas, snapshot, layerX, layerY);
+    }
+    if (drawCosts && timelineFrame == -1) {
+      drawCostAnnotations(canvas, snapshot, layerX, layerY);
+    }
+    if (selectedView != null) {
+      drawSelection(canvas, snapshot, layerX, layerY);
+    }
+
+    canvas.restoreToCount(saveCount);
 
-      int viewSaveCount = canvas.save();
+    if (streaming) {
+      streamFrame(modelServer);
+    }
+    if (recording && (changed || timeline.size() == 0)) {
+      long start = stats != null ? System.nanoTime() : 0;
+      recordTimelineFrame();
+      if (stats != null) {
+        stats.timelineNanos = System.nanoTime() - start;
+      }
+    }
 
-      // Scale the layer index translation by the rotation amount.
-      float translateShowX = rotationY / ROTATION_MAX;
-      float translateShowY = rotationX / ROTATION_MAX;
-      float tx = layer * spacing * density * translateShowX;
-      float ty = layer * spacing * density * translateShowY;
-      canvas.translate(tx, -ty);
+    if (stats != null) {
+      frameStatsListener.onFrameStats(stats);
+    }
+  }
 
-      view.getLocationInWindow(location);
-      canvas.translate(location[0] - x, location[1] - y);
+  /**
+   * Re-capture the snapshot if it is stale, recording the capture in {@code stats} if not null.
+   * Returns true when the capture changed.
+   */
+  private boolean updateSnapshot(FrameStats stats) {
+    if (snapshot.isStale()) {
+      boolean changed;
+      if (stats != null) {
+        int growths = snapshot.growths();
+        long start = System.nanoTime();
+        changed = captureSnapshot();
+        stats.captureNanos = System.nanoTime() - start;
+        stats.captureGrowths = snapshot.growths() - growths;
+        stats.captured = true;
+        stats.hierarchyChanged = changed;
+      } else {
+        changed = captureSnapshot();
+      }
+      // A layout pass which moved nothing keeps everything derived from the capture.
+      if (changed) {
+        onSnapshotChanged();
+      }
+      return changed;
+    }
+    return false;
+  }
 
-      viewBoundsRect.set(0, 0, view.getWidth(), view.getHeight());
-      canvas.drawRect(viewBoundsRect, viewBorderPaint);
+  /**
+   * Record the snapshot as the newest frame of the timeline. Called after drawing since rendering
+   * a thumbnail would otherwise clear the dirty flags of the views before they are drawn.
+   */
+  private void recordTimelineFrame() {
+    HierarchyTimeline<View> timeline = this.timeline;
+    Bitmap thumbnail = null;
+    int width = getWidth() / THUMBNAIL_SCALE;
+    int height = getHeight() / THUMBNAIL_SCALE;
+    if (timelineThumbnails && width > 0 && height > 0) {
+      // Reuse the thumbnail of the frame which is about to be replaced when it is the same size.
+      thumbnail = (Bitmap) timeline.nextReplaced();
+      if (thumbnail == null || thumbnail.getWidth() != width || thumbnail.getHeight() != height) {
+        thumbnail = Bitmap.createBitmap(width, height, RGB_565);
+      }
+      thumbnail.eraseColor(TRANSPARENT);
+      Canvas canvas = thumbnailCanvas;
+      canvas.setBitmap(thumbnail);
+      int saveCount = canvas.save();
+      canvas.scale(1f / THUMBNAIL_SCALE, 1f / THUMBNAIL_SCALE);
+      if (inspectedRoot != null) {
+        inspectedRoot.draw(canvas);
+      } else {
+        super.draw(canvas);
+      }
+      canvas.restoreToCount(saveCount);
+      canvas.setBitmap(null);
+    }
+    timeline.record(snapshot, System.nanoTime(), thumbnail);
+  }
+
+  /** Draw the outlines and IDs of a recorded frame of the timeline above its thumbnail, if any. */
+  private void drawTimelineFrame(Canvas canvas, HierarchySnapshot<View> snapshot, float layerX,
+      float layerY, boolean fullQuality, FrameStats stats) {
+    long start = stats != null ? System.nanoTime() : 0;
+    Bitmap thumbnail = (Bitmap) timeline.attachment(timelineFrame);
+    if (thumbnail != null) {
+      thumbnailBounds.set(0, 0, getWidth(), getHeight());
+      canvas.drawBitmap(thumbnail, null, thumbnailBounds, thumbnailPaint);
+    }
+    wireframeRenderer.draw(canvas, snapshot, layerX, layerY, viewBorderPaint);
+    if (drawIds && fullQuality) {
+      drawIds(canvas, snapshot, layerX, layerY);
+    }
+    if (stats != null) {
+      stats.chromeNanos = System.nanoTime() - start;
+    }
+  }
+
+  /** Highlight the selected view if it is part of {@code snapshot}. */
+  private void drawSelection(Canvas canvas, HierarchySnapshot<View> snapshot, float layerX,
+      float layerY) {
+    int index = selectedIndex;
+    if (index >= snapshot.count || index == -1 || snapshot.node(index) != selectedView) {
+      index = indexOf(snapshot, selectedView);
+      selectedIndex = index;
+    }
+    if (index == -1 || !snapshot.visible[index]) {
+      return;
+    }
+
+    int layer = snapshot.layers[index];
+    float left = snapshot.lefts[index] - snapshot.originX + layer * layerX;
+    float top = snapshot.tops[index] - snapshot.originY - layer * layerY;
+    canvas.drawRect(left, top, left + snapshot.widths[index], top + snapshot.heights[index],
+        selectionPaint);
+  }
 
-      if (drawViews) {
-        view.draw(canvas);
+  /** Tint each view which overdraws by the number of times its pixels have been painted. */
+  private void drawOverdraw(Canvas canvas, HierarchySnapshot<View> snapshot, float layerX,
+      float layerY) {
+    CoverageGrid grid = overdraw();
+    int x = snapshot.originX;
+    int y = snapshot.originY;
+    int[] order = snapshot.layerOrder;
+    for (int o = 0, count = snapshot.count; o < count; o++) {
+      int i = order[o];
+      int level = grid.level(i);
+      if (level < 2) {
+        continue;
       }
+      int layer = snapshot.layers[i];
+      float left = snapshot.lefts[i] - x + layer * layerX;
+      float top = snapshot.tops[i] - y - layer * layerY;
+      overdrawPaint.setColor(OVERDRAW_COLORS[Math.min(level, OVERDRAW_COLORS.length) - 1]);
+      canvas.drawRect(left, top, left + snapshot.widths[i], top + snapshot.heights[i],
+          overdrawPaint);
+    }
+  }
+
+  /** Tint views by their cost properties and label them below their ID. */
+  private void drawCostAnnotations(Canvas canvas, HierarchySnapshot<View> snapshot,
+      float layerX, float layerY) {
+    CostAnnotations costs = costs();
+    int x = snapshot.originX;
+    int y = snapshot.originY;
+    int[] order = snapshot.layerOrder;
+    for (int o = 0, count = snapshot.count; o < count; o++) {
+      int i = order[o];
+      if (!snapshot.visible[i]) {
+        continue;
+      }
+      int layer = snapshot.layers[i];
+      float left = snapshot.lefts[i] - x + layer * layerX;
+      float top = snapshot.tops[i] - y - layer * layerY;
+      int tint = costs.tint(i);
+      if (tint != 0) {
+        costPaint.setColor(tint);
+        canvas.drawRect(left, top, left + snapshot.widths[i], top + snapshot.heights[i],
+            costPaint);
+      }
+      canvas.drawText(costs.label(i), left + textOffset, top + 2 * textSize, viewBorderPaint);
+    }
+  }
+
+  /** Returns the cost properties of the current snapshot, reading them if needed. */
+  private CostAnnotations costs() {
+    if (!costsValid) {
+      costs.update(snapshot);
+      costsValid = true;
+    }
+    return costs;
+  }
+
+  /** Returns the overdraw of the current snapshot, computing it if needed. */
+  private CoverageGrid overdraw() {
+    if (!overdrawValid) {
+      overdrawGrid.compute(snapshot, getWidth(), getHeight(), overdrawCellSize);
+      overdrawValid = true;
+    }
+    return overdrawGrid;
+  }
 
+  /** Returns the index of {@code view} in {@code snapshot} or -1. */
+  private int indexOf(HierarchySnapshot<View> snapshot, View view) {
+    for (int i = 0, count = snapshot.count; i < count; i++) {
+      if (snapshot.node(i) == view) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Select the top-most view under a tap at ({@code x}, {@code y}) and notify the listener. */
+  private void selectAt(float x, float y) {
+    if (!matrix.invert(inverseMatrix)) {
+      return;
+    }
+    HierarchySnapshot<View> snapshot = timelineFrame != -1 ? timelineSnapshot : this.snapshot;
+    if (!layerIndexValid) {
+      layerIndex.build(snapshot);
+      layerIndexValid = true;
+    }
+
+    // Undo the camera and zoom. The layer offsets are undone by the index for each layer.
+    tapPoint[0] = x;
+    tapPoint[1] = y;
+    inverseMatrix.mapPoints(tapPoint);
+    int index = layerIndex.find(tapPoint[0], tapPoint[1], drawnLayerX, drawnLayerY);
+    View view = index != -1 ? snapshot.node(index) : null;
+    if (DEBUG) log("Tap at (%s, %s) selected %s.", x, y, view);
+
+    setSelectedView(view);
+    selectedIndex = index;
+    if (onViewSelectedListener != null) {
+      onViewSelectedListener.onViewSelected(view);
+    }
+  }
+
+  /**
+   * Draw the content, outline, and ID of each view in {@code snapshot} layer by layer. The offset
+   * of each layer is applied once and its views are only translated by their own position. When
+   * {@code fullQuality} is false, IDs are not drawn and cached contents are not refreshed.
+   */
+  private void drawLayers(Canvas canvas, HierarchySnapshot<View> snapshot, float layerX,
+      float layerY, boolean fullQuality, FrameStats stats) {
+    boolean cacheLayers = this.cacheLayers;
+    if (cacheLayers) {
+      layerCache.beginFrame();
+    }
+    boolean drawCosts = this.drawCosts;
+    if (drawCosts) {
+      costs();
+    }
+    boolean timing = stats != null || drawCosts;
+
+    int x = snapshot.originX;
+    int y = snapshot.originY;
+    int[] order = snapshot.layerOrder;
+    int[] starts = snapshot.layerStarts;
+    for (int layer = 0, layerCount = snapshot.layerCount; layer < layerCount; layer++) {
+      int start = starts[layer];
+      int end = starts[layer + 1];
+      if (start == end) {
+        continue;
+      }
+
+      int layerSaveCount = canvas.save();
+      canvas.translate(layer * layerX, -layer * layerY);
+
+      for (int o = start; o < end; o++) {
+        int i = order[o];
+        if (!snapshot.visible[i]) {
+          continue;
+        }
+        View view = snapshot.node(i);
+        float dx = snapshot.lefts[i] - x;
+        float dy = snapshot.tops[i] - y;
+        canvas.translate(dx, dy);
+
+        long chromeStart = timing ? System.nanoTime() : 0;
+
+        viewBoundsRect.set(0, 0, snapshot.widths[i], snapshot.heights[i]);
+        canvas.drawRect(viewBoundsRect, viewBorderPaint);
+
+        long chromeEnd = timing ? System.nanoTime() : 0;
+
+        boolean rendered = true;
+        if (cacheLayers && snapshot.draws[i]) {
+          boolean dirty = fullQuality && needsRender(snapshot, i);
+          rendered = layerCache.draw(view, canvas, dirty);
+        } else {
+          viewContent.draw(view, canvas);
+        }
+
+        long drawEnd = timing ? System.nanoTime() : 0;
+
+        if (drawCosts) {
+          costs.setDrawNanos(i, drawEnd - chromeEnd);
+        }
+
+        if (drawIds && fullQuality) {
+          int id = snapshot.ids[i];
+          if (id != NO_ID) {
+            drawIdLabel(canvas, id, textOffset, textSize);
+          }
+        }
+
+        if (stats != null) {
+          stats.viewsTraversed++;
+          stats.viewsDrawn++;
+          if (rendered) {
+            stats.viewsRendered++;
+          }
+          stats.maxDepth = Math.max(stats.maxDepth, layer);
+          stats.viewDrawNanos += drawEnd - chromeEnd;
+          stats.chromeNanos += (chromeEnd - chromeStart) + (System.nanoTime() - drawEnd);
+        }
+
+        // Views restore any state they change while drawing so undoing the position is enough.
+        canvas.translate(-dx, -dy);
+      }
+
+      canvas.restoreToCount(layerSaveCount);
+    }
+
+    if (cacheLayers) {
+      layerCache.endFrame();
+    }
+    if (fullQuality) {
+      dirtyRegion.setEmpty();
+      Arrays.fill(dirtyMarks, false);
+    }
+  }
+
+  /**
+   * Draw each layer of {@code snapshot} from its display list, recording those which are new or
+   * have a view which needs to be re-drawn first. When {@code fullQuality} is false, only layers
+   * which were never recorded are recorded.
+   */
+  private void drawLayerDisplayLists(Canvas canvas, HierarchySnapshot<View> snapshot, float layerX,
+      float layerY, boolean fullQuality, FrameStats stats) {
+    LayerDisplayLists layerDisplayLists = this.layerDisplayLists;
+    if (drawCosts) {
+      costs();
+    }
+
+    int[] order = snapshot.layerOrder;
+    int[] starts = snapshot.layerStarts;
+    int layerCount = snapshot.layerCount;
+    layerDisplayLists.setLayerCount(layerCount);
+    for (int layer = 0; layer < layerCount; layer++) {
+      int start = starts[layer];
+      int end = starts[layer + 1];
+      if (start == end) {
+        continue;
+      }
+
+      boolean record = !layerDisplayLists.isValid(layer);
+      for (int o = start; o < end && fullQuality && !record; o++) {
+        int i = order[o];
+        record = snapshot.visible[i] && snapshot.draws[i] && needsRender(snapshot, i);
+      }
+      if (record) {
+        recordLayer(snapshot, layer, start, end, stats);
+      }
+
+      long playbackStart = stats != null ? System.nanoTime() : 0;
+      float dx = layer * layerX;
+      float dy = -layer * layerY;
+      canvas.translate(dx, dy);
+      layerDisplayLists.draw(canvas, layer);
+      canvas.translate(-dx, -dy);
+
+      if (stats != null) {
+        stats.viewDrawNanos += System.nanoTime() - playbackStart;
+        for (int o = start; o < end; o++) {
+          if (snapshot.visible[order[o]]) {
+            stats.viewsTraversed++;
+            stats.viewsDrawn++;
+            stats.maxDepth = Math.max(stats.maxDepth, layer);
+          }
+        }
+      }
+    }
+
+    if (fullQuality) {
+      dirtyRegion.setEmpty();
+      Arrays.fill(dirtyMarks, false);
+    }
+  }
+
+  /** Record the content, outline, and ID of each view of {@code layer} into its display list. */
+  private void recordLayer(HierarchySnapshot<View> snapshot, int layer, int start, int end,
+      FrameStats stats) {
+    int x = snapshot.originX;
+    int y = snapshot.originY;
+    int[] order = snapshot.layerOrder;
+    // Outlines and labels may extend slightly past a view so the bounds include the container.
+    int left = 0;
+    int top = 0;
+    int right = getWidth();
+    int bottom = getHeight();
+    for (int o = start; o < end; o++) {
+      int i = order[o];
+      if (snapshot.visible[i]) {
+        left = Math.min(left, snapshot.lefts[i] - x);
+        top = Math.min(top, snapshot.tops[i] - y);
+        right = Math.max(right, snapshot.lefts[i] - x + snapshot.widths[i]);
+        bottom = Math.max(bottom, snapshot.tops[i] - y + snapshot.heights[i]);
+      }
+    }
+    Canvas canvas =
+        layerDisplayLists.beginRecording(layer, left - 1, top - 1, right + 1, bottom + 1);
+
+    boolean drawCosts = this.drawCosts;
+    boolean timing = stats != null || drawCosts;
+    for (int o = start; o < end; o++) {
+      int i = order[o];
+      if (!snapshot.visible[i]) {
+        continue;
+      }
+      float dx = snapshot.lefts[i] - x;
+      float dy = snapshot.tops[i] - y;
+      canvas.translate(dx, dy);
+
+      long chromeStart = timing ? System.nanoTime() : 0;
+      viewBoundsRect.set(0, 0, snapshot.widths[i], snapshot.heights[i]);
+      canvas.drawRect(viewBoundsRect, viewBorderPaint);
+      long chromeEnd = timing ? System.nanoTime() : 0;
+
+      viewContent.draw(snapshot.node(i), canvas);
+      long drawEnd = timing ? System.nanoTime() : 0;
+
+      if (drawCosts) {
+        costs.setDrawNanos(i, drawEnd - chromeEnd);
+      }
       if (drawIds) {
-        int id = view.getId();
+        int id = snapshot.ids[i];
         if (id != NO_ID) {
-          canvas.drawText(nameForId(id), textOffset, textSize, viewBorderPaint);
+          drawIdLabel(canvas, id, textOffset, textSize);
         }
       }
+      if (stats != null) {
+        stats.viewsRendered++;
+        stats.viewDrawNanos += drawEnd - chromeEnd;
+        stats.chromeNanos += (chromeEnd - chromeStart) + (System.nanoTime() - drawEnd);
+      }
+      canvas.translate(-dx, -dy);
+    }
+
+    layerDisplayLists.endRecording();
+    if (drawIds && idLabels.isPrewarming()) {
+      // Labels are skipped until their names are resolved so record the layer again after that.
+      layerDisplayLists.invalidate(layer);
+    }
+  }
+
+  /**
+   * Returns true when the content of the view at {@code index} may have changed since it was last
+   * rendered. Leaves track this themselves. A group is only flagged as dirty along with its
+   * descendants, so it is dirty when an invalidated area overlaps it instead. The views of an
+   * inspected root are dirty when they were marked before their window drew them.
+   */
+  private boolean needsRender(HierarchySnapshot<View> snapshot, int index) {
+    if (inspectedRoot != null) {
+      return dirtyMarks[index];
+    }
+    View view = snapshot.node(index);
+    if (!(view instanceof ViewGroup)) {
+      return view.isDirty();
+    }
+    int left = snapshot.lefts[index] - snapshot.originX;
+    int top = snapshot.tops[index] - snapshot.originY;
+    return dirtyRegion.intersects(left, top, left + snapshot.widths[index],
+        top + snapshot.heights[index]);
+  }
+
+  private void startStreaming() {
+    modelServer = new ModelServer(this, streamingPort);
+    modelServer.start();
+    if (streamWriter == null) {
+      streamWriter = new ModelStreamWriter<>(streamBuffer, snapshotNames);
+    }
+    observeTree();
+  }
+
+  private void stopStreaming() {
+    if (modelServer != null) {
+      modelServer.stop();
+      modelServer = null;
+    }
+    if (streamBitmap != null) {
+      streamBitmap.recycle();
+      streamBitmap = null;
+      streamCanvas = null;
+      streamPixels = null;
+    }
+  }
 
-      canvas.restoreToCount(viewSaveCount);
+  /** Record which views need to be sent again before drawing them clears their dirty flags. */
+  private void markStreamDirty() {
+    HierarchySnapshot<View> snapshot = this.snapshot;
+    int count = snapshot.count;
+    if (streamMarks.length < count) {
+      streamMarks = new boolean[count];
+    }
+    for (int i = 0; i < count; i++) {
+      streamMarks[i] = snapshot.draws[i] && needsRender(snapshot, i);
+    }
+  }
 
-      // Restore any hidden children and queue them for later drawing.
-      if (view instanceof ViewGroup) {
-        ViewGroup viewGroup = (ViewGroup) view;
-        for (int i = 0, count = viewGroup.getChildCount(); i < count; i++) {
-          if (visibilities.get(i)) {
-            View child = viewGroup.getChildAt(i);
-            //noinspection ConstantConditions
-            child.setVisibility(VISIBLE);
-            LayeredView childLayeredView = layeredViewPool.obtain();
-            childLayeredView.set(child, layer + 1);
-            layeredViewQueue.add(childLayeredView);
+  /**
+   * Encode the differences between the snapshot and what was last sent and queue them for the
+   * client. Views which were dirty, or which the client has no rendering of at their current size,
+   * are rendered one at a time into a single shared bitmap. Rendering every view of a full frame
+   * at once would stall the main thread, so views without a rendering are spread over frames by
+   * {@link #STREAM_PIXELS_PER_FRAME} and the client shows their outlines until they arrive.
+   */
+  private void streamFrame(ModelServer modelServer) {
+    ModelStreamWriter<View> writer = streamWriter;
+    int connections = modelServer.connections();
+    if (streamedConnections != connections) {
+      streamedConnections = connections;
+      writer.reset();
+    }
+
+    HierarchySnapshot<View> snapshot = this.snapshot;
+    streamBuffer.reset();
+    int budget = STREAM_PIXELS_PER_FRAME;
+    boolean deferred = false;
+    try {
+      writer.beginFrame(snapshot, getWidth(), getHeight());
+      for (int i = 0, count = snapshot.count; i < count; i++) {
+        int width = snapshot.widths[i];
+        int height = snapshot.heights[i];
+        if (!snapshot.draws[i] || width == 0 || height == 0) {
+          continue;
+        }
+        if (!writer.hasPixels(i)) {
+          if (budget <= 0) {
+            deferred = true;
+            continue;
           }
+          budget -= width * height;
+        } else if (!streamMarks[i]) {
+          continue;
         }
+        writer.writePixels(i, width, height, renderForStream(snapshot.node(i), width, height));
       }
+      if (!writer.endFrame()) {
+        return;
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e); // Writing to memory does not fail.
+    }
+    modelServer.send(streamBuffer.toByteArray(), connections);
+    if (deferred) {
+      // Nothing else may draw for a while so ask for the frame which sends the rest.
+      postInvalidate();
     }
-
-    canvas.restoreToCount(saveCount);
   }
 
-  private String nameForId(int id) {
-    String name = idNames.get(id);
-    if (name == null) {
-      try {
-        name = res.getResourceEntryName(id);
-      } catch (NotFoundException e) {
-        name = String.format("0x%8x", id);
+  /** Render the content of {@code view} and return its pixels stored row by row. */
+  private int[] renderForStream(View view, int width, int height) {
+    Bitmap bitmap = streamBitmap;
+    if (bitmap == null || bitmap.getWidth() < width || bitmap.getHeight() < height) {
+      int bitmapWidth = Math.max(width, bitmap != null ? bitmap.getWidth() : 0);
+      int bitmapHeight = Math.max(height, bitmap != null ? bitmap.getHeight() : 0);
+      if (bitmap != null) {
+        bitmap.recycle();
       }
-      idNames.put(id, name);
+      bitmap = Bitmap.createBitmap(bitmapWidth, bitmapHeight, ARGB_8888);
+      streamBitmap = bitmap;
+      streamCanvas = new Canvas(bitmap);
+      streamPixels = new int[bitmapWidth * bitmapHeight];
     }
-    return name;
+    bitmap.eraseColor(TRANSPARENT);
+    viewContent.draw(view, streamCanvas);
+    bitmap.getPixels(streamPixels, 0, width, 0, 0, width, height);
+    return streamPixels;
   }
 
-  private static abstract class Pool<T> {
-    private final Deque<T> pool;
+  /** Draw the ID labels of {@code snapshot} in a single pass above all of the layers. */
+  private void drawIds(Canvas canvas, HierarchySnapshot<View> snapshot, float layerX,
+      float layerY) {
+    int x = snapshot.originX;
+    int y = snapshot.originY;
+    for (int i = 0, count = snapshot.count; i < count; i++) {
+      int id = snapshot.ids[i];
+      if (id == NO_ID || !snapshot.visible[i]) {
+        continue;
+      }
+      int layer = snapshot.layers[i];
+      float left = snapshot.lefts[i] - x + layer * layerX;
+      float top = snapshot.tops[i] - y - layer * layerY;
+      drawIdLabel(canvas, id, left + textOffset, top + textSize);
+    }
+  }
 
-    Pool(int initialSize) {
-      pool = new ArrayDeque<>(initialSize);
-      for (int i = 0; i < initialSize; i++) {
-        pool.addLast(newObject());
+  /** Draw the label of {@code id} with its baseline at {@code y}, counting it in the stats. */
+  private void drawIdLabel(Canvas canvas, int id, float x, float y) {
+    boolean hit = idLabels.draw(canvas, id, x, y);
+    FrameStats stats = frameStats;
+    if (stats != null) {
+      if (hit) {
+        stats.idNameHits++;
+      } else {
+        stats.idNameMisses++;
       }
     }
+  }
 
-    T obtain() {
-      return pool.isEmpty() ? newObject() : pool.removeLast();
+  private final SnapshotWriter.Names<View> snapshotNames = new SnapshotWriter.Names<View>() {
+    @Override public String className(View view) {
+      return view.getClass().getName();
     }
 
-    void restore(T instance) {
-      pool.addLast(instance);
+    @Override public String idName(View view) {
+      int id = view.getId();
+      return id == NO_ID ? null : idLabels.name(id);
+    }
+  };
+
+  private final class SnapshotInvalidator
+      implements ViewTreeObserver.OnGlobalLayoutListener, ViewTreeObserver.OnScrollChangedListener,
+      ViewTreeObserver.OnPreDrawListener {
+    @Override public void onGlobalLayout() {
+      snapshot.invalidate();
+      if (timeline != null) {
+        // Frames are recorded while drawing, which descendants can be laid out without.
+        invalidate();
+      }
     }
 
-    protected abstract T newObject();
+    @Override public void onScrollChanged() {
+      snapshot.invalidate();
+      if (timeline != null) {
+        invalidate();
+      }
+    }
+
+    @Override public boolean onPreDraw() {
+      HierarchySnapshot<View> snapshot = ScalpelFrameLayout.this.snapshot;
+      if (inspectedRoot == null) {
+        // Streaming needs this view to draw, and so to see their dirty flags, before the captured
+        // views are redrawn. Descendants can otherwise redraw without this view drawing at all.
+        // Their invalidations pass through this view first so there is nothing to look for unless
+        // some area of it was invalidated.
+        if (dirtyRegion.isEmpty()) {
+          return true;
+        }
+        for (int i = 0, count = snapshot.count; i < count; i++) {
+          if (snapshot.node(i).isDirty()) {
+            invalidate();
+            return true;
+          }
+        }
+        if (!enabled) {
+          // Only views which are not captured were invalidated. Drawing the model clears it too.
+          dirtyRegion.setEmpty();
+        }
+        return true;
+      }
+      // Drawing the inspected window clears the dirty flags of its views so record them first.
+      // Its views are invalidated in their own window, so they have to be checked each time.
+      boolean[] dirtyMarks = ScalpelFrameLayout.this.dirtyMarks;
+      boolean marked = false;
+      for (int i = 0, count = Math.min(snapshot.count, dirtyMarks.length); i < count; i++) {
+        if (snapshot.node(i).isDirty()) {
+          dirtyMarks[i] = true;
+          marked = true;
+        }
+      }
+      if (marked) {
+        invalidate();
+      }
+      return true;
+    }
   }
 }
@@ -0,0 +1,132 @@
+package com.jakewharton.scalpel;
+
+import android.content.Context;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.WindowManager;
+import java.util.HashMap;
+import java.util.Map;
+
+import static android.graphics.PixelFormat.OPAQUE;
+import static android.view.KeyEvent.ACTION_UP;
+import static android.view.KeyEvent.KEYCODE_BACK;
+import static android.view.ViewGroup.LayoutParams.MATCH_PARENT;
+import static android.view.WindowManager.LayoutParams.TYPE_APPLICATION_PANEL;
+
+/**
+ * Explodes the hierarchy of any window of the application, such as that of an activity, dialog, or
+ * popup, in a panel shown over the window on demand. Unlike wrapping a layout in a
+ * {@link ScalpelFrameLayout}, the inspected window is left untouched.
+ * <p>
+ * There is one inspector for each window, so everything inspecting a window shares a single
+ * hierarchy snapshot and layer cache. The rotation, zoom, spacing, chrome, and every other setting
+ * are configured on the {@linkplain #getLayout() layout} which draws the model and are kept while
+ * the inspector is hidden. Pressing back hides the inspector. An inspector is released when its
+ * window goes away.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public final class ScalpelInspector {
+  private static final int BACKDROP_COLOR = 0xFF222222;
+
+  /** Inspectors of attached windows by root view. Removed when the window is detached. */
+  private static final Map<View, ScalpelInspector> inspectors = new HashMap<>();
+
+  /**
+   * Returns the inspector for the window which contains {@code view}, creating it if needed. The
+   * view must be attached to a window.
+   */
+  public static ScalpelInspector forWindowOf(View view) {
+    if (view.getWindowToken() == null) {
+      throw new IllegalStateException("View is not attached to a window: " + view);
+    }
+    View root = view.getRootView();
+    ScalpelInspector inspector = inspectors.get(root);
+    if (inspector == null) {
+      inspector = new ScalpelInspector(root);
+      inspectors.put(root, inspector);
+    }
+    return inspector;
+  }
+
+  private final View root;
+  private final ScalpelFrameLayout layout;
+  private final WindowManager windowManager;
+  private boolean showing;
+
+  private ScalpelInspector(View root) {
+    this.root = root;
+    Context context = root.getContext();
+    windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+
+    layout = new ScalpelFrameLayout(context);
+    layout.setBackgroundColor(BACKDROP_COLOR);
+    layout.setInspectedRoot(root);
+    layout.setLayerInteractionEnabled(true);
+    layout.setFocusableInTouchMode(true);
+    layout.setOnKeyListener(new View.OnKeyListener() {
+      @Override public boolean onKey(View v, int keyCode, KeyEvent event) {
+        if (keyCode != KEYCODE_BACK) {
+          return false;
+        }
+        if (event.getAction() == ACTION_UP) {
+          hide();
+        }
+        return true;
+      }
+    });
+
+    root.addOnAttachStateChangeListener(new View.OnAttachStateChangeListener() {
+      @Override public void onViewAttachedToWindow(View v) {
+      }
+
+      @Override public void onViewDetachedFromWindow(View v) {
+        v.removeOnAttachStateChangeListener(this);
+        hide();
+        inspectors.remove(v);
+      }
+    });
+  }
+
+  /** The layout which draws the model, for changing the camera and what is drawn. */
+  public ScalpelFrameLayout getLayout() {
+    return layout;
+  }
+
+  /** Show the model in a panel covering the inspected window. */
+  public void show() {
+    if (showing) {
+      return;
+    }
+    WindowManager.LayoutParams params = new WindowManager.LayoutParams(MATCH_PARENT, MATCH_PARENT,
+        TYPE_APPLICATION_PANEL, 0, OPAQUE);
+    // Attaching the panel to the inspected window places it over that window at the same size.
+    params.token = root.getWindowToken();
+    params.setTitle("Scalpel");
+    windowManager.addView(layout, params);
+    layout.requestFocus();
+    showing = true;
+  }
+
+  /** Remove the panel, releasing the snapshot and cached layers of the window. */
+  public void hide() {
+    if (!showing) {
+      return;
+    }
+    showing = false;
+    windowManager.removeView(layout);
+  }
+
+  public boolean isShowing() {
+    return showing;
+  }
+
+  /** Show the inspector when hidden and hide it when shown. */
+  public void toggle() {
+    if (showing) {
+      hide();
+    } else {
+      show();
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package com.jakewharton.scalpel;
+
+/** Interpolates a single value toward a target along a decelerating curve. */
+final class Tween {
+  private float from;
+  private float to;
+  private long startNanos;
+  private long durationNanos;
+  private boolean running;
+
+  void start(float from, float to, long startNanos, long durationNanos) {
+    this.from = from;
+    this.to = to;
+    this.startNanos = startNanos;
+    this.durationNanos = durationNanos;
+    running = true;
+  }
+
+  void cancel() {
+    running = false;
+  }
+
+  boolean isRunning() {
+    return running;
+  }
+
+  /** Returns the value at {@code nanos}. The tween stops once its duration has elapsed. */
+  float valueAt(long nanos) {
+    float t = (float) (nanos - startNanos) / durationNanos;
+    if (t >= 1f) {
+      running = false;
+      return to;
+    }
+    if (t < 0f) {
+      return from;
+    }
+    float remaining = 1f - t;
+    return from + (to - from) * (1f - remaining * remaining);
+  }
+}
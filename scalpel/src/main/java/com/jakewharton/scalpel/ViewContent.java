@@ -0,0 +1,103 @@
+package com.jakewharton.scalpel;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Draws the content which belongs to a view itself. For view groups this is the background, the
+ * result of {@code onDraw}, and the foreground of a {@link FrameLayout}, but not the children.
+ * Unlike hiding the children and calling {@link View#draw(Canvas)}, this does not change the
+ * visibility of the children and so does not trigger invalidation, layout, or accessibility events
+ * in the hierarchy being inspected. The bounds of the background and foreground are set while they
+ * are drawn and restored afterwards. Scroll bars are not drawn.
+ * <p>
+ * Views which are not groups are drawn with {@link View#draw(Canvas)} itself, which clears their
+ * dirty flags like any other draw.
+ */
+final class ViewContent {
+  private static final Method ON_DRAW = findOnDraw();
+
+  /** Reused to avoid allocating a varargs array for every reflective call. */
+  private final Object[] onDrawArgs = new Object[1];
+  private final Rect drawableBounds = new Rect();
+
+  private static Method findOnDraw() {
+    try {
+      Method onDraw = View.class.getDeclaredMethod("onDraw", Canvas.class);
+      onDraw.setAccessible(true);
+      return onDraw;
+    } catch (NoSuchMethodException | SecurityException e) {
+      Log.w("Scalpel", "Unable to access View.onDraw. Groups will only draw backgrounds.", e);
+      return null;
+    }
+  }
+
+  void draw(View view, Canvas canvas) {
+    if (!(view instanceof ViewGroup)) {
+      view.draw(canvas);
+      return;
+    }
+
+    int width = view.getWidth();
+    int height = view.getHeight();
+
+    Drawable background = view.getBackground();
+    if (background != null) {
+      background.copyBounds(drawableBounds);
+      background.setBounds(0, 0, width, height);
+      int scrollX = view.getScrollX();
+      int scrollY = view.getScrollY();
+      if ((scrollX | scrollY) == 0) {
+        background.draw(canvas);
+      } else {
+        canvas.translate(scrollX, scrollY);
+        background.draw(canvas);
+        canvas.translate(-scrollX, -scrollY);
+      }
+      background.setBounds(drawableBounds);
+    }
+
+    // Groups which will not draw are skipped by the framework so we do the same.
+    if (ON_DRAW != null && !view.willNotDraw()) {
+      onDrawArgs[0] = canvas;
+      try {
+        ON_DRAW.invoke(view, onDrawArgs);
+      } catch (IllegalAccessException e) {
+        throw new AssertionError(e);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new RuntimeException(cause);
+      } finally {
+        onDrawArgs[0] = null;
+      }
+    }
+
+    if (view instanceof FrameLayout) {
+      Drawable foreground = ((FrameLayout) view).getForeground();
+      if (foreground != null) {
+        // The bounds honor the foreground gravity once the frame has been drawn normally.
+        foreground.copyBounds(drawableBounds);
+        if (drawableBounds.isEmpty()) {
+          foreground.setBounds(0, 0, width, height);
+          foreground.draw(canvas);
+          foreground.setBounds(drawableBounds);
+        } else {
+          foreground.draw(canvas);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package com.jakewharton.scalpel;
+
+import android.view.View;
+
+import static android.view.View.LAYER_TYPE_HARDWARE;
+import static android.view.View.LAYER_TYPE_SOFTWARE;
+
+/** Performance-relevant properties of a single view in the model. */
+public final class ViewCost {
+  // Rough costs in microseconds used to rank views by properties which are not timed directly.
+  private static final long DEPTH_COST_MICROS = 10;
+  private static final long CHILD_COST_MICROS = 5;
+  private static final long OFFSCREEN_COST_MICROS = 500;
+  private static final long SOFTWARE_LAYER_COST_MICROS = 1000;
+
+  private final View view;
+  private final int depth;
+  private final int childCount;
+  private final int layerType;
+  private final float alpha;
+  private final boolean offscreen;
+  private final long drawNanos;
+
+  ViewCost(View view, int depth, int childCount, int layerType, float alpha, boolean offscreen,
+      long drawNanos) {
+    this.view = view;
+    this.depth = depth;
+    this.childCount = childCount;
+    this.layerType = layerType;
+    this.alpha = alpha;
+    this.offscreen = offscreen;
+    this.drawNanos = drawNanos;
+  }
+
+  public View getView() {
+    return view;
+  }
+
+  /** Number of ancestors between this view and the root of its window. */
+  public int getDepth() {
+    return depth;
+  }
+
+  /** Number of children, including those which are gone. Zero for views which are not groups. */
+  public int getChildCount() {
+    return childCount;
+  }
+
+  /** One of {@link View#LAYER_TYPE_NONE}, {@code LAYER_TYPE_SOFTWARE}, or {@code HARDWARE}. */
+  public int getLayerType() {
+    return layerType;
+  }
+
+  public float getAlpha() {
+    return alpha;
+  }
+
+  /**
+   * Returns true when a partial alpha and overlapping rendering without a layer force the view to
+   * be drawn into an offscreen buffer every frame.
+   */
+  public boolean isOffscreen() {
+    return offscreen;
+  }
+
+  /**
+   * Time spent drawing this view's content in the most recent frame of the model. Zero unless cost
+   * annotations were drawn since the hierarchy was last captured. With the layer cache enabled,
+   * this only includes re-rendering when the view was invalidated.
+   */
+  public long getDrawNanos() {
+    return drawNanos;
+  }
+
+  /**
+   * An estimate of this view's cost used to rank views. This is its draw time in microseconds plus
+   * rough equivalents for its depth, its number of children, an offscreen buffer, and a software
+   * layer.
+   */
+  public long getScore() {
+    long score = drawNanos / 1000 + depth * DEPTH_COST_MICROS + childCount * CHILD_COST_MICROS;
+    if (offscreen) {
+      score += OFFSCREEN_COST_MICROS;
+    }
+    if (layerType == LAYER_TYPE_SOFTWARE) {
+      score += SOFTWARE_LAYER_COST_MICROS;
+    }
+    return score;
+  }
+
+  @Override public String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(view.getClass().getSimpleName())
+        .append("{depth=").append(depth)
+        .append(", children=").append(childCount);
+    if (layerType == LAYER_TYPE_HARDWARE) {
+      builder.append(", hardware layer");
+    } else if (layerType == LAYER_TYPE_SOFTWARE) {
+      builder.append(", software layer");
+    }
+    if (alpha < 1) {
+      builder.append(", alpha=").append(alpha);
+    }
+    if (offscreen) {
+      builder.append(", offscreen");
+    }
+    return builder.append(", drawNanos=").append(drawNanos)
+        .append(", score=").append(getScore())
+        .append('}')
+        .toString();
+  }
+}
@@ -0,0 +1,64 @@
+package com.jakewharton.scalpel;
+
+import android.os.Build;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import com.jakewharton.scalpel.core.NodeAdapter;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN_MR2;
+import static android.view.View.GONE;
+import static android.view.View.VISIBLE;
+
+/** Exposes a view hierarchy to the platform-independent traversal. */
+final class ViewNodeAdapter implements NodeAdapter<View> {
+  static final ViewNodeAdapter INSTANCE = new ViewNodeAdapter();
+
+  @Override public int childCount(View node) {
+    return node instanceof ViewGroup ? ((ViewGroup) node).getChildCount() : 0;
+  }
+
+  @Override public View childAt(View node, int index) {
+    return ((ViewGroup) node).getChildAt(index);
+  }
+
+  @Override public boolean isGone(View node) {
+    return node.getVisibility() == GONE;
+  }
+
+  @Override public boolean isVisible(View node) {
+    return node.getVisibility() == VISIBLE;
+  }
+
+  @Override public void getLocation(View node, int[] location) {
+    node.getLocationInWindow(location);
+  }
+
+  @Override public int width(View node) {
+    return node.getWidth();
+  }
+
+  @Override public int height(View node) {
+    return node.getHeight();
+  }
+
+  @Override public int id(View node) {
+    return node.getId();
+  }
+
+  @Override public boolean clipsChildren(View node) {
+    // Groups clip their children by default. Whether they do is only exposed on API 18 and newer.
+    return node instanceof ViewGroup
+        && (Build.VERSION.SDK_INT < JELLY_BEAN_MR2 || ((ViewGroup) node).getClipChildren());
+  }
+
+  @Override public boolean drawsContent(View node) {
+    if (!(node instanceof ViewGroup) || !node.willNotDraw() || node.getBackground() != null) {
+      return true;
+    }
+    return node instanceof FrameLayout && ((FrameLayout) node).getForeground() != null;
+  }
+
+  private ViewNodeAdapter() {
+  }
+}
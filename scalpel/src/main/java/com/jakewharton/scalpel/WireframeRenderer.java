@@ -0,0 +1,35 @@
+package com.jakewharton.scalpel;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.view.View;
+import com.jakewharton.scalpel.core.HierarchySnapshot;
+import com.jakewharton.scalpel.core.LayerProjection;
+
+import static com.jakewharton.scalpel.core.LayerProjection.FLOATS_PER_OUTLINE;
+
+/**
+ * Draws the outline of every visible view in a snapshot with a single {@link Canvas#drawLines}
+ * call. Each view's layer offset and window location are applied to its points directly rather
+ * than through the canvas matrix.
+ */
+final class WireframeRenderer {
+  private float[] points = new float[FLOATS_PER_OUTLINE * 25];
+
+  /**
+   * Draw the outlines of {@code snapshot}, offsetting each view by its layer multiplied by
+   * {@code layerX} and {@code -layerY}.
+   */
+  void draw(Canvas canvas, HierarchySnapshot<View> snapshot, float layerX, float layerY,
+      Paint paint) {
+    int count = snapshot.count;
+    if (points.length < count * FLOATS_PER_OUTLINE) {
+      points = new float[count * FLOATS_PER_OUTLINE];
+    }
+
+    int n = LayerProjection.projectOutlines(snapshot, layerX, layerY, points);
+    if (n > 0) {
+      canvas.drawLines(points, 0, n, paint);
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package com.jakewharton.scalpel;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Records the outlines and selection drawn by {@link ScalpelFrameLayout} into a
+ * {@link GoldenImage}. The camera matrix is not applied since the emulated platform does not
+ * compute it, so the image shows the exploded layers before the perspective rotation.
+ */
+final class GoldenCanvas extends Canvas {
+  final GoldenImage image;
+
+  GoldenCanvas(int width, int height) {
+    image = new GoldenImage(width, height);
+  }
+
+  @Override public void drawLines(float[] pts, int offset, int count, Paint paint) {
+    int color = paint.getColor();
+    for (int i = offset, end = offset + count - 3; i < end; i += 4) {
+      image.line(pts[i], pts[i + 1], pts[i + 2], pts[i + 3], color);
+    }
+  }
+
+  @Override public void drawLines(float[] pts, Paint paint) {
+    drawLines(pts, 0, pts.length, paint);
+  }
+
+  @Override public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+    image.rect(left, top, right, bottom, paint.getColor());
+  }
+}
@@ -0,0 +1,108 @@
+package com.jakewharton.scalpel;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * A software rendering of the lines and rectangles drawn by a test which is compared against a
+ * PNG committed under {@code src/test/goldens/}. Run the tests with {@code -PrecordGoldens} to
+ * replace the goldens with the current output.
+ */
+final class GoldenImage {
+  /** Largest difference of any color channel at which two pixels are still equal. */
+  private static final int TOLERANCE = 2;
+  private static final int BACKGROUND = 0xFFFFFFFF;
+
+  private final BufferedImage image;
+  private final Graphics2D graphics;
+
+  GoldenImage(int width, int height) {
+    image = new BufferedImage(width, height, TYPE_INT_ARGB);
+    graphics = image.createGraphics();
+    graphics.setColor(new Color(BACKGROUND, true));
+    graphics.fillRect(0, 0, width, height);
+  }
+
+  /** Draw a one pixel wide line. Endpoints are rounded so the result does not depend on the JDK. */
+  void line(float x0, float y0, float x1, float y1, int color) {
+    graphics.setColor(new Color(color, true));
+    graphics.drawLine(Math.round(x0), Math.round(y0), Math.round(x1), Math.round(y1));
+  }
+
+  /** Blend {@code color} over the rectangle from ({@code left}, {@code top}) inclusive. */
+  void rect(float left, float top, float right, float bottom, int color) {
+    int l = Math.round(left);
+    int t = Math.round(top);
+    graphics.setColor(new Color(color, true));
+    graphics.fillRect(l, t, Math.round(right) - l, Math.round(bottom) - t);
+  }
+
+  /** Fail unless this image matches the golden named {@code name}. */
+  void assertMatches(String name) throws IOException {
+    File golden = new File(directory("scalpel.goldens", "src/test/goldens"), name + ".png");
+    if (Boolean.getBoolean("scalpel.goldens.record")) {
+      write(golden);
+      return;
+    }
+    assertTrue("Missing golden " + golden + ". Record it with -PrecordGoldens.", golden.exists());
+
+    BufferedImage expected = ImageIO.read(golden);
+    int width = image.getWidth();
+    int height = image.getHeight();
+    if (expected.getWidth() != width || expected.getHeight() != height) {
+      fail(mismatch(name, "Size " + width + "x" + height + " does not match golden "
+          + expected.getWidth() + "x" + expected.getHeight()));
+    }
+    int different = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        if (!equal(expected.getRGB(x, y), image.getRGB(x, y))) {
+          different++;
+        }
+      }
+    }
+    if (different > 0) {
+      fail(mismatch(name, different + " pixels differ from golden " + golden));
+    }
+  }
+
+  /** Write the actual image next to the build output and describe where to find it. */
+  private String mismatch(String name, String message) throws IOException {
+    File actual = new File(directory("scalpel.goldens.failures", "build/goldens"), name + ".png");
+    write(actual);
+    return message + ". Actual image written to " + actual + ".";
+  }
+
+  private void write(File file) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Unable to create " + parent);
+    }
+    if (!ImageIO.write(image, "png", file)) {
+      throw new IOException("No PNG writer for " + file);
+    }
+  }
+
+  private static File directory(String property, String fallback) {
+    return new File(System.getProperty(property, fallback));
+  }
+
+  private static boolean equal(int expected, int actual) {
+    for (int shift = 0; shift < 32; shift += 8) {
+      int a = (expected >>> shift) & 0xFF;
+      int b = (actual >>> shift) & 0xFF;
+      if (Math.abs(a - b) > TOLERANCE) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,135 @@
+package com.jakewharton.scalpel;
+
+import android.app.Activity;
+import android.content.Context;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static android.view.MotionEvent.ACTION_DOWN;
+import static android.view.MotionEvent.ACTION_MOVE;
+import static android.view.MotionEvent.ACTION_UP;
+import static android.view.View.MeasureSpec.EXACTLY;
+import static android.view.View.MeasureSpec.makeMeasureSpec;
+import static android.view.ViewGroup.LayoutParams.MATCH_PARENT;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Explodes a small synthetic hierarchy, drives it with touch events, and compares the outlines
+ * and selection it draws against committed goldens. The view is attached to a window since views
+ * only know their location in one, and its frames are run on demand by the emulated main looper.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public final class ScalpelFrameLayoutTest {
+  private static final int WIDTH = 480;
+  private static final int HEIGHT = 800;
+  private static final int MOVE_STEPS = 4;
+
+  private ScalpelFrameLayout scalpel;
+  private View icon;
+  private long downTime;
+  private long time;
+
+  @Before public void setUp() {
+    Activity context = Robolectric.buildActivity(Activity.class).create().start().resume().visible()
+        .get();
+    scalpel = new ScalpelFrameLayout(context);
+    context.setContentView(scalpel, new ViewGroup.LayoutParams(WIDTH, HEIGHT));
+
+    FrameLayout content = group(context, true);
+    scalpel.addView(content, new FrameLayout.LayoutParams(MATCH_PARENT, MATCH_PARENT));
+    content.addView(view(context), params(0, 0, 480, 96));
+    FrameLayout card = group(context, true);
+    content.addView(card, params(32, 144, 416, 320));
+    icon = view(context);
+    card.addView(icon, params(24, 24, 96, 96));
+    card.addView(view(context), params(144, 40, 240, 32));
+    card.addView(view(context), params(144, 88, 192, 24));
+    // Draws nothing of its own so it only shows up as an outline.
+    FrameLayout footer = group(context, false);
+    content.addView(footer, params(32, 512, 416, 224));
+    footer.addView(view(context), params(0, 160, 192, 64));
+    footer.addView(view(context), params(224, 160, 192, 64));
+
+    scalpel.measure(makeMeasureSpec(WIDTH, EXACTLY), makeMeasureSpec(HEIGHT, EXACTLY));
+    scalpel.layout(0, 0, WIDTH, HEIGHT);
+    scalpel.setLayerInteractionEnabled(true);
+    scalpel.setDrawViews(false);
+    scalpel.setDrawIds(false);
+  }
+
+  @Test public void explodedOutlines() throws IOException {
+    draw().assertMatches("exploded");
+  }
+
+  @Test public void dragRotatesLayerOffsets() throws IOException {
+    // Turns the model 18 degrees around the Y axis and 9 degrees around the X axis.
+    drag(WIDTH / 5f, -HEIGHT / 10f);
+    draw().assertMatches("dragged");
+  }
+
+  @Test public void selectionIsHighlightedOnItsLayer() throws IOException {
+    scalpel.setSelectedView(icon);
+    assertSame(icon, scalpel.getSelectedView());
+    draw().assertMatches("selected");
+  }
+
+  private GoldenImage draw() {
+    GoldenCanvas canvas = new GoldenCanvas(WIDTH, HEIGHT);
+    scalpel.draw(canvas);
+    return canvas.image;
+  }
+
+  /** Drag a single pointer from the center by ({@code dx}, {@code dy}) and run its frames. */
+  private void drag(float dx, float dy) {
+    float x = WIDTH / 2f;
+    float y = HEIGHT / 2f;
+    downTime = time;
+    touch(ACTION_DOWN, x, y);
+    for (int i = 1; i <= MOVE_STEPS; i++) {
+      touch(ACTION_MOVE, x + dx * i / MOVE_STEPS, y + dy * i / MOVE_STEPS);
+    }
+    // Hold still before lifting so the release does not start a fling.
+    time += 1000;
+    touch(ACTION_MOVE, x + dx, y + dy);
+    touch(ACTION_UP, x + dx, y + dy);
+    Robolectric.runUiThreadTasksIncludingDelayedTasks();
+  }
+
+  private void touch(int action, float x, float y) {
+    time += 16;
+    MotionEvent event = MotionEvent.obtain(downTime, time, action, x, y, 0);
+    scalpel.onTouchEvent(event);
+    event.recycle();
+  }
+
+  private static FrameLayout group(Context context, boolean background) {
+    FrameLayout group = new FrameLayout(context);
+    if (background) {
+      group.setBackgroundColor(0xFFEEEEEE);
+    }
+    return group;
+  }
+
+  private static View view(Context context) {
+    View view = new View(context);
+    view.setBackgroundColor(0xFFCCCCCC);
+    return view;
+  }
+
+  private static FrameLayout.LayoutParams params(int left, int top, int width, int height) {
+    FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(width, height);
+    params.leftMargin = left;
+    params.topMargin = top;
+    return params;
+  }
+}
@@ -0,0 +1,225 @@
+package com.jakewharton.scalpel;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.annotation.Config;
+
+import static android.view.MotionEvent.ACTION_DOWN;
+import static android.view.MotionEvent.ACTION_MOVE;
+import static android.view.MotionEvent.ACTION_UP;
+import static android.view.View.MeasureSpec.EXACTLY;
+import static android.view.View.MeasureSpec.makeMeasureSpec;
+import static android.view.ViewGroup.LayoutParams.MATCH_PARENT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Explodes complete synthetic hierarchies of {@code width} children per group and {@code depth}
+ * levels of groups, rotates them with a one finger drag, and writes the {@link FrameStats} of
+ * every frame to a CSV report under {@code build/reports/scalpel/}. The hierarchies default to
+ * those below and can be replaced with a comma separated list of {@code WIDTHxDEPTH} with
+ * {@code -PstressHierarchies=10x4,30x3}.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public final class ScalpelStressTest {
+  private static final String DEFAULT_HIERARCHIES = "4x3,10x3,10x4,30x3";
+  private static final int WIDTH = 480;
+  private static final int HEIGHT = 800;
+  private static final int IDLE_FRAMES = 2;
+  private static final int DRAG_FRAMES = 20;
+  /** Frames which draw the model: the idle ones, the drag going down, moving, and going up. */
+  private static final int FRAMES = IDLE_FRAMES + DRAG_FRAMES + 2;
+
+  @ParameterizedRobolectricTestRunner.Parameters(name = "{0}x{1}")
+  public static List<Object[]> hierarchies() {
+    String spec = System.getProperty("scalpel.stress.hierarchies", DEFAULT_HIERARCHIES);
+    List<Object[]> hierarchies = new ArrayList<>();
+    for (String hierarchy : spec.split(",")) {
+      String[] parts = hierarchy.trim().split("x");
+      hierarchies.add(new Object[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) });
+    }
+    return hierarchies;
+  }
+
+  private final int width;
+  private final int depth;
+  private final long[] frameNanos = new long[FRAMES];
+  private final FrameStats[] frames = new FrameStats[FRAMES];
+  private int frameCount;
+  private ScalpelFrameLayout scalpel;
+  private int viewCount;
+  /** Views which are not clipped away entirely, which are all a capture includes. */
+  private int shownCount;
+  private long downTime;
+  private long time;
+
+  public ScalpelStressTest(int width, int depth) {
+    this.width = width;
+    this.depth = depth;
+  }
+
+  @Before public void setUp() {
+    Activity context = Robolectric.buildActivity(Activity.class).create().start().resume().visible()
+        .get();
+    scalpel = new ScalpelFrameLayout(context);
+    context.setContentView(scalpel, new ViewGroup.LayoutParams(WIDTH, HEIGHT));
+    int[] count = new int[1];
+    scalpel.addView(build(context, width, depth, count));
+    viewCount = count[0];
+
+    scalpel.measure(makeMeasureSpec(WIDTH, EXACTLY), makeMeasureSpec(HEIGHT, EXACTLY));
+    scalpel.layout(0, 0, WIDTH, HEIGHT);
+    shownCount = countShown(scalpel.getChildAt(0));
+    scalpel.setLayerInteractionEnabled(true);
+    scalpel.setFrameStatsListener(new ScalpelFrameLayout.FrameStatsListener() {
+      @Override public void onFrameStats(FrameStats stats) {
+        // The instance is reused so the values are copied for the report.
+        FrameStats copy = new FrameStats();
+        copy.captured = stats.captured;
+        copy.captureNanos = stats.captureNanos;
+        copy.viewsTraversed = stats.viewsTraversed;
+        copy.viewsDrawn = stats.viewsDrawn;
+        copy.viewsRendered = stats.viewsRendered;
+        copy.maxDepth = stats.maxDepth;
+        copy.viewDrawNanos = stats.viewDrawNanos;
+        copy.chromeNanos = stats.chromeNanos;
+        frames[frameCount] = copy;
+      }
+    });
+  }
+
+  @Test public void dragReportsEveryFrame() throws IOException {
+    float cx = WIDTH / 2f;
+    float cy = HEIGHT / 2f;
+    float span = WIDTH / 4f;
+    for (int frame = 0; frame < FRAMES; frame++) {
+      int dragFrame = frame - IDLE_FRAMES;
+      if (dragFrame >= 0) {
+        float progress = dragFrame / (float) (DRAG_FRAMES + 1);
+        int action = dragFrame == 0 ? ACTION_DOWN
+            : dragFrame == DRAG_FRAMES + 1 ? ACTION_UP : ACTION_MOVE;
+        touch(action, cx - span + 2 * span * progress, cy + span * (float) Math.sin(progress * 3));
+      }
+      Robolectric.runUiThreadTasksIncludingDelayedTasks();
+      long start = System.nanoTime();
+      scalpel.draw(new Canvas());
+      frameNanos[frameCount++] = System.nanoTime() - start;
+    }
+    writeReport();
+
+    // Rotating moves no view so the hierarchy is only captured for the first frame.
+    assertTrue(frames[0].captured);
+    for (int i = 0; i < FRAMES; i++) {
+      FrameStats stats = frames[i];
+      String frame = "Frame " + i;
+      assertEquals(frame, i == 0, stats.captured);
+      assertEquals(frame, shownCount, stats.viewsTraversed);
+      assertEquals(frame, depth, stats.maxDepth);
+      assertFalse(frame, stats.viewsDrawn > stats.viewsTraversed);
+    }
+  }
+
+  private void touch(int action, float x, float y) {
+    time += 16;
+    if (action == ACTION_DOWN) {
+      downTime = time;
+    }
+    MotionEvent event = MotionEvent.obtain(downTime, time, action, x, y, 0);
+    scalpel.onTouchEvent(event);
+    event.recycle();
+  }
+
+  private void writeReport() throws IOException {
+    File directory = new File(System.getProperty("scalpel.reports", "build/reports/scalpel"));
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create " + directory);
+    }
+    File file = new File(directory, "stress-" + width + "x" + depth + ".csv");
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      out.write("# " + width + "x" + depth + ": " + viewCount + " views, " + shownCount
+          + " shown, frame p50 " + millis(percentile(50)) + " ms, p90 " + millis(percentile(90))
+          + " ms\n");
+      out.write("frame,frameNanos,captured,captureNanos,viewsTraversed,viewsDrawn,viewsRendered,"
+          + "maxDepth,viewDrawNanos,chromeNanos\n");
+      for (int i = 0; i < frameCount; i++) {
+        FrameStats stats = frames[i];
+        out.write(i + "," + frameNanos[i] + "," + stats.captured + "," + stats.captureNanos + ","
+            + stats.viewsTraversed + "," + stats.viewsDrawn + "," + stats.viewsRendered + ","
+            + stats.maxDepth + "," + stats.viewDrawNanos + "," + stats.chromeNanos + "\n");
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private long percentile(int percent) {
+    long[] sorted = Arrays.copyOf(frameNanos, frameCount);
+    Arrays.sort(sorted);
+    return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+  }
+
+  private static String millis(long nanos) {
+    return String.format("%.2f", nanos / 1e6);
+  }
+
+  /** The number of views in the tree of {@code view} which have an area and so can be seen. */
+  private static int countShown(View view) {
+    if (view.getWidth() == 0 || view.getHeight() == 0) {
+      return 0;
+    }
+    int count = 1;
+    if (view instanceof ViewGroup) {
+      ViewGroup group = (ViewGroup) view;
+      for (int i = 0, childCount = group.getChildCount(); i < childCount; i++) {
+        count += countShown(group.getChildAt(i));
+      }
+    }
+    return count;
+  }
+
+  /**
+   * A complete tree of {@code depth} levels of groups, each splitting its area evenly among
+   * {@code width} children in alternating directions. {@code count} is increased by the number of
+   * views built.
+   */
+  private static View build(Context context, int width, int depth, int[] count) {
+    count[0]++;
+    if (depth == 0) {
+      View leaf = new View(context);
+      leaf.setBackgroundColor(0xFFCCCCCC);
+      return leaf;
+    }
+    LinearLayout group = new LinearLayout(context);
+    boolean horizontal = depth % 2 == 0;
+    group.setOrientation(horizontal ? LinearLayout.HORIZONTAL : LinearLayout.VERTICAL);
+    group.setPadding(1, 1, 1, 1);
+    for (int i = 0; i < width; i++) {
+      LinearLayout.LayoutParams params = horizontal
+          ? new LinearLayout.LayoutParams(0, MATCH_PARENT, 1)
+          : new LinearLayout.LayoutParams(MATCH_PARENT, 0, 1);
+      group.addView(build(context, width, depth - 1, count), params);
+    }
+    return group;
+  }
+}